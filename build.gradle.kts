@@ -1,3 +1,5 @@
+import java.util.zip.CRC32
+
 plugins {
     id("java")
     id("application")
@@ -38,7 +40,56 @@ dependencies {
 
 
 tasks.test {
-    useJUnitPlatform()
+    useJUnitPlatform {
+        excludeTags("perf")
+    }
+}
+
+// allocation and latency budgets per operation (src/test/resources/perf-baseline.properties), not part of test/check;
+// -PrecordPerfBaseline rewrites the file from this machine's numbers. While the file says provisional=true,
+// overruns are only printed
+val perfBaseline = file("src/test/resources/perf-baseline.properties")
+val perfTest by tasks.registering(Test::class) {
+    group = "verification"
+    description = "Fails when an operation allocates more or is slower than perf-baseline.properties allows (reports only while it is provisional)."
+    testClassesDirs = sourceSets.test.get().output.classesDirs
+    classpath = sourceSets.test.get().runtimeClasspath
+    useJUnitPlatform {
+        includeTags("perf")
+    }
+    maxHeapSize = "1g"
+    inputs.file(perfBaseline)
+    outputs.upToDateWhen { false } // a measurement, not a build step
+    if (project.hasProperty("recordPerfBaseline")) systemProperty("perf.record", perfBaseline.absolutePath)
+}
+
+// db/migration.manifest: "version|flyway checksum" per migration, lets FAST_START skip the Flyway scan
+val migrationManifest by tasks.registering {
+    val migrations = fileTree("src/main/resources/db/migration") { include("V*__*.sql") }
+    val outDir = layout.buildDirectory.dir("generated/migration-manifest")
+    inputs.files(migrations)
+    outputs.dir(outDir)
+    doLast {
+        val lines = migrations.files
+            .sortedBy { it.name.substringBefore("__").removePrefix("V").toInt() }
+            .map { f ->
+                // same CRC32 as Flyway: each line without its line break, BOM stripped
+                val crc = CRC32()
+                f.bufferedReader(Charsets.UTF_8).useLines { ls ->
+                    ls.forEachIndexed { i, l ->
+                        crc.update((if (i == 0) l.removePrefix("\uFEFF") else l).toByteArray(Charsets.UTF_8))
+                    }
+                }
+                f.name.substringBefore("__").removePrefix("V").replace('_', '.') + "|" + crc.value.toInt()
+            }
+        val out = outDir.get().file("db/migration.manifest").asFile
+        out.parentFile.mkdirs()
+        out.writeText(lines.joinToString("\n", postfix = "\n"))
+    }
+}
+
+sourceSets.main {
+    resources.srcDir(migrationManifest)
 }
 
 application {
@@ -54,3 +105,49 @@ tasks.jar {
 tasks.named<JavaExec>("run") {
     standardInput = System.`in`
 }
+
+// AppCDS archive: starts the installed app once in in-memory mode, exits from the menu and dumps the loaded classes.
+// Use with JAVA_OPTS=-XX:SharedArchiveFile=build/install/GreenTrade/lib/app.jsa (must be the same JVM build).
+val cdsArchive by tasks.registering(Exec::class) {
+    group = "distribution"
+    description = "Records an AppCDS archive of the installed app."
+    dependsOn(tasks.installDist)
+    val installDir = layout.buildDirectory.dir("install/GreenTrade")
+    val archive = installDir.map { it.file("lib/app.jsa") }
+    outputs.file(archive)
+    workingDir(installDir.get().asFile)
+    environment("DB_URL", "")
+    environment("JAVA_OPTS", "-XX:ArchiveClassesAtExit=" + archive.get().asFile.absolutePath)
+    standardInput = "9\n".byteInputStream()
+    commandLine(installDir.get().file("bin/GreenTrade").asFile.absolutePath)
+}
+
+// heap per million offers: ProductModel/ProductOffer objects vs. CompactCatalog columns
+val heapReport by tasks.registering(JavaExec::class) {
+    group = "verification"
+    description = "Prints the heap of a running Market per million offers, over objects and over CompactCatalog views."
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("de.tub.HeapReport")
+    args((findProperty("offers") ?: "1000000").toString())
+    maxHeapSize = "2g"
+}
+
+// bytes per point of the compressed price series on generated price walks
+val priceSeriesReport by tasks.registering(JavaExec::class) {
+    group = "verification"
+    description = "Prints the bytes per point PriceSeries needs for typical price series."
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("de.tub.PriceSeriesReport")
+    args((findProperty("points") ?: "1000000").toString())
+}
+
+// catalog load time per number of parallel key ranges, needs DB_URL (and a pool at least that large)
+val hydrationReport by tasks.registering(JavaExec::class) {
+    group = "verification"
+    description = "Prints catalog load time from Postgres against the number of load partitions."
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("de.tub.HydrationReport")
+    args((findProperty("partitions") ?: "1,2,4,8").toString())
+    environment("DB_POOL_MAX_SIZE", System.getenv("DB_POOL_MAX_SIZE") ?: "16")
+    maxHeapSize = "4g"
+}
@@ -0,0 +1,343 @@
+package de.tub;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Пакетный режим без диалога: по одной команде в строке из файла или stdin (Main --batch [file]).
+ * Без подсказок и очистки экрана, вывод идёт через буферизованный writer, после каждой команды
+ * печатается её время, в конце - сводка по командам. Ошибка в строке не останавливает скрипт.
+ * Аргументы с пробелами берутся в двойные кавычки. Команды - см. help.
+ */
+public class BatchConsole {
+
+    private static final String HELP = """
+            # commands (quote arguments with spaces: "Green Tea"); lines starting with # are skipped
+            #   login <login> <password>
+            #   list | search <text> | overview | history <product> [n]
+            #   browse <category> [instock] [min price] [max price]
+            #   add <id> <name> <category> <price> <qty>          (admin)
+            #   sell <product> <qty> <price>                      (seller)
+            #   offers | restock <qty> | reprice <percent>        (seller)
+            #   buy <product> <seller or *> <qty> [client order id]
+            #   bid <product> <qty> <max price> [buyer]
+            #   hold <product> <seller> <qty> <seconds> [buyer] | confirm <hold id> | release <hold id>
+            #   jfr-dump [file]                                   (JFR_CONTINUOUS=true)
+            #   help | quit""";
+
+    /** Calls, errors and time per command name. */
+    public record Timing(String command, int calls, int errors, long totalNanos, long maxNanos) {
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-10s %6d calls %4d errors %10.2f ms total %8.3f ms avg %8.3f ms max",
+                    command, calls, errors, totalNanos / 1e6, totalNanos / 1e6 / calls, maxNanos / 1e6);
+        }
+    }
+
+    // a line that cannot be executed as written
+    private static final class BadCommand extends RuntimeException {
+        BadCommand(String message) { super(message); }
+    }
+
+    private final Market market;
+    private final BufferedReader in;
+    private final PrintWriter out;
+    private final Map<String, Timing> timings = new TreeMap<>();
+    private AuthorizedUsers currentUser;
+    private int errors;
+
+    /** @param out should be buffered; it is flushed at the end, not per line */
+    public BatchConsole(Market market, Reader in, PrintWriter out) {
+        this.market = Objects.requireNonNull(market);
+        this.in = in instanceof BufferedReader b ? b : new BufferedReader(in, 1 << 16);
+        this.out = Objects.requireNonNull(out);
+    }
+
+    /** Runs every line until the end of input or quit, then prints the timing summary. */
+    public List<Timing> run() {
+        long start = System.nanoTime();
+        int lineNo = 0;
+        try {
+            for (String line; (line = in.readLine()) != null; ) {
+                lineNo++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) continue;
+                List<String> args;
+                try {
+                    args = split(trimmed);
+                } catch (BadCommand e) {
+                    errors++;
+                    out.println("[ERROR] line " + lineNo + ": " + e.getMessage());
+                    continue;
+                }
+                String cmd = args.get(0).toLowerCase(Locale.ROOT);
+                if (cmd.equals("quit") || cmd.equals("exit")) break;
+
+                out.println("> " + trimmed);
+                long t0 = System.nanoTime();
+                boolean failed = false;
+                try {
+                    failed = !execute(cmd, args.subList(1, args.size()));
+                } catch (BadCommand | IllegalArgumentException e) {
+                    failed = true;
+                    out.println("[ERROR] line " + lineNo + ": " + e.getMessage());
+                } catch (RuntimeException e) {
+                    failed = true;
+                    out.println("[ERROR] line " + lineNo + ": " + e);
+                }
+                long took = System.nanoTime() - t0;
+                if (failed) errors++;
+                timings.merge(cmd, new Timing(cmd, 1, failed ? 1 : 0, took, took), (a, b) -> new Timing(cmd,
+                        a.calls() + 1, a.errors() + b.errors(), a.totalNanos() + took, Math.max(a.maxNanos(), took)));
+                out.printf(Locale.US, "# %s: %.3f ms%n", cmd, took / 1e6);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        out.printf(Locale.US, "# %d lines, %d errors, %.1f ms%n", lineNo, errors, (System.nanoTime() - start) / 1e6);
+        for (Timing t : timings.values()) out.println("# " + t);
+        out.flush();
+        return List.copyOf(timings.values());
+    }
+
+    public int errors() {
+        return errors;
+    }
+
+    // false = the command ran but did not succeed ([FAIL] was printed)
+    private boolean execute(String cmd, List<String> a) {
+        switch (cmd) {
+            case "help" -> out.println(HELP);
+            case "login" -> {
+                need(a, 2, "login <login> <password>");
+                currentUser = market.login(a.get(0), a.get(1));
+                if (currentUser == null) return fail("Invalid credentials.");
+                out.println("Logged in as " + currentUser.getLogin() + " (" + currentUser.getRole() + ")");
+            }
+            case "list" -> {
+                List<CatalogSnapshot.Product> products = market.snapshot().products();
+                if (products.isEmpty()) out.println("(no items)");
+                for (CatalogSnapshot.Product m : products) {
+                    out.println(m);
+                    for (CatalogSnapshot.Offer o : m.offers()) out.println("  -> " + o);
+                }
+            }
+            case "search" -> {
+                need(a, 1, "search <text>");
+                List<CatalogSnapshot.Product> found = market.snapshot().search(String.join(" ", a));
+                if (found.isEmpty()) out.println("No results.");
+                for (CatalogSnapshot.Product m : found) {
+                    out.println(m);
+                    for (CatalogSnapshot.Offer o : m.offers()) out.println("  -> " + o);
+                }
+            }
+            case "overview" -> overview();
+            case "history" -> {
+                need(a, 1, "history <product> [n]");
+                int n = a.size() > 1 ? parseInt(a.get(1)) : 3;
+                out.println("Last trade prices for \"" + a.get(0) + "\": " + market.getLastTradePrices(a.get(0), n));
+                for (RollingStats.Window w : RollingStats.Window.values()) {
+                    RollingStats.Snapshot r = market.rollingStats(a.get(0), w);
+                    if (r.trades() > 0) out.println("  " + w + " " + r);
+                }
+            }
+            case "browse" -> {
+                need(a, 1, "browse <category> [instock] [min price] [max price]");
+                List<String> rest = new ArrayList<>(a.subList(1, a.size()));
+                boolean inStock = !rest.isEmpty() && rest.get(0).equalsIgnoreCase("instock");
+                if (inStock) rest.remove(0);
+                CategoryFacets.Query q = CategoryFacets.Query.category(a.get(0)).price(
+                        rest.size() > 0 ? parseDouble(rest.get(0)) : Double.NaN,
+                        rest.size() > 1 ? parseDouble(rest.get(1)) : Double.NaN);
+                if (inStock) q = q.inStock();
+                int total = market.countMatching(q);
+                // one page of the facet index per call, like the interactive browse but to the end
+                for (int offset = 0; offset < total; offset += 1_000) {
+                    for (ProductModel m : market.browse(q, offset, 1_000)) out.println("  " + m);
+                }
+                out.println(total + " product(s)");
+            }
+            case "add" -> {
+                need(a, 5, "add <id> <name> <category> <price> <qty>");
+                requireRole("admin");
+                double price = parseDouble(a.get(3));
+                int qty = parseInt(a.get(4));
+                market.addProductModel(a.get(0), a.get(1), a.get(2), 0);
+                boolean ok = market.addOfferToExistingProduct(a.get(1), ProductOffer.builder().seller("Stock").price(price).quantity(qty).build())
+                        || market.updateOffer(a.get(1), "Stock", qty, price);
+                if (!ok) return fail("Product not added: stock offer rejected.");
+                out.println("[OK] Product added/updated.");
+            }
+            case "sell" -> {
+                need(a, 3, "sell <product> <qty> <price>");
+                requireRole("seller");
+                int qty = parseInt(a.get(1));
+                double price = parseDouble(a.get(2));
+                ProductOffer offer = ProductOffer.builder().seller(currentUser.getLogin()).price(price).quantity(qty).build();
+                boolean ok = market.addOfferToExistingProduct(a.get(0), offer)
+                        || market.updateOffer(a.get(0), currentUser.getLogin(), qty, price);
+                if (!ok) return fail("Offer update failed.");
+                out.println("[OK] Offer upserted.");
+            }
+            case "offers" -> {
+                requireRole("seller");
+                int offset = 0;
+                for (List<SellerOffer> page; !(page = market.listOffersBySeller(currentUser.getLogin(), offset, 1_000)).isEmpty(); offset += page.size()) {
+                    for (SellerOffer so : page) out.println("  " + so);
+                }
+                out.println(offset + " offer(s)");
+            }
+            case "restock" -> {
+                need(a, 1, "restock <qty>");
+                requireRole("seller");
+                out.println("[OK] Restocked " + market.restockAllOffers(currentUser.getLogin(), parseInt(a.get(0))) + " offer(s).");
+            }
+            case "reprice" -> {
+                need(a, 1, "reprice <percent>");
+                requireRole("seller");
+                double pct = parseDouble(a.get(0));
+                out.println("[OK] Repriced " + market.repriceAllOffers(currentUser.getLogin(), 1 + pct / 100) + " offer(s).");
+            }
+            case "buy" -> {
+                need(a, 3, "buy <product> <seller or *> <qty> [client order id]");
+                String product = a.get(0), seller = a.get(1);
+                int qty = parseInt(a.get(2));
+                if (seller.equals("*")) {
+                    List<Market.Fill> fills = market.marketBuy(product, qty);
+                    if (fills.isEmpty()) return fail("Not filled: unknown product or not enough stock.");
+                    for (Market.Fill f : fills) out.printf(Locale.US, "  -> %d from %s at %.2f€%n", f.quantity(), f.seller(), f.price());
+                } else {
+                    boolean ok = a.size() > 3 ? market.buyFromOffer(product, seller, qty, a.get(3))
+                            : market.buyFromOffer(product, seller, qty);
+                    if (!ok) return fail("Not bought: unknown offer or not enough stock.");
+                }
+                out.println("[OK] Bought " + qty + " of " + product);
+            }
+            case "bid" -> {
+                need(a, 3, "bid <product> <qty> <max price> [buyer]");
+                String buyer = a.size() > 3 ? a.get(3) : loginOr("bid needs a buyer when not logged in");
+                Bid bid = market.placeBid(a.get(0), buyer, parseInt(a.get(1)), parseDouble(a.get(2)));
+                if (bid == null) return fail("Bid rejected (unknown product, or quantity/price not positive).");
+                out.println("[OK] " + bid);
+            }
+            case "hold" -> {
+                need(a, 4, "hold <product> <seller> <qty> <seconds> [buyer]");
+                String buyer = a.size() > 4 ? a.get(4) : loginOr("hold needs a buyer when not logged in");
+                Hold h = market.hold(a.get(0), a.get(1), buyer, parseInt(a.get(2)), Duration.ofSeconds(parseInt(a.get(3))));
+                if (h == null) return fail("Hold rejected: unknown offer or not enough stock.");
+                out.println("[OK] " + h);
+            }
+            case "confirm" -> {
+                need(a, 1, "confirm <hold id>");
+                if (!market.confirmHold(parseLong(a.get(0)))) return fail("No such hold (confirmed, released or expired).");
+                out.println("[OK] Hold " + a.get(0) + " bought.");
+            }
+            case "release" -> {
+                need(a, 1, "release <hold id>");
+                if (!market.releaseHold(parseLong(a.get(0)))) return fail("No such hold (confirmed, released or expired).");
+                out.println("[OK] Hold " + a.get(0) + " released.");
+            }
+            case "jfr-dump" -> {
+                Path file;
+                try {
+                    file = FlightRecording.dumpRunning(a.isEmpty() ? null : Path.of(a.get(0)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (file == null) return fail("No continuous recording (start with JFR_CONTINUOUS=true).");
+                out.println("[OK] Recording written to " + file.toAbsolutePath());
+            }
+            default -> throw new BadCommand("unknown command '" + cmd + "' (see help)");
+        }
+        return true;
+    }
+
+    private void overview() {
+        out.println("Cheapest per category:");
+        for (String category : market.categoryCounts().keySet()) {
+            out.println("  " + category + ": " + market.cheapestInCategory(category, 3));
+        }
+        out.println("Top movers: " + market.topMovers(3));
+        out.println("Most traded: " + market.mostTraded(3));
+    }
+
+    private boolean fail(String message) {
+        out.println("[FAIL] " + message);
+        return false;
+    }
+
+    private void requireRole(String role) {
+        if (currentUser == null || !role.equalsIgnoreCase(currentUser.getRole())) {
+            throw new BadCommand("access denied (" + role + " login required)");
+        }
+    }
+
+    private String loginOr(String message) {
+        if (currentUser == null) throw new BadCommand(message);
+        return currentUser.getLogin();
+    }
+
+    private static void need(List<String> args, int n, String usage) {
+        if (args.size() < n) throw new BadCommand("usage: " + usage);
+    }
+
+    private static int parseInt(String s) {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            throw new BadCommand("not an integer: " + s);
+        }
+    }
+
+    private static long parseLong(String s) {
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            throw new BadCommand("not an integer: " + s);
+        }
+    }
+
+    private static double parseDouble(String s) {
+        try {
+            return Double.parseDouble(s.replace(',', '.'));
+        } catch (NumberFormatException e) {
+            throw new BadCommand("not a number: " + s);
+        }
+    }
+
+    // whitespace separated, "double quotes" keep spaces
+    static List<String> split(String line) {
+        List<String> out = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        boolean quoted = false, token = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                token = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (token) out.add(cur.toString());
+                cur.setLength(0);
+                token = false;
+            } else {
+                cur.append(c);
+                token = true;
+            }
+        }
+        if (quoted) throw new BadCommand("unclosed quote");
+        if (token) out.add(cur.toString());
+        return out;
+    }
+}
@@ -0,0 +1,30 @@
+package de.tub;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/** Resting buy order: buy up to quantity units of product at a price not above limitPrice. */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class Bid {
+
+    private long id;
+    private String product;
+    private String buyer;
+    private double limitPrice;
+
+    // still open quantity, goes down with every fill
+    private int quantity;
+
+    // arrival order, earlier bid wins on the same limit price
+    private long seq;
+
+    @Override
+    public String toString() {
+        return String.format("Bid #%d: %s buys %d of %s at <= %.2f€", id, buyer, quantity, product, limitPrice);
+    }
+}
@@ -0,0 +1,45 @@
+package de.tub;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Открытые заявки на покупку одного продукта в куче:
+ * сверху самая высокая цена, при равной цене - самая ранняя заявка.
+ */
+public class BidBook {
+
+    static final Comparator<Bid> BEST_FIRST =
+            Comparator.comparingDouble(Bid::getLimitPrice).reversed().thenComparingLong(Bid::getSeq);
+
+    private final PriorityQueue<Bid> bids = new PriorityQueue<>(BEST_FIRST);
+
+    public synchronized void add(Bid bid) {
+        if (bid.getQuantity() > 0) bids.add(bid);
+    }
+
+    public synchronized Bid best() {
+        return bids.peek();
+    }
+
+    /** Call after a fill; drops the bid from the heap once it is fully filled. */
+    public synchronized void filled(Bid bid) {
+        if (bid.getQuantity() <= 0) bids.remove(bid);
+    }
+
+    public synchronized boolean remove(long bidId) {
+        return bids.removeIf(b -> b.getId() == bidId);
+    }
+
+    public synchronized List<Bid> list() {
+        List<Bid> out = new ArrayList<>(bids);
+        out.sort(BEST_FIRST);
+        return out;
+    }
+
+    public synchronized boolean isEmpty() {
+        return bids.isEmpty();
+    }
+}
@@ -0,0 +1,149 @@
+package de.tub;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Неизменяемая версия каталога. Писатель публикует новую версию через with(...),
+ * читатели получают согласованный срез на момент публикации без блокировок и копирования.
+ * Продукты лежат в блоках по CHUNK штук: новая версия копирует только изменённые блоки
+ * и массив ссылок на блоки, остальные блоки общие со старой версией.
+ */
+public final class CatalogSnapshot {
+
+    private static final int CHUNK = 64;
+
+    public static final CatalogSnapshot EMPTY = new CatalogSnapshot(0, new Product[0][], Map.of(), 0);
+
+    public record Offer(String seller, double price, int quantity, List<Double> priceHistory) {
+        public static Offer of(ProductOffer o) {
+            return new Offer(o.getSeller(), o.getPrice(), o.getQuantity(),
+                    o.getPriceHistory() == null ? List.of() : List.copyOf(o.getPriceHistory()));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Seller: %s | Price: %.2f€ | Quantity: %d", seller, price, quantity);
+        }
+    }
+
+    public record Product(String id, String name, String category, List<Offer> offers, List<Double> priceHistory) {
+        public static Product of(ProductModel m) {
+            return new Product(m.getId(), m.getName(), m.getCategory(),
+                    m.getOffers().stream().map(Offer::of).toList(),
+                    m.getPriceHistory() == null ? List.of() : List.copyOf(m.getPriceHistory()));
+        }
+
+        public double marketPrice() {
+            return offers.stream().mapToDouble(Offer::price).average().orElse(0.0);
+        }
+
+        public int availableQuantity() {
+            return offers.stream().mapToInt(Offer::quantity).sum();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "ID: %s | Product: %s | Category: %s | Market Price: %.2f€ | Offers: %d | Available: %d",
+                    id, name, category, marketPrice(), offers.size(), availableQuantity());
+        }
+    }
+
+    private final long version;
+    private final Product[][] chunks;           // never written after publication
+    private final Map<String, Integer> ordinals; // lower(name) -> position, unmodifiable
+    private final int size;
+
+    private CatalogSnapshot(long version, Product[][] chunks, Map<String, Integer> ordinals, int size) {
+        this.version = version;
+        this.chunks = chunks;
+        this.ordinals = ordinals;
+        this.size = size;
+    }
+
+    public static CatalogSnapshot of(Collection<ProductModel> models) {
+        return EMPTY.with(models.stream().map(Product::of).toList());
+    }
+
+    public CatalogSnapshot with(Product changed) {
+        return with(List.of(changed));
+    }
+
+    /** New version with the given products added or replaced (matched by name, case-insensitive). */
+    public CatalogSnapshot with(Collection<Product> changed) {
+        if (changed.isEmpty()) return this;
+        Product[][] ch = chunks.clone();
+        Map<String, Integer> ord = ordinals;
+        boolean ordCopied = false;
+        BitSet copied = new BitSet();
+        int n = size;
+
+        for (Product p : changed) {
+            String k = key(p.name());
+            Integer i = ord.get(k);
+            if (i == null) {
+                if (!ordCopied) { ord = new HashMap<>(ord); ordCopied = true; } // new products only
+                i = n++;
+                ord.put(k, i);
+            }
+            int c = i / CHUNK;
+            if (c >= ch.length) ch = Arrays.copyOf(ch, c + 1);
+            if (!copied.get(c)) {
+                ch[c] = ch[c] == null ? new Product[CHUNK] : ch[c].clone();
+                copied.set(c);
+            }
+            ch[c][i % CHUNK] = p;
+        }
+        return new CatalogSnapshot(version + 1, ch, ordCopied ? Collections.unmodifiableMap(ord) : ord, n);
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Product find(String name) {
+        Integer i = name == null ? null : ordinals.get(key(name));
+        return i == null ? null : chunks[i / CHUNK][i % CHUNK];
+    }
+
+    /** All products in insertion order; a read-only view, nothing is copied. */
+    public List<Product> products() {
+        return new AbstractList<>() {
+            @Override
+            public Product get(int i) {
+                if (i < 0 || i >= size) throw new IndexOutOfBoundsException(i);
+                return chunks[i / CHUNK][i % CHUNK];
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /** Substring of name or category, case-insensitive (Market.searchModels). */
+    public List<Product> search(String query) {
+        String q = query == null ? "" : query.trim().toLowerCase(Locale.ROOT);
+        if (q.isEmpty()) return products();
+        return products().stream()
+                .filter(p -> key(p.name()).contains(q) || key(p.category()).contains(q))
+                .toList();
+    }
+
+    private static String key(String s) {
+        return s.toLowerCase(Locale.ROOT);
+    }
+}
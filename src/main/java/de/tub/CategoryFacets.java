@@ -0,0 +1,224 @@
+package de.tub;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Фасетный индекс каталога. Каждый продукт получает порядковый номер (ordinal),
+ * для каждой категории, для "есть в наличии" и для каждого ценового диапазона
+ * хранится битовая карта номеров. Фильтр - пересечение карт, счётчики по категориям
+ * обновляются при каждом изменении, без пересчёта всего каталога.
+ * Цена продукта - лучшая (минимальная) цена среди предложений с количеством > 0.
+ */
+public class CategoryFacets {
+
+    /** Upper bounds of the price bands, the last band (above 1000) is open. */
+    static final double[] BANDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000};
+
+    /** Browse filter; category null = all categories, min/max price are inclusive (NaN = no bound). */
+    public record Query(String category, boolean inStockOnly, double minPrice, double maxPrice) {
+        public static Query category(String category) {
+            return new Query(category, false, Double.NaN, Double.NaN);
+        }
+
+        public Query inStock() {
+            return new Query(category, true, minPrice, maxPrice);
+        }
+
+        public Query price(double min, double max) {
+            return new Query(category, inStockOnly, min, max);
+        }
+
+        boolean hasPriceRange() {
+            return !Double.isNaN(minPrice) || !Double.isNaN(maxPrice);
+        }
+    }
+
+    /** Products in a category, total and with stock. */
+    public record Count(int total, int inStock) {}
+
+    private record Ask(double price, int quantity) {}
+
+    private static final class Product {
+        final String name;
+        String category;
+        final Map<String, Ask> asks = new HashMap<>(); // lower(seller) -> ask
+        double best = Double.NaN;                      // NaN = nothing in stock
+        int band = -1;
+
+        Product(String name, String category) {
+            this.name = name;
+            this.category = category;
+        }
+    }
+
+    private final Map<String, Integer> ordinals = new HashMap<>(); // lower(name) -> ordinal
+    private final List<Product> products = new ArrayList<>();      // by ordinal
+    private final BitSet all = new BitSet();
+    private final BitSet inStock = new BitSet();
+    private final BitSet[] byBand = new BitSet[BANDS.length + 1];
+    private final Map<String, BitSet> byCategory = new HashMap<>(); // lower(category) -> products
+    private final Map<String, String> categoryNames = new LinkedHashMap<>();
+    private final Map<String, int[]> counts = new LinkedHashMap<>(); // lower(category) -> {total, inStock}, first-seen order
+
+    public CategoryFacets() {
+        for (int i = 0; i < byBand.length; i++) byBand[i] = new BitSet();
+    }
+
+    /** Adds the product, or moves it to another category. */
+    public synchronized void addProduct(String name, String category) {
+        String cat = category == null ? "" : category;
+        Integer ord = ordinals.get(key(name));
+        if (ord == null) {
+            ord = products.size();
+            ordinals.put(key(name), ord);
+            products.add(new Product(name, cat));
+            all.set(ord);
+            categorySet(cat).set(ord);
+            countsOf(cat)[0]++;
+            return;
+        }
+        Product p = products.get(ord);
+        if (key(p.category).equals(key(cat))) return;
+        boolean stocked = inStock.get(ord);
+        uncount(p.category, ord, stocked);
+        p.category = cat;
+        categorySet(cat).set(ord);
+        int[] c = countsOf(cat);
+        c[0]++;
+        if (stocked) c[1]++;
+    }
+
+    /** New price/quantity of one seller's offer; unknown products are ignored. */
+    public synchronized void offerChanged(String productName, String seller, double price, int quantity) {
+        Integer ord = ordinals.get(key(productName));
+        if (ord == null || seller == null) return;
+        Product p = products.get(ord);
+        if (quantity > 0) p.asks.put(key(seller), new Ask(price, quantity));
+        else p.asks.remove(key(seller));
+
+        double best = Double.NaN;
+        for (Ask a : p.asks.values()) {
+            if (Double.isNaN(best) || a.price() < best) best = a.price();
+        }
+        boolean wasStocked = !Double.isNaN(p.best);
+        boolean stocked = !Double.isNaN(best);
+        p.best = best;
+
+        if (p.band >= 0) byBand[p.band].clear(ord);
+        p.band = stocked ? bandOf(best) : -1;
+        if (p.band >= 0) byBand[p.band].set(ord);
+
+        if (stocked != wasStocked) {
+            inStock.set(ord, stocked);
+            countsOf(p.category)[1] += stocked ? 1 : -1;
+        }
+    }
+
+    /** Best in-stock price of the product, NaN if nothing is in stock or the product is unknown. */
+    public synchronized double bestPrice(String productName) {
+        Integer ord = ordinals.get(key(productName));
+        return ord == null ? Double.NaN : products.get(ord).best;
+    }
+
+    public synchronized String categoryOf(String productName) {
+        Integer ord = ordinals.get(key(productName));
+        return ord == null ? null : products.get(ord).category;
+    }
+
+    /** Category -> counts, in first-seen order of the categories. */
+    public synchronized Map<String, Count> counts() {
+        Map<String, Count> out = new LinkedHashMap<>();
+        counts.forEach((k, c) -> {
+            if (c[0] > 0) out.put(categoryNames.get(k), new Count(c[0], c[1]));
+        });
+        return out;
+    }
+
+    public synchronized int count(Query q) {
+        return matching(q).cardinality();
+    }
+
+    /** Names of the matching products in insertion order, one page. */
+    public synchronized List<String> browse(Query q, int offset, int limit) {
+        BitSet hits = matching(q);
+        List<String> out = new ArrayList<>();
+        int skipped = 0;
+        for (int i = hits.nextSetBit(0); i >= 0 && out.size() < limit; i = hits.nextSetBit(i + 1)) {
+            if (skipped++ < offset) continue;
+            out.add(products.get(i).name);
+        }
+        return out;
+    }
+
+    private BitSet matching(Query q) {
+        BitSet r;
+        if (q.category() == null) {
+            r = (BitSet) all.clone();
+        } else {
+            BitSet c = byCategory.get(key(q.category()));
+            if (c == null) return new BitSet();
+            r = (BitSet) c.clone();
+        }
+        if (q.inStockOnly()) r.and(inStock);
+        if (q.hasPriceRange()) r.and(priceRange(q.minPrice(), q.maxPrice()));
+        return r;
+    }
+
+    // whole bands inside the range are OR-ed as is, the two edge bands are checked against the exact price
+    private BitSet priceRange(double min, double max) {
+        double lo = Double.isNaN(min) ? Double.NEGATIVE_INFINITY : min;
+        double hi = Double.isNaN(max) ? Double.POSITIVE_INFINITY : max;
+        BitSet r = new BitSet();
+        if (lo > hi) return r;
+        int first = bandOf(lo);
+        int last = bandOf(hi);
+        for (int b = first; b <= last; b++) {
+            double bandLo = b == 0 ? Double.NEGATIVE_INFINITY : BANDS[b - 1];
+            double bandHi = b == BANDS.length ? Double.POSITIVE_INFINITY : BANDS[b];
+            if (lo <= bandLo && bandHi <= hi) {
+                r.or(byBand[b]);
+                continue;
+            }
+            BitSet band = byBand[b];
+            for (int i = band.nextSetBit(0); i >= 0; i = band.nextSetBit(i + 1)) {
+                double p = products.get(i).best;
+                if (p >= lo && p <= hi) r.set(i);
+            }
+        }
+        return r;
+    }
+
+    // band b holds prices in (BANDS[b-1], BANDS[b]]
+    static int bandOf(double price) {
+        for (int b = 0; b < BANDS.length; b++) {
+            if (price <= BANDS[b]) return b;
+        }
+        return BANDS.length;
+    }
+
+    private BitSet categorySet(String category) {
+        categoryNames.putIfAbsent(key(category), category);
+        return byCategory.computeIfAbsent(key(category), k -> new BitSet());
+    }
+
+    private int[] countsOf(String category) {
+        return counts.computeIfAbsent(key(category), k -> new int[2]);
+    }
+
+    private void uncount(String category, int ord, boolean stocked) {
+        byCategory.get(key(category)).clear(ord);
+        int[] c = countsOf(category);
+        c[0]--;
+        if (stocked) c[1]--;
+    }
+
+    private static String key(String s) {
+        return s.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,171 @@
+package de.tub;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Компактное представление каталога. Продавцы и категории - номера в словарях,
+ * предложения продукта - колонки примитивов (продавец, цена, количество).
+ * Загруженный из БД каталог живёт в этих колонках: models() отдаёт ProductModel, чьи предложения -
+ * тонкие представления ProductOffer, цена и количество читаются и пишутся прямо в колонки,
+ * история цен заводится только при первой сделке. Так работает каталог гибридного режима (write-behind);
+ * DB-режим читает его же для индексов (Market.loadIndexes).
+ */
+public class CompactCatalog {
+
+    private static final int[] NO_INTS = new int[0];
+    private static final double[] NO_DOUBLES = new double[0];
+
+    private final Dictionary sellers;
+    private final Dictionary categories;
+    private final Map<String, Integer> byName = new HashMap<>(); // lower(name) -> index
+
+    private String[] ids = new String[16];
+    private String[] names = new String[16];
+    private int[] categoryIds = new int[16];
+    // offer columns, one array per product, first offerCounts[p] entries used
+    private int[][] offerSellers = new int[16][];
+    private double[][] offerPrices = new double[16][];
+    private int[][] offerQuantities = new int[16][];
+    private int[] offerCounts = new int[16];
+    private int size;
+    private long totalOffers;
+
+    public CompactCatalog() {
+        this(new Dictionary(), new Dictionary());
+    }
+
+    public CompactCatalog(Dictionary sellers, Dictionary categories) {
+        this.sellers = sellers;
+        this.categories = categories;
+    }
+
+    public static CompactCatalog of(List<ProductModel> models) {
+        CompactCatalog c = new CompactCatalog();
+        for (ProductModel m : models) {
+            int p = c.addProduct(m.getId(), m.getName(), m.getCategory());
+            for (ProductOffer o : m.getOffers()) c.putOffer(p, o.getSeller(), o.getPrice(), o.getQuantity());
+        }
+        return c;
+    }
+
+    /** Index of the product, adding it if the name is new. */
+    public int addProduct(String id, String name, String category) {
+        Integer existing = byName.get(key(name));
+        if (existing != null) {
+            categoryIds[existing] = categories.id(category);
+            return existing;
+        }
+        if (size == names.length) grow();
+        int p = size++;
+        ids[p] = id;
+        names[p] = name;
+        categoryIds[p] = categories.id(category);
+        offerSellers[p] = NO_INTS;
+        offerPrices[p] = NO_DOUBLES;
+        offerQuantities[p] = NO_INTS;
+        byName.put(key(name), p);
+        return p;
+    }
+
+    /** Sets price and quantity of the seller's offer for product p, adding the offer if needed. */
+    public void putOffer(int p, String seller, double price, int quantity) {
+        int s = sellers.id(seller);
+        int n = offerCounts[p];
+        int[] ss = offerSellers[p];
+        for (int i = 0; i < n; i++) {
+            if (ss[i] == s) {
+                offerPrices[p][i] = price;
+                offerQuantities[p][i] = quantity;
+                return;
+            }
+        }
+        if (n == ss.length) {
+            int cap = Math.max(2, n + (n >> 1));
+            offerSellers[p] = Arrays.copyOf(ss, cap);
+            offerPrices[p] = Arrays.copyOf(offerPrices[p], cap);
+            offerQuantities[p] = Arrays.copyOf(offerQuantities[p], cap);
+        }
+        offerSellers[p][n] = s;
+        offerPrices[p][n] = price;
+        offerQuantities[p][n] = quantity;
+        offerCounts[p] = n + 1;
+        totalOffers++;
+    }
+
+    public int indexOf(String name) {
+        Integer p = name == null ? null : byName.get(key(name));
+        return p == null ? -1 : p;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long offerCount() {
+        return totalOffers;
+    }
+
+    public String name(int p) { return names[p]; }
+    public String category(int p) { return categories.value(categoryIds[p]); }
+    public int offerCount(int p) { return offerCounts[p]; }
+    public String seller(int p, int i) { return sellers.value(offerSellers[p][i]); }
+    public double price(int p, int i) { return offerPrices[p][i]; }
+    public int quantity(int p, int i) { return offerQuantities[p][i]; }
+
+    /**
+     * Product p as a ProductModel whose offers are views of the columns: setPrice/setQuantity on them
+     * change the catalog. Offers added to the model later are ordinary ProductOffer objects.
+     */
+    public ProductModel model(int p) {
+        List<ProductOffer> offers = new ArrayList<>(offerCounts[p]);
+        for (int i = 0; i < offerCounts[p]; i++) offers.add(new OfferView(this, p, i));
+        // no price history until the first trade (Market creates it on demand)
+        return new ProductModel(ids[p], names[p], category(p), offers, null);
+    }
+
+    /** All products as views (see model), one ProductModel per product; call once and keep the list. */
+    public List<ProductModel> models() {
+        List<ProductModel> out = new ArrayList<>(size);
+        for (int p = 0; p < size; p++) out.add(model(p));
+        return out;
+    }
+
+    /** Offer i of product p; only the seller and the price history are fields of its own. */
+    static final class OfferView extends ProductOffer {
+        private final CompactCatalog catalog;
+        private final int product;
+        private final int slot;
+
+        OfferView(CompactCatalog catalog, int product, int slot) {
+            super(catalog.seller(product, slot), 0, 0, null);
+            this.catalog = catalog;
+            this.product = product;
+            this.slot = slot;
+        }
+
+        @Override public double getPrice() { return catalog.offerPrices[product][slot]; }
+        @Override public void setPrice(double price) { catalog.offerPrices[product][slot] = price; }
+        @Override public int getQuantity() { return catalog.offerQuantities[product][slot]; }
+        @Override public void setQuantity(int quantity) { catalog.offerQuantities[product][slot] = quantity; }
+    }
+
+    private void grow() {
+        int cap = names.length * 2;
+        ids = Arrays.copyOf(ids, cap);
+        names = Arrays.copyOf(names, cap);
+        categoryIds = Arrays.copyOf(categoryIds, cap);
+        offerSellers = Arrays.copyOf(offerSellers, cap);
+        offerPrices = Arrays.copyOf(offerPrices, cap);
+        offerQuantities = Arrays.copyOf(offerQuantities, cap);
+        offerCounts = Arrays.copyOf(offerCounts, cap);
+    }
+
+    private static String key(String s) {
+        return s.toLowerCase(Locale.ROOT);
+    }
+}
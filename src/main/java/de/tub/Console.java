@@ -3,12 +3,19 @@ package de.tub;
 import lombok.extern.java.Log;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 @Log
 public class Console {
 
-    private final Market market;
+    private static final int MY_OFFERS_PAGE = 20;
+    private static final int BROWSE_PAGE = 20;
+    private static final int OVERVIEW_TOP = 3;
+
+    // may still be connecting to the DB while the menu is shown (fast start)
+    private final CompletableFuture<Market> market;
     private final java.util.Scanner scanner;
     private AuthorizedUsers currentUser;
 /**
@@ -21,10 +28,18 @@ public class Console {
     }
 
     public Console(Market market, java.util.Scanner scanner) {
+        this(CompletableFuture.completedFuture(Objects.requireNonNull(market)), scanner);
+    }
+
+    public Console(CompletableFuture<Market> market, java.util.Scanner scanner) {
         this.market = Objects.requireNonNull(market);
         this.scanner = Objects.requireNonNull(scanner);
     }
 
+    private Market market() {
+        return market.join();
+    }
+
     // for tests
     public void setCurrentUser(AuthorizedUsers user) { this.currentUser = user; }
 
@@ -69,7 +84,7 @@ public class Console {
         double price    = readDouble("Initial price: ");
         int qty         = readInt("Initial quantity: ");
 // Создаём/обновляем модель продукта (без стартового количества)
-        market.addProductModel(id, name, category, 0);
+        market().addProductModel(id, name, category, 0);
 
         ProductOffer stock = ProductOffer.builder()
                 .seller("Stock")
@@ -77,7 +92,7 @@ public class Console {
                 .quantity(qty)
                 .build();
 
-        market.addOfferToExistingProduct(name, stock);
+        market().addOfferToExistingProduct(name, stock);
         System.out.println("[OK] Product added/updated.");
     }
 
@@ -99,32 +114,37 @@ public class Console {
                 .quantity(qty)
                 .build();
 
-        boolean ok = market.addOfferToExistingProduct(product, offer);
-        if (!ok) ok = market.updateOffer(product, offer.getSeller(), qty, price);
+        boolean ok = market().addOfferToExistingProduct(product, offer);
+        if (!ok) ok = market().updateOffer(product, offer.getSeller(), qty, price);
 
         System.out.println(ok ? "[OK] Offer upserted." : "[FAIL] Offer update failed.");
     }
 
     public void buyItem() {
         String product = readNonEmpty("Product: ");
-        String seller  = readNonEmpty("Seller: ");
+        String seller  = readNonEmpty("Seller (* = cheapest offers): ");
         int qty        = readInt("How much do you want to buy: ");
 
-        boolean ok = market.buyFromOffer(product, seller, qty);
+        if (seller.equals("*")) {
+            marketBuy(product, qty);
+            return;
+        }
+
+        boolean ok = market().buyFromOffer(product, seller, qty);
         if (ok) {
             System.out.println("[OK] Bought " + qty + " of " + product + " from " + seller);
-            ProductOffer o = market.getOffer(product, seller);
+            ProductOffer o = market().getOffer(product, seller);
             if (o != null) {
                 System.out.println("[INFO] New listed price: " + o.getPrice()
                         + ", remaining qty: " + o.getQuantity());
                 System.out.println("[INFO] Offer price history: " + o.getPriceHistory());
             }
         } else {
-            ProductModel m = market.findModelByName(product);
+            ProductModel m = market().findModelByName(product);
             if (m == null) {
                 System.out.println("[FAIL] Product not found: " + product);
             } else {
-                ProductOffer o = market.getOffer(product, seller);
+                ProductOffer o = market().getOffer(product, seller);
                 if (o == null) {
                     System.out.println("[FAIL] Seller offer not found: " + seller + " for " + product);
                     System.out.println("[HINT] Available sellers: " +
@@ -140,9 +160,138 @@ public class Console {
         }
     }
 
+    private void marketBuy(String product, int qty) {
+        List<Market.Fill> fills = market().marketBuy(product, qty);
+        if (fills.isEmpty()) {
+            ProductModel m = market().findModelByName(product);
+            if (m == null) System.out.println("[FAIL] Product not found: " + product);
+            else if (qty <= 0) System.out.println("[FAIL] Quantity must be positive.");
+            else System.out.println("[FAIL] Not enough stock. Available: " + m.getAvailableQuantity());
+            return;
+        }
+        double total = 0;
+        for (Market.Fill f : fills) {
+            System.out.printf(java.util.Locale.US, "  -> %d from %s at %.2f€%n", f.quantity(), f.seller(), f.price());
+            total += f.quantity() * f.price();
+        }
+        System.out.printf(java.util.Locale.US, "[OK] Bought %d of %s for %.2f€%n", qty, product, total);
+    }
+
+    /** Resting buy order: filled now if offers are cheap enough, otherwise when a seller's offer crosses it. */
+    public void placeBid() {
+        String product = readNonEmpty("Product: ");
+        int qty        = readInt("Quantity: ");
+        double limit   = readDouble("Max price: ");
+        String buyer   = currentUser != null ? currentUser.getLogin() : readNonEmpty("Buyer: ");
+
+        Bid bid = market().placeBid(product, buyer, qty, limit);
+        if (bid == null) {
+            System.out.println("[FAIL] Bid rejected (unknown product, or quantity/price not positive).");
+            return;
+        }
+        int filled = qty - bid.getQuantity();
+        if (filled > 0) System.out.println("[OK] Filled " + filled + " of " + qty + " right away.");
+        if (bid.getQuantity() > 0) System.out.println("[OK] Waiting: " + bid);
+        System.out.println("[INFO] Open bids for " + product + ": " + market().listBids(product));
+    }
+
+    /** Seller's own offers, 20 per page, with restock/reprice of the whole inventory. */
+    public void myOffers() {
+        String seller = currentUser.getLogin();
+        int offset = 0;
+        while (true) {
+            List<SellerOffer> page = market().listOffersBySeller(seller, offset, MY_OFFERS_PAGE);
+            if (page.isEmpty() && offset == 0) System.out.println("(no offers)");
+            for (SellerOffer so : page) System.out.println("  " + so);
+
+            boolean more = page.size() == MY_OFFERS_PAGE;
+            System.out.print((more ? "[Enter] next page, " : "") + "r) restock all, p) reprice all, q) back: ");
+            String cmd = scanner.nextLine().trim().toLowerCase(java.util.Locale.ROOT);
+            switch (cmd) {
+                case "" -> {
+                    if (!more) return;
+                    offset += MY_OFFERS_PAGE;
+                }
+                case "r" -> {
+                    int n = market().restockAllOffers(seller, readInt("Quantity to add to each offer: "));
+                    System.out.println("[OK] Restocked " + n + " offer(s).");
+                    offset = 0;
+                }
+                case "p" -> {
+                    double pct = readDouble("Price change in % (e.g. -10): ");
+                    int n = market().repriceAllOffers(seller, 1 + pct / 100);
+                    System.out.println("[OK] Repriced " + n + " offer(s).");
+                    offset = 0;
+                }
+                default -> { return; }
+            }
+        }
+    }
+
+    /** Category counts, then products of one category filtered by stock and price of the best offer. */
+    public void browseCategories() {
+        Map<String, CategoryFacets.Count> counts = market().categoryCounts();
+        if (counts.isEmpty()) {
+            System.out.println("(no items)");
+            return;
+        }
+        counts.forEach((c, n) -> System.out.println("  " + c + ": " + n.total() + " products, " + n.inStock() + " in stock"));
+
+        String category = readNonEmpty("Category: ");
+        System.out.print("Only in stock? (y/N): ");
+        boolean inStock = scanner.nextLine().trim().equalsIgnoreCase("y");
+        double min = readOptionalDouble("Min price (Enter = any): ");
+        double max = readOptionalDouble("Max price (Enter = any): ");
+
+        CategoryFacets.Query q = CategoryFacets.Query.category(category).price(min, max);
+        if (inStock) q = q.inStock();
+        List<ProductModel> found = market().browse(q, 0, BROWSE_PAGE);
+        if (found.isEmpty()) {
+            System.out.println("No results.");
+            return;
+        }
+        for (ProductModel m : found) System.out.println("  " + m);
+        int total = market().countMatching(q);
+        if (total > found.size()) System.out.println("  ... " + (total - found.size()) + " more");
+    }
+
+    // NaN when left empty
+    private double readOptionalDouble(String prompt) {
+        while (true) {
+            System.out.print(prompt);
+            String s = scanner.nextLine().trim().replace(',', '.');
+            if (s.isEmpty()) return Double.NaN;
+            try {
+                return Double.parseDouble(s);
+            } catch (NumberFormatException e) {
+                System.out.println("Please enter a decimal number, e.g. 1.23");
+            }
+        }
+    }
+
+    /** Cheapest products per category, biggest price movers and most traded products. */
+    public void showOverview() {
+        Market m = market();
+        System.out.println("Cheapest per category:");
+        for (String category : m.categoryCounts().keySet()) {
+            String top = m.cheapestInCategory(category, OVERVIEW_TOP).stream()
+                    .map(e -> String.format(java.util.Locale.US, "%s %.2f€", e.product(), e.value()))
+                    .collect(java.util.stream.Collectors.joining(", "));
+            System.out.println("  " + category + ": " + (top.isEmpty() ? "(nothing in stock)" : top));
+        }
+        System.out.println("Top movers:");
+        for (Leaderboards.Entry e : m.topMovers(OVERVIEW_TOP)) {
+            System.out.printf(java.util.Locale.US, "  %s %+.1f%%%n", e.product(), e.value() * 100);
+        }
+        System.out.println("Most traded:");
+        for (Leaderboards.Entry e : m.mostTraded(OVERVIEW_TOP)) {
+            System.out.printf(java.util.Locale.US, "  %s %d trades%n", e.product(), (long) e.value());
+        }
+    }
+
     private void showHistory() {
         String name = readNonEmpty("Product name: ");
-        List<Double> last3 = market.getLastTradePrices(name, 3);
+        List<Double> last3 = market().getLastTradePrices(name, 3);
         if (last3 == null || last3.isEmpty()) {
             System.out.println("No trade history yet.");
             return;
@@ -151,15 +300,34 @@ public class Console {
                 .map(d -> String.format(java.util.Locale.US, "%.2f", d))
                 .collect(java.util.stream.Collectors.joining(", ", "[", "]"));
         System.out.println("Last 3 trade prices for \"" + name + "\": " + s);
+        for (RollingStats.Window w : RollingStats.Window.values()) {
+            RollingStats.Snapshot r = market().rollingStats(name, w);
+            if (r.trades() == 0) continue;
+            System.out.printf(java.util.Locale.US, "  %-12s VWAP %.2f | volume %d | %d trades | volatility %s%n",
+                    w, r.vwap(), r.volume(), r.trades(),
+                    Double.isNaN(r.volatility()) ? "-" : String.format(java.util.Locale.US, "%.2f%%", 100 * r.volatility()));
+        }
     }
 
     public void start() {
+        start(0);
+    }
+
+    /** Like start(), and logs the time from jvmStartMillis (epoch ms, 0 = no log) until the first prompt is shown. */
+    public void start(long jvmStartMillis) {
         clearScreen();
         printBanner();
 
+        boolean first = true;
         while (true) {
             printMenu();
-            int choice = readMenuChoice(1, 9);
+            if (first && jvmStartMillis > 0) {
+                System.out.flush();
+                log.info("Startup: " + (System.currentTimeMillis() - jvmStartMillis) + " ms to first prompt"
+                        + (market.isDone() ? "" : " (DB still connecting)"));
+            }
+            first = false;
+            int choice = readMenuChoice(1, 13);
 
             switch (choice) {
                 case 1 -> {
@@ -196,7 +364,7 @@ public class Console {
                 }
                 case 5 -> {
                     printlnInfo("You chose: Buy product");
-                    printlnHint("Enter line by line: Product, Seller, Quantity");
+                    printlnHint("Enter line by line: Product, Seller (* for cheapest), Quantity");
                     buyItem();
                     promptEnterToContinue();
                 }
@@ -225,6 +393,33 @@ public class Console {
                     printlnInfo("Bye!");
                     return;
                 }
+                case 10 -> {
+                    printlnInfo("You chose: Place buy order (bid)");
+                    printlnHint("Enter line by line: Product, Quantity, Max price");
+                    placeBid();
+                    promptEnterToContinue();
+                }
+                case 11 -> {
+                    printlnInfo("You chose: My offers (seller)");
+                    ensureLoggedIn("seller");
+                    if (isRole("seller")) {
+                        myOffers();
+                    } else {
+                        printlnError("Access denied (seller required).");
+                    }
+                    promptEnterToContinue();
+                }
+                case 12 -> {
+                    printlnInfo("You chose: Browse by category");
+                    printlnHint("Enter line by line: Category, In stock only, Min price, Max price");
+                    browseCategories();
+                    promptEnterToContinue();
+                }
+                case 13 -> {
+                    printlnInfo("You chose: Market overview");
+                    showOverview();
+                    promptEnterToContinue();
+                }
                 default -> printlnError("Unknown option.");
             }
             clearScreen();
@@ -244,7 +439,7 @@ public class Console {
         String login = readNonEmpty("Login: ");
         String password = readNonEmpty("Password: ");
 
-        AuthorizedUsers u = market.login(login, password); // repo.authenticate()
+        AuthorizedUsers u = market().login(login, password); // repo.authenticate()
         if (u == null) {
             System.out.println("Invalid credentials.");
             currentUser = null;
@@ -255,35 +450,31 @@ public class Console {
     }
 
     private void listItems() {
-        List<ProductModel> models = market.listAllModels();
+        List<CatalogSnapshot.Product> models = market().snapshot().products();
         if (models.isEmpty()) {
             System.out.println("(no items)");
             return;
         }
-        for (ProductModel m : models) {
+        for (CatalogSnapshot.Product m : models) {
             System.out.println(m);
-            if (m.getOffers() != null) {
-                for (ProductOffer o : m.getOffers()) System.out.println("  -> " + o);
-            }
+            for (CatalogSnapshot.Offer o : m.offers()) System.out.println("  -> " + o);
         }
     }
 
     private void searchItems() {
         String q = readNonEmpty("Search by name or category: ");
-        List<ProductModel> results = market.searchModels(q);
-        if (results == null || results.isEmpty()) {
+        List<CatalogSnapshot.Product> results = market().snapshot().search(q);
+        if (results.isEmpty()) {
             System.out.println("No results.");
             return;
         }
         System.out.println("Found:");
-        for (ProductModel model : results) {
-            System.out.println("  Product: " + model.getName() + " | Category: " + model.getCategory());
-            if (model.getOffers() != null) {
-                for (ProductOffer o : model.getOffers()) {
-                    System.out.println("    -> Seller: " + o.getSeller()
-                            + ", Price: " + o.getPrice()
-                            + ", Quantity: " + o.getQuantity());
-                }
+        for (CatalogSnapshot.Product model : results) {
+            System.out.println("  Product: " + model.name() + " | Category: " + model.category());
+            for (CatalogSnapshot.Offer o : model.offers()) {
+                System.out.println("    -> Seller: " + o.seller()
+                        + ", Price: " + o.price()
+                        + ", Quantity: " + o.quantity());
             }
         }
     }
@@ -308,6 +499,10 @@ public class Console {
               7) Show price history
               8) Login
               9) Exit
+              10) Place buy order (bid)
+              11) My offers (seller)
+              12) Browse by category
+              13) Market overview
             """);
         if (currentUser != null) {
             System.out.println("Current user: " + currentUser.getLogin()
@@ -315,7 +510,7 @@ public class Console {
         } else {
             System.out.println("You are not logged in. Some actions will require login.");
         }
-        System.out.print("\nYour choice (1-9): ");
+        System.out.print("\nYour choice (1-13): ");
     }
 
     private int readMenuChoice(int min, int max) {
@@ -2,39 +2,194 @@ package de.tub;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.java.Log;
 import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.output.MigrateResult;
 
 import javax.sql.DataSource;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+@Log
 public final class Db {
     private Db() {}
 
+    // pool name -> metrics, filled by dataSourceFromEnv
+    private static final Map<String, PoolMetrics> METRICS = new ConcurrentHashMap<>();
+
     public static DataSource dataSourceFromEnv() {
-        String url  = getenvOr("DB_URL",  "jdbc:postgresql://localhost:5432/market");
-        String user = getenvOr("DB_USER", "market");
-        String pass = getenvOr("DB_PASS", "market");
+        return dataSource(DbConfig.load());
+    }
+
+    public static DataSource dataSource(DbConfig conf) {
+        String url  = conf.get("DB_URL",  "jdbc:postgresql://localhost:5432/market");
+        String user = conf.get("DB_USER", "market");
+        String pass = conf.get("DB_PASS", "market");
+        return pool(conf, conf.get("DB_POOL_NAME", "market"), url, user, pass, false);
+    }
 
+    /** Read replica from DB_REPLICA_URL (user/password default to the primary ones), or null if not configured. */
+    public static DataSource replicaDataSourceFromEnv() {
+        DbConfig conf = DbConfig.load();
+        String url = conf.get("DB_REPLICA_URL", null);
+        if (url == null) return null;
+        String user = conf.get("DB_REPLICA_USER", conf.get("DB_USER", "market"));
+        String pass = conf.get("DB_REPLICA_PASS", conf.get("DB_PASS", "market"));
+        return pool(conf, conf.get("DB_POOL_NAME", "market") + "-replica", url, user, pass, true);
+    }
+
+    /** Primary + optional replica, with the replica health check started. */
+    public static ReplicaRouter routerFromEnv(DataSource primary) {
+        DataSource replica;
+        try {
+            replica = replicaDataSourceFromEnv();
+        } catch (RuntimeException e) { // replica down at startup must not take the primary with it
+            log.warning("Read replica unavailable, reading from primary. Reason: " + e.getMessage());
+            replica = null;
+        }
+        if (replica == null) return new ReplicaRouter(primary);
+        DbConfig conf = DbConfig.load();
+        ReplicaRouter router = new ReplicaRouter(primary, replica, conf.getLong("DB_REPLICA_RYW_MS", 5_000));
+        router.startHealthCheck(conf.getLong("DB_REPLICA_HEALTH_INTERVAL_MS", 5_000));
+        return router;
+    }
+
+    private static DataSource pool(DbConfig conf, String poolName, String url, String user, String pass, boolean readOnly) {
         HikariConfig cfg = new HikariConfig();
+        cfg.setPoolName(poolName);
         cfg.setJdbcUrl(url);
         cfg.setUsername(user);
         cfg.setPassword(pass);
-        cfg.setMaximumPoolSize(5);
-        cfg.setMinimumIdle(1);
+        cfg.setMaximumPoolSize(conf.getInt("DB_POOL_MAX_SIZE", 5));
+        cfg.setMinimumIdle(conf.getInt("DB_POOL_MIN_IDLE", 1));
+        // fast start: do not block pool creation on the first connection and give up on a dead DB quickly
+        boolean fast = conf.getBoolean("FAST_START", false);
+        cfg.setConnectionTimeout(conf.getLong("DB_POOL_CONNECTION_TIMEOUT_MS", fast ? 3_000 : 30_000));
+        if (fast) cfg.setInitializationFailTimeout(-1);
+        cfg.setValidationTimeout(conf.getLong("DB_POOL_VALIDATION_TIMEOUT_MS", 5_000));
+        cfg.setIdleTimeout(conf.getLong("DB_POOL_IDLE_TIMEOUT_MS", 600_000));
+        cfg.setMaxLifetime(conf.getLong("DB_POOL_MAX_LIFETIME_MS", 1_800_000));
+        cfg.setLeakDetectionThreshold(conf.getLong("DB_POOL_LEAK_DETECTION_MS", 0)); // 0 = off
         cfg.setAutoCommit(true);
-        return new HikariDataSource(cfg);
+        cfg.setReadOnly(readOnly);
+
+        // pgjdbc: server-side prepare from the first execution and keep the plans per connection,
+        // so repeated repository queries skip parse/plan on the server
+        cfg.addDataSourceProperty("connectTimeout", conf.get("DB_CONNECT_TIMEOUT_S", fast ? "2" : "10"));
+        cfg.addDataSourceProperty("prepareThreshold", conf.get("DB_PREPARE_THRESHOLD", "1"));
+        cfg.addDataSourceProperty("preparedStatementCacheQueries", conf.get("DB_PS_CACHE_QUERIES", "256"));
+        cfg.addDataSourceProperty("preparedStatementCacheSizeMiB", conf.get("DB_PS_CACHE_MIB", "5"));
+        // write-behind batches of INSERT ... VALUES go out as multi-row inserts
+        cfg.addDataSourceProperty("reWriteBatchedInserts", "true");
+
+        PoolMetrics metrics = new PoolMetrics();
+        cfg.setMetricsTrackerFactory(metrics);
+
+        HikariDataSource ds = new HikariDataSource(cfg);
+        METRICS.put(cfg.getPoolName(), metrics);
+
+        if (conf.getBoolean("DB_POOL_ADAPTIVE", false)) {
+            PoolSizeController controller = new PoolSizeController(ds, metrics,
+                    conf.getInt("DB_POOL_ADAPTIVE_MIN", 2),
+                    conf.getInt("DB_POOL_ADAPTIVE_MAX", 20),
+                    conf.getDouble("DB_POOL_ADAPTIVE_WAIT_RATIO", 0.5));
+            controller.start(conf.getLong("DB_POOL_ADAPTIVE_INTERVAL_MS", 5_000));
+        }
+        return ds;
+        }
+
+    /** ds.getConnection(), recorded as a ConnectionAcquire event (also when it times out). */
+    public static Connection connection(DataSource ds) throws SQLException {
+        FlightEvents.ConnectionAcquire event = new FlightEvents.ConnectionAcquire();
+        event.begin();
+        try {
+            return ds.getConnection();
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.pool = ds instanceof HikariDataSource h ? h.getPoolName() : ds.getClass().getSimpleName();
+                event.commit();
+            }
+        }
+    }
+
+    /** Pool metrics of a DataSource created by this class, or null. */
+    public static PoolMetrics metrics(DataSource ds) {
+        if (!(ds instanceof HikariDataSource h)) return null;
+        return METRICS.get(h.getPoolName());
+    }
+
+    /**
+     * Skips Flyway when flyway_schema_history already holds exactly the migrations
+     * listed in db/migration.manifest (generated by the build), otherwise runs migrate().
+     */
+    public static void migrateFast(DataSource ds) {
+        FlightEvents.Migration event = new FlightEvents.Migration();
+        event.begin();
+        List<String> manifest = readManifest();
+        if (manifest != null && manifest.equals(appliedMigrations(ds))) {
+            log.info("Schema is up to date (" + manifest.size() + " migrations), Flyway skipped.");
+            event.mode = "skipped";
+            event.commit();
+            return;
         }
+        migrate(ds);
+    }
+
+    // "version|checksum" lines, same order as applied
+    private static List<String> readManifest() {
+        try (InputStream in = Db.class.getResourceAsStream("/db/migration.manifest")) {
+            if (in == null) return null;
+            List<String> out = new ArrayList<>();
+            BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            for (String line; (line = r.readLine()) != null; ) {
+                if (!line.isBlank()) out.add(line.trim());
+            }
+            return out;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static List<String> appliedMigrations(DataSource ds) {
+        final String sql = """
+            SELECT version, checksum FROM flyway_schema_history
+            WHERE success AND version IS NOT NULL
+            ORDER BY installed_rank
+            """;
+        List<String> out = new ArrayList<>();
+        try (Connection c = connection(ds);
+             Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery(sql)) {
+            while (rs.next()) out.add(rs.getString(1) + "|" + rs.getInt(2));
+        } catch (SQLException e) {
+            return null; // no history table yet
+        }
+        return out;
+    }
 
     public static void migrate(DataSource ds) {
-        Flyway.configure()
+        FlightEvents.Migration event = new FlightEvents.Migration();
+        event.begin();
+        MigrateResult result = Flyway.configure()
         .dataSource(ds)
         .locations("classpath:db/migration")
-        .validateMigrationNaming(true) 
+        .validateMigrationNaming(true)
         .load()
         .migrate();
-    }
-
-    private static String getenvOr(String k, String def) {
-        String v = System.getenv(k);
-        return (v == null || v.isBlank()) ? def : v; //Docker sets "" for empty vars
+        event.mode = "flyway";
+        event.migrations = result.migrationsExecuted;
+        event.commit();
     }
 }
@@ -0,0 +1,74 @@
+package de.tub;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Настройки подключения к БД и пула.
+ * Каждое значение ищется в переменной окружения (DB_POOL_MAX_SIZE),
+ * затем в properties-файле (db.pool.max.size), затем берётся значение по умолчанию.
+ * Файл: путь из DB_CONFIG или db.properties в classpath.
+ */
+public final class DbConfig {
+
+    private final Properties file;
+
+    private DbConfig(Properties file) {
+        this.file = file;
+    }
+
+    public static DbConfig load() {
+        Properties p = new Properties();
+        String path = System.getenv("DB_CONFIG");
+        try {
+            if (path != null && !path.isBlank()) {
+                try (Reader r = Files.newBufferedReader(Path.of(path))) {
+                    p.load(r);
+                }
+            } else {
+                try (InputStream in = DbConfig.class.getResourceAsStream("/db.properties")) {
+                    if (in != null) p.load(in);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read DB config " + path, e);
+        }
+        return new DbConfig(p);
+    }
+
+    public static DbConfig of(Properties props) {
+        return new DbConfig(props);
+    }
+
+    public String get(String envName, String def) {
+        String v = System.getenv(envName);
+        if (v == null || v.isBlank()) v = file.getProperty(propertyName(envName)); //Docker sets "" for empty vars
+        return (v == null || v.isBlank()) ? def : v.trim();
+    }
+
+    public int getInt(String envName, int def) {
+        return Integer.parseInt(get(envName, String.valueOf(def)));
+    }
+
+    public long getLong(String envName, long def) {
+        return Long.parseLong(get(envName, String.valueOf(def)));
+    }
+
+    public double getDouble(String envName, double def) {
+        return Double.parseDouble(get(envName, String.valueOf(def)));
+    }
+
+    public boolean getBoolean(String envName, boolean def) {
+        return Boolean.parseBoolean(get(envName, String.valueOf(def)));
+    }
+
+    // DB_POOL_MAX_SIZE -> db.pool.max.size
+    static String propertyName(String envName) {
+        return envName.toLowerCase(Locale.ROOT).replace('_', '.');
+    }
+}
@@ -0,0 +1,41 @@
+package de.tub;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Словарь строк: каждое значение хранится один раз и получает номер (id).
+ * Продавцы и категории сильно повторяются по каталогу, поэтому вместо строки
+ * в каждом предложении достаточно хранить int.
+ */
+public class Dictionary {
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    /** Id of the value, adding it on first use. Null is stored as -1. */
+    public synchronized int id(String value) {
+        if (value == null) return -1;
+        Integer id = ids.get(value);
+        if (id != null) return id;
+        id = values.size();
+        ids.put(value, id);
+        values.add(value);
+        return id;
+    }
+
+    public synchronized String value(int id) {
+        return id < 0 ? null : values.get(id);
+    }
+
+    /** The one shared instance of an equal string. */
+    public String intern(String value) {
+        return value(id(value));
+    }
+
+    public synchronized int size() {
+        return values.size();
+    }
+}
@@ -0,0 +1,84 @@
+package de.tub;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Собственные события JDK Flight Recorder: операции Market, запросы репозитория,
+ * ожидание соединения из пула, пересчёт цены и миграция схемы.
+ * Пока запись не идёт, begin/commit почти ничего не стоят; строки запроса JdbcMarketRepository
+ * добавляет сам, по одному разу на оператор, и только во время записи (см. FlightRecording).
+ */
+public final class FlightEvents {
+    private FlightEvents() {}
+
+    @Name("de.tub.MarketOperation")
+    @Label("Market Operation")
+    @Category({"GreenTrade", "Market"})
+    public static final class MarketOperation extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Product")
+        String product;
+
+        MarketOperation(String operation, String product) {
+            this.operation = operation;
+            this.product = product;
+        }
+    }
+
+    @Name("de.tub.Query")
+    @Label("Repository Query")
+    @Category({"GreenTrade", "Database"})
+    @StackTrace(false)
+    public static final class Query extends Event {
+        @Label("Label")
+        @Description("JdbcMarketRepository operation that ran the statements")
+        String label;
+
+        @Label("Rows")
+        @Description("Rows read plus rows changed by the statements of the operation, as counted by the repository")
+        long rows;
+    }
+
+    @Name("de.tub.ConnectionAcquire")
+    @Label("Connection Acquire")
+    @Category({"GreenTrade", "Database"})
+    @StackTrace(false)
+    public static final class ConnectionAcquire extends Event {
+        @Label("Pool")
+        String pool;
+    }
+
+    @Name("de.tub.Pricing")
+    @Label("Price Calculation")
+    @Category({"GreenTrade", "Market"})
+    @StackTrace(false)
+    public static final class Pricing extends Event {
+        @Label("Product")
+        String product;
+
+        @Label("Quantity")
+        int quantity;
+
+        @Label("Available After")
+        int availableAfter;
+    }
+
+    @Name("de.tub.Migration")
+    @Label("Schema Migration")
+    @Category({"GreenTrade", "Database"})
+    public static final class Migration extends Event {
+        @Label("Mode")
+        @Description("flyway, or skipped when the manifest matched flyway_schema_history")
+        String mode;
+
+        @Label("Migrations Executed")
+        int migrations;
+    }
+}
@@ -0,0 +1,86 @@
+package de.tub;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Непрерывная запись JFR в кольцевой буфер (JFR_CONTINUOUS=true): настройки "default" (около 1% накладных расходов)
+ * плюс события FlightEvents, на диске хранятся последние JFR_MAX_AGE_MIN минут, не больше JFR_MAX_SIZE_MB.
+ * Снимок по запросу: dumpRunning() (команда jfr-dump в пакетном режиме) или
+ * jcmd &lt;pid&gt; JFR.dump name=greentrade filename=...; при выходе буфер тоже сохраняется в JFR_DUMP_DIR.
+ */
+@Log
+public final class FlightRecording {
+
+    public static final String NAME = "greentrade";
+
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private FlightRecording() {}
+
+    /** Starts the continuous recording if JFR_CONTINUOUS is set, otherwise returns null. */
+    public static Recording startFromConfig(DbConfig conf) {
+        if (!conf.getBoolean("JFR_CONTINUOUS", false)) return null;
+        if (!FlightRecorder.isAvailable()) {
+            log.warning("JFR_CONTINUOUS is set, but this JVM has no Flight Recorder.");
+            return null;
+        }
+        Configuration settings;
+        try {
+            settings = Configuration.getConfiguration(conf.get("JFR_SETTINGS", "default"));
+        } catch (IOException | ParseException e) {
+            throw new IllegalArgumentException("Unknown JFR_SETTINGS: " + e.getMessage(), e);
+        }
+        Path dir = Path.of(conf.get("JFR_DUMP_DIR", "."));
+        Duration threshold = Duration.ofMillis(conf.getLong("JFR_THRESHOLD_MS", 0));
+
+        Recording r = new Recording(settings);
+        r.setName(NAME);
+        r.setToDisk(true);
+        r.setMaxAge(Duration.ofMinutes(conf.getLong("JFR_MAX_AGE_MIN", 30)));
+        r.setMaxSize(conf.getLong("JFR_MAX_SIZE_MB", 250) << 20);
+        r.enable(FlightEvents.MarketOperation.class).withThreshold(threshold);
+        r.enable(FlightEvents.Query.class).withThreshold(threshold);
+        r.enable(FlightEvents.ConnectionAcquire.class).withThreshold(threshold);
+        r.enable(FlightEvents.Pricing.class).withThreshold(threshold);
+        r.enable(FlightEvents.Migration.class);
+        try {
+            r.setDestination(dir.resolve(fileName("exit")));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        r.setDumpOnExit(true);
+        r.start();
+        log.info("Continuous JFR recording '" + NAME + "' started, dumps go to " + dir.toAbsolutePath());
+        return r;
+    }
+
+    /**
+     * Writes what the running continuous recording holds to file (null: a new file in JFR_DUMP_DIR).
+     * @return the file, or null if no continuous recording is running
+     */
+    public static Path dumpRunning(Path file) throws IOException {
+        for (Recording r : FlightRecorder.getFlightRecorder().getRecordings()) {
+            if (!NAME.equals(r.getName()) || r.getState() != RecordingState.RUNNING) continue;
+            Path to = file != null ? file : Path.of(DbConfig.load().get("JFR_DUMP_DIR", ".")).resolve(fileName("dump"));
+            r.dump(to);
+            return to;
+        }
+        return null;
+    }
+
+    private static String fileName(String kind) {
+        return NAME + "-" + kind + "-" + LocalDateTime.now().format(FILE_TIME) + "-" + ProcessHandle.current().pid() + ".jfr";
+    }
+}
@@ -0,0 +1,83 @@
+package de.tub;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * Занятая куча работающего Market для одного и того же каталога: модели из объектов ProductModel/ProductOffer
+ * против моделей-представлений над CompactCatalog (так гибридный режим держит загруженный каталог).
+ * В цифру входит всё, что держит рынок: книги заявок, снимок каталога, фасеты, индекс по продавцам.
+ * Запуск: gradle heapReport [-Poffers=1000000].
+ * Цифры приблизительные (разница used heap после System.gc()), но порядок видно.
+ */
+public final class HeapReport {
+    private HeapReport() {}
+
+    private static final int OFFERS_PER_PRODUCT = 10;
+    private static final int SELLERS = 1_000;
+    private static final int CATEGORIES = 50;
+
+    public static void main(String[] args) {
+        int offers = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int products = Math.max(1, offers / OFFERS_PER_PRODUCT);
+
+        long objects = measure(() -> new Market(objectModel(products)));
+        long compact = measure(() -> new Market(compactModel(products).models()));
+
+        double perMillion = 1_000_000.0 / ((long) products * OFFERS_PER_PRODUCT);
+        System.out.printf(Locale.US, "%d products x %d offers, %d sellers, %d categories%n",
+                products, OFFERS_PER_PRODUCT, SELLERS, CATEGORIES);
+        System.out.printf(Locale.US, "Market over ProductModel/ProductOffer: %.1f MiB per million offers%n", objects * perMillion / (1 << 20));
+        System.out.printf(Locale.US, "Market over CompactCatalog views:      %.1f MiB per million offers%n", compact * perMillion / (1 << 20));
+    }
+
+    // offers as plain objects: every row brings its own seller and category strings and an empty price history
+    private static List<ProductModel> objectModel(int products) {
+        List<ProductModel> out = new ArrayList<>(products);
+        for (int p = 0; p < products; p++) {
+            ProductModel m = ProductModel.builder()
+                    .id(String.valueOf(p)).name("product-" + p).category(new String("category-" + p % CATEGORIES))
+                    .build();
+            for (int i = 0; i < OFFERS_PER_PRODUCT; i++) {
+                m.addOffer(ProductOffer.builder()
+                        .seller(new String("seller-" + (p * 7 + i) % SELLERS))
+                        .price(1 + (p + i) % 100).quantity(10 + i)
+                        .build());
+            }
+            out.add(m);
+        }
+        return out;
+    }
+
+    // same rows, stored straight into the columns (JdbcMarketRepository.readCatalog)
+    private static CompactCatalog compactModel(int products) {
+        CompactCatalog c = new CompactCatalog();
+        for (int p = 0; p < products; p++) {
+            int idx = c.addProduct(String.valueOf(p), "product-" + p, new String("category-" + p % CATEGORIES));
+            for (int i = 0; i < OFFERS_PER_PRODUCT; i++) {
+                c.putOffer(idx, new String("seller-" + (p * 7 + i) % SELLERS), 1 + (p + i) % 100, 10 + i);
+            }
+        }
+        return c;
+    }
+
+    private static long measure(Supplier<Market> build) {
+        MemoryMXBean mem = ManagementFactory.getMemoryMXBean();
+        gc();
+        long before = mem.getHeapMemoryUsage().getUsed();
+        Market market = build.get();
+        gc();
+        long after = mem.getHeapMemoryUsage().getUsed();
+        Reference.reachabilityFence(market);
+        return after - before;
+    }
+
+    private static void gc() {
+        for (int i = 0; i < 3; i++) System.gc();
+    }
+}
@@ -0,0 +1,12 @@
+package de.tub;
+
+import java.time.Instant;
+
+/** Units of a seller's offer put aside for a buyer at price until expiresAt (see Market.hold). */
+public record Hold(long id, String product, String seller, String buyer, int quantity, double price, Instant expiresAt) {
+
+    @Override
+    public String toString() {
+        return String.format("Hold #%d: %d of %s from %s for %s at %.2f€ until %s", id, quantity, product, seller, buyer, price, expiresAt);
+    }
+}
@@ -0,0 +1,41 @@
+package de.tub;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Время загрузки каталога из Postgres в зависимости от числа параллельных диапазонов.
+ * Запуск: DB_URL=... gradle hydrationReport [-Ppartitions=1,2,4,8].
+ * Для каждого числа диапазонов: чтение (loadCatalog) и чтение + построение индексов (гибридный Market).
+ * Первый прогон не считается: он прогревает JIT, пул и кэш Postgres.
+ */
+public final class HydrationReport {
+    private HydrationReport() {}
+
+    public static void main(String[] args) {
+        List<Integer> partitions = new ArrayList<>();
+        for (String p : (args.length > 0 ? args[0] : "1,2,4,8").split(",")) partitions.add(Integer.parseInt(p.trim()));
+
+        DataSource ds = Db.dataSourceFromEnv();
+        JdbcMarketRepository repo = new JdbcMarketRepository(ds);
+        WriteBehind idle = new WriteBehind((o, t) -> 0, 1, 1, 1_000); // never started, nothing is traded
+
+        int warmup = partitions.stream().mapToInt(Integer::intValue).max().orElse(1);
+        List<ProductModel> catalog = repo.loadCatalog(warmup);
+        int offers = catalog.stream().mapToInt(m -> m.getOffers().size()).sum();
+        System.out.printf(Locale.US, "%d products, %d offers%n", catalog.size(), offers);
+        System.out.printf(Locale.US, "%10s %10s %16s%n", "partitions", "read ms", "read+index ms");
+
+        for (int p : partitions) {
+            long t0 = System.nanoTime();
+            repo.loadCatalog(p);
+            long t1 = System.nanoTime();
+            new Market(repo, idle, p);
+            long t2 = System.nanoTime();
+            System.out.printf(Locale.US, "%10d %10d %16d%n", p, (t1 - t0) / 1_000_000, (t2 - t1) / 1_000_000);
+        }
+        idle.close();
+    }
+}
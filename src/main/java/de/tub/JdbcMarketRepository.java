@@ -2,7 +2,14 @@ package de.tub;
 
 import javax.sql.DataSource;
 import java.sql.*;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 
 /**
  * Репозиторий для работы с рыночными данными в базе данных через JDBC.
@@ -10,76 +17,312 @@ import java.util.*;
  */
 
 public class JdbcMarketRepository implements AutoCloseable {
+    private static final int PRODUCT_ID_CACHE_SIZE = 10_000;
+    private static final int EXPIRED_HOLDS_PER_SWEEP = 1_000;
+
     private final DataSource dataSource;
+    private final ReplicaRouter router;
+
+    // lower(name) -> id, saves the products lookup in most queries
+    private final ProductIdCache productIds = new ProductIdCache(PRODUCT_ID_CACHE_SIZE);
+
+    // connection of the current unit of work (see withConnection / inTransaction)
+    private final ThreadLocal<Connection> bound = new ThreadLocal<>();
+
+    // callbacks registered inside the current transaction, run after its commit
+    private final ThreadLocal<List<Runnable>> afterCommit = new ThreadLocal<>();
+
+    // Query event of the running call while it is recorded, null otherwise; the call sites add their rows (see rows)
+    private final ThreadLocal<FlightEvents.Query> recording = new ThreadLocal<>();
+
+    @FunctionalInterface
+    private interface SqlWork<T> {
+        T run(Connection c) throws SQLException;
+    }
 /**
      * Конструктор репозитория
      * @param dataSource источник данных для подключения к БД (не может быть null)
      */
 
     public JdbcMarketRepository(DataSource dataSource) {
-        this.dataSource = Objects.requireNonNull(dataSource);
+        this(new ReplicaRouter(dataSource));
+    }
+
+    /**
+     * Конструктор с маршрутизацией чтения каталога на реплику
+     * @param router primary и (опционально) read-реплика
+     */
+    public JdbcMarketRepository(ReplicaRouter router) {
+        this.router = Objects.requireNonNull(router);
+        this.dataSource = router.primary();
     }
- /**
-     * Нормализует ID продукта - пытается преобразовать строку в число,
-     * если это возможно, для совместимости с разными типами ID в БД
-     * @param id строковый идентификатор
-     * @return Integer если id можно преобразовать в число, иначе оригинальную строку
+    /**
+     * Выполняет несколько вызовов репозитория на одном соединении из пула.
+     * Все методы репозитория, вызванные внутри work, используют это соединение
+     * вместо того, чтобы каждый раз брать новое.
      */
-    private Object normalizeId(String id) {
-        try { return Integer.valueOf(id); } catch (Exception ignore) { return id; }
+    public <T> T withConnection(Supplier<T> work) {
+        if (bound.get() != null) return work.get();
+        try (Connection c = Db.connection(dataSource)) {
+            bound.set(c);
+            return work.get();
+        } catch (SQLException e) {
+            throw new RuntimeException("withConnection failed", e);
+        } finally {
+            bound.remove();
+        }
     }
 
-    public List<ProductModel> fetchAllModelsWithOffers() {
-        final String sqlProducts = "SELECT id, name, category FROM products ORDER BY id";
-        final String sqlOffers   = "SELECT product_id, seller, price, quantity FROM offers";
+    /**
+     * Как withConnection, но в одной транзакции: commit при успехе,
+     * rollback при исключении. Вложенные вызовы присоединяются к внешней транзакции.
+     */
+    public <T> T inTransaction(Supplier<T> work) {
+        return withConnection(() -> {
+            Connection c = bound.get();
+            T result;
+            List<Runnable> callbacks = new ArrayList<>();
+            try {
+                if (!c.getAutoCommit()) return work.get(); // already inside a transaction
+                c.setAutoCommit(false);
+                afterCommit.set(callbacks);
+                try {
+                    result = work.get();
+                    c.commit();
+                } catch (RuntimeException e) {
+                    c.rollback();
+                    productIds.clear(); // may hold ids written by the rolled back work
+                    throw e;
+                } finally {
+                    afterCommit.remove();
+                    c.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException("inTransaction failed", e);
+            }
+            callbacks.forEach(Runnable::run);
+            return result;
+        });
+    }
 
-        Map<String, ProductModel> byId = new LinkedHashMap<>();
+    /** True while the calling thread is inside inTransaction. */
+    public boolean isTransactionActive() {
+        return afterCommit.get() != null;
+    }
+
+    /** Runs r after the current transaction commits (dropped on rollback), or right away outside a transaction. */
+    public void afterCommit(Runnable r) {
+        List<Runnable> pending = afterCommit.get();
+        if (pending != null) pending.add(r); else r.run();
+    }
 
-        try (Connection conn = dataSource.getConnection()) {
-            // products
-            try (PreparedStatement ps = conn.prepareStatement(sqlProducts);
+    // runs work on the bound connection if there is one, otherwise borrows a connection for this call only
+    private <T> T execute(String label, SqlWork<T> work) {
+        Connection c = bound.get();
+        if (c != null) {
+            try {
+                return query(label, c, work);
+            } catch (SQLException e) {
+                throw new RuntimeException(label + " failed", e);
+            }
+        }
+        try (Connection own = Db.connection(dataSource)) {
+            return query(label, own, work);
+        } catch (SQLException e) {
+            throw new RuntimeException(label + " failed", e);
+        }
+    }
+
+    // work as a Query event; its rows are only counted while the event is recorded
+    private <T> T query(String label, Connection c, SqlWork<T> work) throws SQLException {
+        FlightEvents.Query event = new FlightEvents.Query();
+        if (!event.isEnabled()) return work.run(c);
+        event.label = label;
+        FlightEvents.Query outer = recording.get();
+        recording.set(event);
+        event.begin();
+        try {
+            return work.run(c);
+        } finally {
+            event.commit();
+            if (outer == null) recording.remove(); else recording.set(outer);
+        }
+    }
+
+    // adds rows read or changed to the recorded Query event, if any; once per statement, not per row
+    private int rows(int n) {
+        FlightEvents.Query event = recording.get();
+        if (event != null) event.rows += n;
+        return n;
+    }
+
+    private <C extends Collection<?>> C rows(C read) {
+        rows(read.size());
+        return read;
+    }
+
+    private static final String SQL_ALL_PRODUCTS = "SELECT id, code, name, category FROM products ORDER BY id";
+    private static final String SQL_ALL_OFFERS = """
+        SELECT o.product_id, u.login AS seller, o.price, o.quantity
+        FROM offers o
+        JOIN users u ON u.id = o.seller_id
+        """;
+
+    public List<ProductModel> fetchAllModelsWithOffers() {
+        return executeRead("fetchAllModelsWithOffers", conn -> readCatalog(conn, SQL_ALL_PRODUCTS, SQL_ALL_OFFERS).models());
+    }
+
+    /**
+     * Весь каталог, прочитанный параллельно: диапазон products.id делится на partitions
+     * частей, каждая читается на своём соединении из пула (продукты части и их офферы по ключу).
+     * Пулу нужно не меньше partitions соединений. Порядок как у fetchAllModelsWithOffers.
+     */
+    public List<ProductModel> loadCatalog(int partitions) {
+        if (partitions <= 1) return fetchAllModelsWithOffers();
+        final String sqlBounds = "SELECT min(id), max(id) FROM products";
+        long[] bounds = executeRead("loadCatalog", c -> {
+            try (PreparedStatement ps = c.prepareStatement(sqlBounds);
                  ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                long min = rs.getLong(1);
+                return rs.wasNull() ? null : new long[]{min, rs.getLong(2) + 1};
+            }
+        });
+        if (bounds == null) return new ArrayList<>();
+
+        // identity keys are dense enough for equal-width ranges
+        long span = bounds[1] - bounds[0];
+        int n = (int) Math.min(partitions, span);
+        List<Callable<List<ProductModel>>> parts = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            long from = bounds[0] + span * i / n;
+            long to = bounds[0] + span * (i + 1) / n;
+            parts.add(() -> loadRange(from, to));
+        }
+        ExecutorService readers = Executors.newFixedThreadPool(n, r -> {
+            Thread t = new Thread(r, "catalog-loader");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<ProductModel> out = new ArrayList<>();
+            for (Future<List<ProductModel>> f : readers.invokeAll(parts)) out.addAll(f.get());
+            return out;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("loadCatalog interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("loadCatalog failed", e.getCause());
+        } finally {
+            readers.shutdownNow();
+        }
+    }
+
+    // products with from <= id < to and their offers (PK range scan), on this thread's own connection
+    private List<ProductModel> loadRange(long from, long to) {
+        final String sqlP = "SELECT id, code, name, category FROM products WHERE id >= ? AND id < ? ORDER BY id";
+        final String sqlO = SQL_ALL_OFFERS + "WHERE o.product_id >= ? AND o.product_id < ?";
+        return executeRead("loadCatalog", c -> {
+            boolean autoCommit = c.getAutoCommit();
+            c.setAutoCommit(false); // pgjdbc only streams with a fetch size inside a transaction
+            try {
+                List<ProductModel> out = readCatalog(c, sqlP, sqlO, from, to).models();
+                c.commit();
+                return out;
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(autoCommit);
+            }
+        });
+    }
+
+    // products query, then offers query, both bound to the same key parameters; straight into the columns,
+    // with one String per seller and category value in this load (the catalog's dictionaries)
+    private CompactCatalog readCatalog(Connection conn, String sqlProducts, String sqlOffers, long... keys) throws SQLException {
+        CompactCatalog catalog = new CompactCatalog();
+        Map<Long, Integer> byId = new HashMap<>();
+        try (PreparedStatement ps = conn.prepareStatement(sqlProducts)) {
+            bind(ps, keys);
+            ps.setFetchSize(10_000);
+            try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
-                    Object idObj = rs.getObject("id");
-                    String idStr = String.valueOf(idObj);
-                    ProductModel m = ProductModel.builder()
-                            .id(idStr)
-                            .name(rs.getString("name"))
-                            .category(rs.getString("category"))
-                            .build();
-                    byId.put(idStr, m);
+                    long id = rs.getLong("id");
+                    String name = rs.getString("name");
+                    byId.put(id, catalog.addProduct(rs.getString("code"), name, rs.getString("category")));
+                    productIds.put(name, id);
                 }
             }
-            // offers
-            try (PreparedStatement ps = conn.prepareStatement(sqlOffers);
-                 ResultSet rs = ps.executeQuery()) {
+        }
+        int offers = 0;
+        try (PreparedStatement ps = conn.prepareStatement(sqlOffers)) {
+            bind(ps, keys);
+            ps.setFetchSize(10_000); // streams inside a transaction (loadRange), buffers otherwise
+            try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
-                    String pidStr = String.valueOf(rs.getObject("product_id"));
-                    ProductModel m = byId.get(pidStr);
-                    if (m == null) continue;
-
-                    ProductOffer offer = ProductOffer.builder()
-                            .seller(rs.getString("seller"))
-                            .price(rs.getDouble("price"))
-                            .quantity(rs.getInt("quantity"))
-                            .build();
-                    m.addOffer(offer);
+                    offers++;
+                    Integer p = byId.get(rs.getLong("product_id"));
+                    if (p == null) continue;
+                    catalog.putOffer(p, rs.getString("seller"), rs.getDouble("price"), rs.getInt("quantity"));
                 }
             }
+        }
+        rows(byId.size() + offers);
+        return catalog;
+    }
+
+    private static void bind(PreparedStatement ps, long... keys) throws SQLException {
+        for (int i = 0; i < keys.length; i++) ps.setLong(i + 1, keys[i]);
+    }
+
+    /** Whole catalog straight into primitive columns, without a ProductModel/ProductOffer per row. */
+    public CompactCatalog fetchCompactCatalog() {
+        return executeRead("fetchCompactCatalog", conn -> readCatalog(conn, SQL_ALL_PRODUCTS, SQL_ALL_OFFERS));
+    }
+
+    // read-only query: runs on the read replica when the router allows it, falls back to primary on failure;
+    // only a lost connection takes the replica out, a query error (e.g. a migration not replayed there yet) does not
+    private <T> T executeRead(String label, SqlWork<T> work) {
+        if (bound.get() != null) return execute(label, work);
+        DataSource ds = router.forRead();
+        if (!router.isReplica(ds)) return execute(label, work);
+        try (Connection c = Db.connection(ds)) {
+            return query(label, c, work);
         } catch (SQLException e) {
-            throw new RuntimeException("Failed to fetch data from DB", e);
+            if (ReplicaRouter.isConnectionFailure(e)) router.replicaFailed(e);
+            return execute(label, work);
         }
+    }
 
-        return new ArrayList<>(byId.values());
+    // products.id for the name, or ProductIdCache.MISSING
+    private long resolveProductId(Connection c, String productName) throws SQLException {
+        final String sql = "SELECT id FROM products WHERE name_key=lower(?)";
+        long cached = productIds.get(productName);
+        if (cached != ProductIdCache.MISSING) return cached;
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setString(1, productName);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return ProductIdCache.MISSING;
+                long id = rs.getLong(1);
+                productIds.put(productName, id);
+                return id;
+            }
+        }
     }
 
     public ProductModel findModelByNameWithOffers(String name) {
-        final String sqlP = "SELECT id, name, category FROM products WHERE lower(name)=lower(?)";
-        final String sqlO = "SELECT seller, price, quantity FROM offers WHERE product_id=?";
+        final String sqlP = "SELECT id, code, name, category FROM products WHERE name_key=lower(?)";
+        final String sqlO = """
+            SELECT u.login AS seller, o.price, o.quantity
+            FROM offers o
+            JOIN users u ON u.id = o.seller_id
+            WHERE o.product_id=?
+            """;
 
-        try (Connection c = dataSource.getConnection()) {
-            Object pidObj;
-            String idStr;
+        return executeRead("findModelByNameWithOffers", c -> {
+            long pid;
+            String code;
             String pname;
             String pcat;
 
@@ -87,19 +330,20 @@ public class JdbcMarketRepository implements AutoCloseable {
                 ps.setString(1, name);
                 try (ResultSet rs = ps.executeQuery()) {
                     if (!rs.next()) return null;
-                    pidObj = rs.getObject("id");
-                    idStr  = String.valueOf(pidObj);
-                    pname  = rs.getString("name");
-                    pcat   = rs.getString("category");
+                    pid   = rs.getLong("id");
+                    code  = rs.getString("code");
+                    pname = rs.getString("name");
+                    pcat  = rs.getString("category");
                 }
             }
 
+            productIds.put(pname, pid);
             ProductModel m = ProductModel.builder()
-                    .id(idStr).name(pname).category(pcat)
+                    .id(code).name(pname).category(pcat)
                     .build();
 
             try (PreparedStatement ps = c.prepareStatement(sqlO)) {
-                ps.setObject(1, pidObj);
+                ps.setLong(1, pid);
                 try (ResultSet rs = ps.executeQuery()) {
                     while (rs.next()) {
                         m.addOffer(ProductOffer.builder()
@@ -110,209 +354,777 @@ public class JdbcMarketRepository implements AutoCloseable {
                     }
                 }
             }
+            rows(1 + m.getOffers().size());
             return m;
-        } catch (SQLException e) { //sql exception, if connector fails
-            throw new RuntimeException("findModelByNameWithOffers failed", e);
-        }
+        });
     }
 
-    public String findProductIdByName(String productName) {
-        final String sql = "SELECT id FROM products WHERE lower(name)=lower(?)";
-        try (Connection c = dataSource.getConnection();
-             PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setString(1, productName);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (!rs.next()) return null;
-                return String.valueOf(rs.getObject(1)); //we put the first quary in the object
+    public String findCategoryByName(String productName) {
+        final String sql = "SELECT category FROM products WHERE name_key=lower(?)";
+        return executeRead("findCategoryByName", c -> {
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setString(1, productName);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? rs.getString(1) : null;
+                }
             }
-        } catch (SQLException e) {
-            throw new RuntimeException("findProductIdByName failed", e);
-        }
+        });
+    }
+
+    /** products.id of the product, or ProductIdCache.MISSING if there is none. */
+    public long findProductIdByName(String productName) {
+        long cached = productIds.get(productName);
+        if (cached != ProductIdCache.MISSING) return cached;
+        return execute("findProductIdByName", c -> resolveProductId(c, productName));
     }
 
     public ProductOffer getOffer(String productName, String seller) {
         final String sql = """
-            SELECT o.seller, o.price, o.quantity
+            SELECT u.login AS seller, o.price, o.quantity, o.version
             FROM offers o
-            JOIN products p ON p.id = o.product_id
-            WHERE lower(p.name)=lower(?) AND lower(o.seller)=lower(?) 
+            JOIN users u ON u.id = o.seller_id
+            WHERE o.product_id=? AND u.login_key=lower(?)
             """; //база кэширует скомпилированный SQL с ?
-        try (Connection c = dataSource.getConnection();
-             PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setString(1, productName);
-            ps.setString(2, seller);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (!rs.next()) return null;
-                return ProductOffer.builder()
-                        .seller(rs.getString("seller"))
-                        .price(rs.getDouble("price"))
-                        .quantity(rs.getInt("quantity"))
-                        .build();
+        return execute("getOffer", c -> {
+            long pid = resolveProductId(c, productName);
+            if (pid == ProductIdCache.MISSING) return null;
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setLong(1, pid);
+                ps.setString(2, seller);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) return null;
+                    return readVersionedOffer(rs);
+                }
             }
-        } catch (SQLException e) {
-            throw new RuntimeException("getOffer failed", e);
-        }
+        });
     }
 
-    public int getTotalAvailableForProduct(String productName) {
+    /** Cheapest offer with stock (idx_offers_book), or null. */
+    public ProductOffer getBestOffer(String productName) {
         final String sql = """
-            SELECT COALESCE(SUM(o.quantity),0)
+            SELECT u.login AS seller, o.price, o.quantity, o.version
             FROM offers o
-            JOIN products p ON p.id = o.product_id
-            WHERE lower(p.name)=lower(?)
+            JOIN users u ON u.id = o.seller_id
+            WHERE o.product_id=? AND o.quantity > 0
+            ORDER BY o.price, o.listed_at
+            LIMIT 1
             """;
-        try (Connection c = dataSource.getConnection();
-             PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setString(1, productName);
-            try (ResultSet rs = ps.executeQuery()) {
-                rs.next();
-                return rs.getInt(1);
+        return execute("getBestOffer", c -> {
+            long pid = resolveProductId(c, productName);
+            if (pid == ProductIdCache.MISSING) return null;
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setLong(1, pid);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) return null;
+                    return readVersionedOffer(rs);
+                }
             }
-        } catch (SQLException e) {
-            throw new RuntimeException("getTotalAvailableForProduct failed", e);
-        }
+        });
+    }
+
+    /**
+     * Cheapest offers with stock until qty is covered, with their versions and without locks:
+     * the buy updates them with compare-and-set (buyFromOffer with expectedVersion).
+     */
+    public List<ProductOffer> cheapestOffers(String productName, int qty) {
+        final String sql = """
+            SELECT u.login AS seller, o.price, o.quantity, o.version
+            FROM offers o
+            JOIN users u ON u.id = o.seller_id
+            WHERE o.product_id=? AND o.quantity > 0
+            ORDER BY o.price, o.listed_at
+            """;
+        return execute("cheapestOffers", c -> {
+            List<ProductOffer> out = new ArrayList<>();
+            long pid = resolveProductId(c, productName);
+            if (pid == ProductIdCache.MISSING) return out;
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setLong(1, pid);
+                ps.setFetchSize(16);
+                try (ResultSet rs = ps.executeQuery()) {
+                    int covered = 0;
+                    while (covered < qty && rs.next()) {
+                        ProductOffer o = readVersionedOffer(rs);
+                        out.add(o);
+                        covered += o.getQuantity();
+                    }
+                }
+            }
+            return rows(out);
+        });
+    }
+
+    private static ProductOffer readVersionedOffer(ResultSet rs) throws SQLException {
+        return ProductOffer.builder()
+                .seller(rs.getString("seller"))
+                .price(rs.getDouble("price"))
+                .quantity(rs.getInt("quantity"))
+                .version(rs.getLong("version"))
+                .build();
+    }
+
+    public int getTotalAvailableForProduct(String productName) {
+        final String sql = "SELECT COALESCE(SUM(quantity),0) FROM offers WHERE product_id=?";
+        return execute("getTotalAvailableForProduct", c -> {
+            long pid = resolveProductId(c, productName);
+            if (pid == ProductIdCache.MISSING) return 0;
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setLong(1, pid);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    return rs.getInt(1);
+                }
+            }
+        });
     }
 
     public List<Double> getLastTradePrices(String productName, int limit) {
         final String sql = """
-        SELECT h.price
-        FROM price_history h
-        JOIN products p ON p.id = h.product_id
-        WHERE lower(p.name)=lower(?)
-        ORDER BY h.created_at DESC
+        SELECT price
+        FROM price_history
+        WHERE product_id=?
+        ORDER BY created_at DESC
         LIMIT ?
         """;
-        List<Double> out = new ArrayList<>();
-        try (Connection c = dataSource.getConnection();
-            PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setString(1, productName);
-            ps.setInt(2, Math.max(0, limit));
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) out.add(rs.getDouble(1)); //price is the first column in the select
+        return executeRead("getLastTradePrices", c -> {
+            List<Double> out = new ArrayList<>();
+            long pid = resolveProductId(c, productName);
+            if (pid == ProductIdCache.MISSING) return out;
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setLong(1, pid);
+                ps.setInt(2, Math.max(0, limit));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) out.add(rs.getDouble(1)); //price is the first column in the select
+                }
             }
-        } catch (SQLException e) {
-            throw new RuntimeException("getLastTradePrices failed", e);
-        }
-        return out;
+            return rows(out);
+        });
+    }
+
+    /** Trades of the product with from <= created_at < to, oldest first (idx_price_history_prod_created). */
+    public List<PriceSeries.Point> getTradePrices(String productName, Instant from, Instant to) {
+        final String sql = """
+        SELECT created_at, price
+        FROM price_history
+        WHERE product_id=? AND created_at >= ? AND created_at < ?
+        ORDER BY created_at
+        """;
+        return executeRead("getTradePrices", c -> {
+            List<PriceSeries.Point> out = new ArrayList<>();
+            long pid = resolveProductId(c, productName);
+            if (pid == ProductIdCache.MISSING) return out;
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setLong(1, pid);
+                ps.setTimestamp(2, Timestamp.from(from));
+                ps.setTimestamp(3, Timestamp.from(to));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) out.add(new PriceSeries.Point(rs.getTimestamp(1).getTime(), rs.getDouble(2)));
+                }
+            }
+            return rows(out);
+        });
+    }
+
+    /** Trade count and first/last trade price per product, for rebuilding the leaderboards. */
+    public List<Leaderboards.TradeStats> loadTradeStats() {
+        final String sql = """
+            SELECT p.name,
+                   count(*),
+                   (array_agg(h.price ORDER BY h.created_at, h.id))[1],
+                   (array_agg(h.price ORDER BY h.created_at DESC, h.id DESC))[1]
+            FROM price_history h
+            JOIN products p ON p.id = h.product_id
+            GROUP BY p.name
+            """;
+        return executeRead("loadTradeStats", c -> {
+            List<Leaderboards.TradeStats> out = new ArrayList<>();
+            try (PreparedStatement ps = c.prepareStatement(sql);
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    out.add(new Leaderboards.TradeStats(rs.getString(1), rs.getLong(2), rs.getDouble(3), rs.getDouble(4)));
+                }
+            }
+            return rows(out);
+        });
     }
 
-    public void upsertProduct(String id, String name, String category) {
+    /**
+     * @param code the product ID entered by the admin (products.code)
+     * @return products.id of the inserted or updated product
+     */
+    public long upsertProduct(String code, String name, String category) {
         final String sql = """
-            INSERT INTO products(id,name,category) VALUES (?,?,?)
-            ON CONFLICT (id) DO UPDATE
+            INSERT INTO products(code,name,category) VALUES (?,?,?)
+            ON CONFLICT (code) DO UPDATE
             SET name=EXCLUDED.name, category=EXCLUDED.category
+            RETURNING id
             """;
-        try (Connection c = dataSource.getConnection();
-            PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setObject(1, normalizeId(id));
-            ps.setString(2, name);
-            ps.setString(3, category);
-            ps.executeUpdate();
-        } catch (SQLException e) {
-            throw new RuntimeException("upsertProduct failed", e);
-        }
+        return execute("upsertProduct", c -> {
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setString(1, code);
+                ps.setString(2, name);
+                ps.setString(3, category);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    long id = rs.getLong(1);
+                    productIds.put(name, id); // also drops the old name on rename
+                    rows(1);
+                    router.markWrite();
+                    return id;
+                }
+            }
+        });
     }
 
-    public void upsertOffer(String productId, String seller, double price, int qty) {
+    /**
+     * @param productId products.id (see findProductIdByName)
+     * @return the offer as stored after the upsert, or null if the seller is not a user
+     */
+    public ProductOffer upsertOffer(long productId, String seller, double price, int qty) {
         final String sql = """
-            INSERT INTO offers(product_id,seller,price,quantity) VALUES (?,?,?,?)
-            ON CONFLICT (product_id,seller) DO UPDATE
+            INSERT INTO offers(product_id,seller_id,price,quantity)
+            SELECT ?, u.id, ?, ? FROM users u WHERE u.login_key=lower(?)
+            ON CONFLICT (product_id,seller_id) DO UPDATE
             SET price=EXCLUDED.price,
-            quantity=offers.quantity + EXCLUDED.quantity
+            quantity=offers.quantity + EXCLUDED.quantity,
+            listed_at=CASE WHEN offers.price = EXCLUDED.price THEN offers.listed_at ELSE now() END,
+            version=offers.version + 1
+            RETURNING (SELECT login FROM users WHERE id = offers.seller_id) AS seller, price, quantity, version
             """;
-        try (Connection c = dataSource.getConnection();
-            PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setObject(1, normalizeId(productId));
-            ps.setString(2, seller);
-            ps.setDouble(3, price);
-            ps.setInt(4, qty);
-            ps.executeUpdate();
-        } catch (SQLException e) {
-            throw new RuntimeException("upsertOffer failed", e);
-        }
+        return execute("upsertOffer", c -> {
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setLong(1, productId);
+                ps.setDouble(2, price);
+                ps.setInt(3, qty);
+                ps.setString(4, seller);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) return null; // unknown seller
+                    rows(1);
+                    router.markWrite();
+                    return readVersionedOffer(rs);
+                }
+            }
+        });
     }
 
+    /**
+     * Compare-and-set buy: applies only if the offer still has expectedVersion (the version it was read with),
+     * so a price computed from that read never overwrites a concurrent change.
+     * @return false if the offer changed since (or is gone); nothing is written then
+     */
     public boolean buyFromOffer(String productName, String seller, int qty,
-                                double executionPrice, double newListedPrice) {
-        final String find    = "SELECT id FROM products WHERE lower(name)=lower(?)";
-        final String getQty  = "SELECT quantity FROM offers WHERE product_id=? AND lower(seller)=lower(?)";
-        final String dec     = "UPDATE offers SET quantity=quantity-?, price=? WHERE product_id=? AND lower(seller)=lower(?)";
+                                double executionPrice, double newListedPrice, long expectedVersion) {
+        final String dec     = """
+            UPDATE offers SET quantity=quantity-?, price=?, listed_at=now(), version=version+1
+            WHERE product_id=? AND seller_id=(SELECT id FROM users WHERE login_key=lower(?))
+              AND version=? AND quantity >= ?
+            """;
         final String insHist = "INSERT INTO price_history(product_id,price) VALUES (?,?)";
 
-        try (Connection c = dataSource.getConnection()) {
-            c.setAutoCommit(false);
+        if (qty <= 0) return false;
+        return inTransaction(() -> execute("buyFromOffer", c -> {
+            long pid = resolveProductId(c, productName);
+            if (pid == ProductIdCache.MISSING) return false;
 
-            Object pidObj;
-            try (PreparedStatement ps = c.prepareStatement(find)) {
-                ps.setString(1, productName);
+            try (PreparedStatement ps = c.prepareStatement(dec)) {
+                ps.setInt(1, qty);
+                ps.setDouble(2, newListedPrice);
+                ps.setLong(3, pid);
+                ps.setString(4, seller);
+                ps.setLong(5, expectedVersion);
+                ps.setInt(6, qty);
+                if (rows(ps.executeUpdate()) == 0) return false; // changed since it was read
+            }
+            try (PreparedStatement ps = c.prepareStatement(insHist)) {
+                ps.setLong(1, pid);
+                ps.setDouble(2, executionPrice);
+                rows(ps.executeUpdate());
+            }
+            router.markWrite();
+            return true;
+        }));
+    }
+
+    /** One page of a seller's offers ordered by product name (idx_offers_seller). */
+    public List<SellerOffer> listOffersBySeller(String seller, int offset, int limit) {
+        final String sql = """
+            SELECT p.name, p.category, u.login, o.price, o.quantity
+            FROM users u
+            JOIN offers o ON o.seller_id = u.id
+            JOIN products p ON p.id = o.product_id
+            WHERE u.login_key=lower(?)
+            ORDER BY p.name
+            LIMIT ? OFFSET ?
+            """;
+        return executeRead("listOffersBySeller", c -> {
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setString(1, seller);
+                ps.setInt(2, Math.max(0, limit));
+                ps.setInt(3, Math.max(0, offset));
                 try (ResultSet rs = ps.executeQuery()) {
-                    if (!rs.next()) { c.rollback(); return false; }
-                    pidObj = rs.getObject(1);
+                    return rows(readSellerOffers(rs));
                 }
             }
+        });
+    }
 
-            int available;
-            try (PreparedStatement ps = c.prepareStatement(getQty)) {
-                ps.setObject(1, pidObj);
+    /** Adds qty to every offer of the seller in one statement, returns the updated offers. */
+    public List<SellerOffer> restockSellerOffers(String seller, int qty) {
+        final String sql = """
+            UPDATE offers o SET quantity = o.quantity + ?, version = o.version + 1
+            FROM products p, users u
+            WHERE p.id = o.product_id AND u.id = o.seller_id AND u.login_key=lower(?)
+            RETURNING p.name, p.category, u.login, o.price, o.quantity
+            """;
+        return execute("restockSellerOffers", c -> {
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setInt(1, qty);
                 ps.setString(2, seller);
                 try (ResultSet rs = ps.executeQuery()) {
-                    if (!rs.next()) { c.rollback(); return false; }
-                    available = rs.getInt(1);
+                    router.markWrite();
+                    return rows(readSellerOffers(rs));
                 }
             }
-            if (qty <= 0 || available < qty) { c.rollback(); return false; }
+        });
+    }
 
-            try (PreparedStatement ps = c.prepareStatement(dec)) {
+    /** Multiplies the price of every offer of the seller by factor in one statement, returns the updated offers. */
+    public List<SellerOffer> repriceSellerOffers(String seller, double factor) {
+        final String sql = """
+            UPDATE offers o SET price = o.price * ?, listed_at = now(), version = o.version + 1
+            FROM products p, users u
+            WHERE p.id = o.product_id AND u.id = o.seller_id AND u.login_key=lower(?)
+            RETURNING p.name, p.category, u.login, o.price, o.quantity
+            """;
+        return execute("repriceSellerOffers", c -> {
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setDouble(1, factor);
+                ps.setString(2, seller);
+                try (ResultSet rs = ps.executeQuery()) {
+                    router.markWrite();
+                    return rows(readSellerOffers(rs));
+                }
+            }
+        });
+    }
+
+    // columns: product name, category, seller, price, quantity
+    private static List<SellerOffer> readSellerOffers(ResultSet rs) throws SQLException {
+        List<SellerOffer> out = new ArrayList<>();
+        while (rs.next()) {
+            out.add(new SellerOffer(rs.getString(1), rs.getString(2), ProductOffer.builder()
+                    .seller(rs.getString(3))
+                    .price(rs.getDouble(4))
+                    .quantity(rs.getInt(5))
+                    .build()));
+        }
+        return out;
+    }
+
+    /**
+     * WriteBehind sink: writes coalesced offer states and trades as two JDBC batches in one transaction.
+     * Offers of unknown products or sellers and trades of unknown products are skipped; returns how many.
+     */
+    public int writeBatch(List<WriteBehind.OfferState> offers, List<WriteBehind.Trade> trades) {
+        final String upsert = """
+            INSERT INTO offers(product_id,seller_id,price,quantity)
+            SELECT ?, u.id, ?, ? FROM users u WHERE u.login_key=lower(?)
+            ON CONFLICT (product_id,seller_id) DO UPDATE
+            SET price=EXCLUDED.price,
+            quantity=EXCLUDED.quantity,
+            listed_at=CASE WHEN offers.price = EXCLUDED.price THEN offers.listed_at ELSE now() END,
+            version=offers.version + 1
+            """;
+        final String insHist = "INSERT INTO price_history(product_id,price,created_at) VALUES (?,?,?)";
+
+        return inTransaction(() -> execute("writeBatch", c -> {
+            int skipped = 0;
+            int written = 0;
+            try (PreparedStatement ps = c.prepareStatement(upsert)) {
+                for (WriteBehind.OfferState o : offers) {
+                    long pid = resolveProductId(c, o.product());
+                    if (pid == ProductIdCache.MISSING) { skipped++; continue; }
+                    ps.setLong(1, pid);
+                    ps.setDouble(2, o.price());
+                    ps.setInt(3, o.quantity());
+                    ps.setString(4, o.seller());
+                    ps.addBatch();
+                }
+                // INSERT ... SELECT is not rewritten by reWriteBatchedInserts, so every row has its own count
+                for (int n : ps.executeBatch()) {
+                    if (n == 0) skipped++; // no users row for the seller
+                    else written += n;
+                }
+            }
+            try (PreparedStatement ps = c.prepareStatement(insHist)) {
+                for (WriteBehind.Trade t : trades) {
+                    long pid = resolveProductId(c, t.product());
+                    if (pid == ProductIdCache.MISSING) { skipped++; continue; }
+                    ps.setLong(1, pid);
+                    ps.setDouble(2, t.price());
+                    ps.setTimestamp(3, Timestamp.from(t.at())); // trade time, not flush time
+                    ps.addBatch();
+                    written++; // rewritten batched inserts report SUCCESS_NO_INFO, not counts
+                }
+                ps.executeBatch();
+            }
+            rows(written);
+            router.markWrite();
+            return skipped;
+        }));
+    }
+
+    /**
+     * Claims the client order id, meant to run in the transaction of the trade.
+     * A concurrent claim of the same id waits for the first one to commit or roll back.
+     * @return null if the id is new (the caller executes the order), otherwise the stored order
+     */
+    public OrderDedup.Order claimClientOrder(String clientOrderId, String productName, String seller, int qty) {
+        final String ins = """
+            INSERT INTO client_orders(client_order_id,product,seller,quantity) VALUES (?,?,?,?)
+            ON CONFLICT (client_order_id) DO NOTHING
+            """;
+        final String sel = "SELECT product, seller, quantity, filled FROM client_orders WHERE client_order_id=?";
+        return execute("claimClientOrder", c -> {
+            try (PreparedStatement ps = c.prepareStatement(ins)) {
+                ps.setString(1, clientOrderId);
+                ps.setString(2, productName);
+                ps.setString(3, seller);
+                ps.setInt(4, qty);
+                if (rows(ps.executeUpdate()) == 1) {
+                    router.markWrite();
+                    return null;
+                }
+            }
+            try (PreparedStatement ps = c.prepareStatement(sel)) {
+                ps.setString(1, clientOrderId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    return new OrderDedup.Order(rs.getString(1), rs.getString(2), rs.getInt(3), rs.getBoolean(4));
+                }
+            }
+        });
+    }
+
+    public void completeClientOrder(String clientOrderId) {
+        final String sql = "UPDATE client_orders SET filled=true WHERE client_order_id=?";
+        execute("completeClientOrder", c -> {
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setString(1, clientOrderId);
+                return rows(ps.executeUpdate());
+            }
+        });
+    }
+
+    /** Deletes client order ids older than the dedup window, returns how many. */
+    public int purgeClientOrders(long windowMillis) {
+        final String sql = "DELETE FROM client_orders WHERE created_at < now() - ? * interval '1 millisecond'";
+        return execute("purgeClientOrders", c -> {
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setLong(1, windowMillis);
+                return rows(ps.executeUpdate());
+            }
+        });
+    }
+
+    /** Stores a new open bid, returns its id or -1 if the product does not exist. */
+    public long insertBid(String productName, String buyer, double limitPrice, int qty) {
+        final String sql = "INSERT INTO bids(product_id,buyer,limit_price,quantity) VALUES (?,?,?,?) RETURNING id";
+        return execute("insertBid", c -> {
+            long pid = resolveProductId(c, productName);
+            if (pid == ProductIdCache.MISSING) return ProductIdCache.MISSING;
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setLong(1, pid);
+                ps.setString(2, buyer);
+                ps.setDouble(3, limitPrice);
+                ps.setInt(4, qty);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    rows(1);
+                    router.markWrite();
+                    return rs.getLong(1);
+                }
+            }
+        });
+    }
+
+    public void fillBid(long bidId, int qty) {
+        final String sql = "UPDATE bids SET quantity=quantity-? WHERE id=?";
+        execute("fillBid", c -> {
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
                 ps.setInt(1, qty);
-                ps.setDouble(2, newListedPrice);
-                ps.setObject(3, pidObj);
-                ps.setString(4, seller);
-                ps.executeUpdate();
+                ps.setLong(2, bidId);
+                return rows(ps.executeUpdate());
+            }
+        });
+    }
+
+    public boolean cancelBid(long bidId) {
+        final String sql = "UPDATE bids SET quantity=0 WHERE id=? AND quantity > 0";
+        return execute("cancelBid", c -> {
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setLong(1, bidId);
+                return rows(ps.executeUpdate()) == 1;
+            }
+        });
+    }
+
+    /** Open bids of the product, best first: highest limit price, then the older one. */
+    public List<Bid> openBids(String productName) {
+        final String sql = """
+            SELECT b.id, p.name, b.buyer, b.limit_price, b.quantity
+            FROM bids b
+            JOIN products p ON p.id = b.product_id
+            WHERE p.name_key = lower(?) AND b.quantity > 0
+            ORDER BY b.limit_price DESC, b.created_at, b.id
+            """;
+        return executeRead("openBids", c -> {
+            List<Bid> out = new ArrayList<>();
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setString(1, productName);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) out.add(readBid(rs));
+                }
+            }
+            return rows(out);
+        });
+    }
+
+    /**
+     * Best open bid of the product, locked until the current transaction ends; bids another
+     * transaction is filling are skipped. Null if there is none.
+     */
+    public Bid lockBestBid(String productName) {
+        final String sql = """
+            SELECT b.id, p.name, b.buyer, b.limit_price, b.quantity
+            FROM bids b
+            JOIN products p ON p.id = b.product_id
+            WHERE p.name_key = lower(?) AND b.quantity > 0
+            ORDER BY b.limit_price DESC, b.created_at, b.id
+            LIMIT 1
+            FOR UPDATE OF b SKIP LOCKED
+            """;
+        return execute("lockBestBid", c -> {
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setString(1, productName);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? readBid(rs) : null;
+                }
+            }
+        });
+    }
+
+    /** Still open quantity of the bid, 0 if it is filled, cancelled or unknown. */
+    public int bidQuantity(long bidId) {
+        final String sql = "SELECT quantity FROM bids WHERE id=?";
+        return execute("bidQuantity", c -> {
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setLong(1, bidId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? rs.getInt(1) : 0;
+                }
+            }
+        });
+    }
+
+    private static Bid readBid(ResultSet rs) throws SQLException {
+        return Bid.builder()
+                .id(rs.getLong(1))
+                .product(rs.getString(2))
+                .buyer(rs.getString(3))
+                .limitPrice(rs.getDouble(4))
+                .quantity(rs.getInt(5))
+                .build();
+    }
+
+    /**
+     * Takes qty units out of the seller's offer and stores them as a hold at the offer's current price.
+     * @return the hold, or null if there is no such offer or it has fewer than qty units
+     */
+    public Hold insertHold(String productName, String seller, String buyer, int qty, Instant expiresAt) {
+        final String sql = """
+            WITH taken AS (
+                UPDATE offers o SET quantity=o.quantity-?, version=o.version+1
+                FROM users u
+                WHERE o.product_id=? AND o.seller_id=u.id AND u.login_key=lower(?) AND o.quantity >= ?
+                RETURNING o.product_id, o.seller_id, o.price
+            )
+            INSERT INTO holds(product_id,seller_id,buyer,quantity,price,expires_at)
+            SELECT product_id, seller_id, ?, ?, price, ? FROM taken
+            RETURNING id, (SELECT name FROM products WHERE id = holds.product_id) AS product,
+                      (SELECT login FROM users WHERE id = holds.seller_id) AS seller, price
+            """;
+        return execute("insertHold", c -> {
+            long pid = resolveProductId(c, productName);
+            if (pid == ProductIdCache.MISSING) return null;
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setInt(1, qty);
+                ps.setLong(2, pid);
+                ps.setString(3, seller);
+                ps.setInt(4, qty);
+                ps.setString(5, buyer);
+                ps.setInt(6, qty);
+                ps.setTimestamp(7, Timestamp.from(expiresAt));
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) return null; // no offer or not enough stock
+                    rows(2); // the offer and the hold
+                    router.markWrite();
+                    return new Hold(rs.getLong("id"), rs.getString("product"), rs.getString("seller"),
+                            buyer, qty, rs.getDouble("price"), expiresAt);
+                }
+            }
+        });
+    }
+
+    /**
+     * Deletes the hold and gives its units back to the offer.
+     * @return the offer after the release, or null if the hold no longer exists
+     */
+    public SellerOffer releaseHold(long holdId) {
+        final String sql = """
+            WITH h AS (DELETE FROM holds WHERE id=? RETURNING product_id, seller_id, quantity)
+            UPDATE offers o SET quantity=o.quantity+h.quantity, version=o.version+1
+            FROM h, products p, users u
+            WHERE o.product_id=h.product_id AND o.seller_id=h.seller_id AND p.id=o.product_id AND u.id=o.seller_id
+            RETURNING p.name, p.category, u.login AS seller, o.price, o.quantity, o.version
+            """;
+        return execute("releaseHold", c -> {
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setLong(1, holdId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) return null;
+                    rows(2); // the hold and the offer
+                    router.markWrite();
+                    return new SellerOffer(rs.getString("name"), rs.getString("category"), readVersionedOffer(rs));
+                }
+            }
+        });
+    }
+
+    /** Deletes the hold without giving its units back (they are sold), returns it or null if it no longer exists. */
+    public Hold deleteHold(long holdId) {
+        final String sql = """
+            DELETE FROM holds WHERE id=?
+            RETURNING (SELECT name FROM products WHERE id = holds.product_id) AS product,
+                      (SELECT login FROM users WHERE id = holds.seller_id) AS seller,
+                      buyer, quantity, price, expires_at
+            """;
+        return execute("deleteHold", c -> {
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setLong(1, holdId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) return null;
+                    rows(1);
+                    router.markWrite();
+                    return readHold(holdId, rs);
+                }
+            }
+        });
+    }
+
+    /**
+     * Records the sale of held units: they already left the offer, so only its price moves,
+     * compare-and-set like buyFromOffer.
+     * @return false if the offer changed since it was read
+     */
+    public boolean sellHeld(String productName, String seller, double executionPrice, double newListedPrice, long expectedVersion) {
+        final String upd = """
+            UPDATE offers SET price=?, listed_at=now(), version=version+1
+            WHERE product_id=? AND seller_id=(SELECT id FROM users WHERE login_key=lower(?)) AND version=?
+            """;
+        final String insHist = "INSERT INTO price_history(product_id,price) VALUES (?,?)";
+
+        return inTransaction(() -> execute("sellHeld", c -> {
+            long pid = resolveProductId(c, productName);
+            if (pid == ProductIdCache.MISSING) return false;
+
+            try (PreparedStatement ps = c.prepareStatement(upd)) {
+                ps.setDouble(1, newListedPrice);
+                ps.setLong(2, pid);
+                ps.setString(3, seller);
+                ps.setLong(4, expectedVersion);
+                if (rows(ps.executeUpdate()) == 0) return false;
             }
             try (PreparedStatement ps = c.prepareStatement(insHist)) {
-                ps.setObject(1, pidObj);
+                ps.setLong(1, pid);
                 ps.setDouble(2, executionPrice);
-                ps.executeUpdate();
+                rows(ps.executeUpdate());
             }
-
-            c.commit();
+            router.markWrite();
             return true;
-        } catch (SQLException e) {
-            throw new RuntimeException("buyFromOffer failed", e);
-        }
+        }));
+    }
+
+    /** All holds, also expired ones that were not released before a restart. */
+    public List<Hold> loadHolds() {
+        final String sql = """
+            SELECT h.id, p.name AS product, u.login AS seller, h.buyer, h.quantity, h.price, h.expires_at
+            FROM holds h
+            JOIN products p ON p.id = h.product_id
+            JOIN users u ON u.id = h.seller_id
+            """;
+        return execute("loadHolds", c -> {
+            List<Hold> out = new ArrayList<>();
+            try (PreparedStatement ps = c.prepareStatement(sql);
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) out.add(readHold(rs.getLong("id"), rs));
+            }
+            return rows(out);
+        });
+    }
+
+    /**
+     * Ids of holds that expired before now, also those of other or stopped instances.
+     * Each is given back with releaseHold, so a hold another instance releases at the same time is released once.
+     */
+    public List<Long> expiredHoldIds(Instant now) {
+        final String sql = "SELECT id FROM holds WHERE expires_at <= ? ORDER BY expires_at LIMIT ?";
+        return execute("expiredHoldIds", c -> {
+            List<Long> out = new ArrayList<>();
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setTimestamp(1, Timestamp.from(now));
+                ps.setInt(2, EXPIRED_HOLDS_PER_SWEEP);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) out.add(rs.getLong(1));
+                }
+            }
+            return rows(out);
+        });
+    }
+
+    private static Hold readHold(long id, ResultSet rs) throws SQLException {
+        return new Hold(id, rs.getString("product"), rs.getString("seller"), rs.getString("buyer"),
+                rs.getInt("quantity"), rs.getDouble("price"), rs.getTimestamp("expires_at").toInstant());
     }
 
     public boolean hasAnyProducts() {
         final String sql = "SELECT EXISTS (SELECT 1 FROM products)";
-        try (Connection c = dataSource.getConnection();
-             Statement st = c.createStatement();
-             ResultSet rs = st.executeQuery(sql)) {
-            rs.next();
-            return rs.getBoolean(1);
-        } catch (SQLException e) {
-            throw new RuntimeException("hasAnyProducts failed", e);
-        }
+        return execute("hasAnyProducts", c -> {
+            try (Statement st = c.createStatement();
+                 ResultSet rs = st.executeQuery(sql)) {
+                rs.next();
+                return rs.getBoolean(1);
+            }
+        });
     }
 
     public AuthorizedUsers authenticate(String login, String password) {
     final String sql = """
         SELECT login, role
         FROM users
-        WHERE lower(login) = lower(?) 
+        WHERE login_key = lower(?)
         AND password_hash = crypt(?, password_hash)
         """;
-    try (Connection c = dataSource.getConnection();
-        PreparedStatement ps = c.prepareStatement(sql)) {
-        ps.setString(1, login);
-        ps.setString(2, password);
-        try (ResultSet rs = ps.executeQuery()) {
-            if (!rs.next()) return null;
-            return new AuthorizedUsers(rs.getString("login"), rs.getString("role"));
+    return execute("authenticate", c -> {
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setString(1, login);
+            ps.setString(2, password);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return null;
+                return new AuthorizedUsers(rs.getString("login"), rs.getString("role"));
+            }
         }
-    } catch (SQLException e) {
-        throw new RuntimeException("authenticate failed", e);
-    }
+    });
 }
-    @Override public void close() { /* no-op */ } //we don't need it
+    @Override public void close() { router.close(); }
 }
-
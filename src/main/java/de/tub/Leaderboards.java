@@ -0,0 +1,137 @@
+package de.tub;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Рейтинги для обзорного экрана: самые дешёвые продукты в категории, самые сильные
+ * изменения цены и самые торгуемые продукты. Каждый рейтинг - отсортированное множество,
+ * которое обновляется при каждой сделке и изменении предложения (O(log n)),
+ * поэтому первые N записей читаются за O(N), без сортировки всего каталога.
+ */
+public class Leaderboards {
+
+    /** One row of a ranking; the meaning of value depends on the ranking (price, relative change, trades). */
+    public record Entry(String product, double value) {}
+
+    /** Trades of one product as loaded from price_history at startup. */
+    public record TradeStats(String product, long trades, double firstPrice, double lastPrice) {}
+
+    private static final class Ranking {
+        private final TreeSet<Entry> order;
+        private final Map<String, Entry> byProduct = new HashMap<>();
+
+        Ranking(Comparator<Entry> by) {
+            this.order = new TreeSet<>(by.thenComparing(Entry::product));
+        }
+
+        void put(String product, double value) {
+            Entry e = new Entry(product, value);
+            Entry old = byProduct.put(key(product), e);
+            if (old != null) order.remove(old);
+            order.add(e);
+        }
+
+        void remove(String product) {
+            Entry old = byProduct.remove(key(product));
+            if (old != null) order.remove(old);
+        }
+
+        boolean isEmpty() {
+            return byProduct.isEmpty();
+        }
+
+        List<Entry> top(int n) {
+            List<Entry> out = new ArrayList<>(Math.min(n, order.size()));
+            for (Entry e : order) {
+                if (out.size() >= n) break;
+                out.add(e);
+            }
+            return out;
+        }
+    }
+
+    private static final class Trades {
+        long count;
+        double first;
+        double last;
+    }
+
+    private static final Comparator<Entry> ASCENDING = Comparator.comparingDouble(Entry::value);
+    private static final Comparator<Entry> DESCENDING = ASCENDING.reversed();
+    private static final Comparator<Entry> BIGGEST_MOVE =
+            Comparator.comparingDouble((Entry e) -> Math.abs(e.value())).reversed();
+
+    private final Map<String, Ranking> cheapestByCategory = new HashMap<>(); // lower(category)
+    private final Map<String, String> categoryOfProduct = new HashMap<>();   // lower(product) -> lower(category)
+    private final Map<String, Trades> trades = new HashMap<>();              // lower(product)
+    private final Ranking movers = new Ranking(BIGGEST_MOVE);
+    private final Ranking mostTraded = new Ranking(DESCENDING);
+
+    /** Best price of the product's in-stock offers changed; NaN = nothing in stock. */
+    public synchronized void bestPriceChanged(String product, String category, double bestPrice) {
+        String p = key(product);
+        String oldCat = categoryOfProduct.get(p);
+        String cat = category == null ? oldCat : key(category);
+        if (oldCat != null && !oldCat.equals(cat)) removeCheapest(oldCat, product);
+        if (cat == null) return;
+        categoryOfProduct.put(p, cat);
+
+        if (Double.isNaN(bestPrice)) removeCheapest(cat, product);
+        else cheapestByCategory.computeIfAbsent(cat, k -> new Ranking(ASCENDING)).put(product, bestPrice);
+    }
+
+    /** One executed trade (one price_history row). */
+    public synchronized void trade(String product, double price) {
+        Trades t = trades.computeIfAbsent(key(product), k -> new Trades());
+        if (t.count == 0) t.first = price;
+        t.count++;
+        t.last = price;
+        rank(product, t);
+    }
+
+    public synchronized void load(TradeStats s) {
+        Trades t = trades.computeIfAbsent(key(s.product()), k -> new Trades());
+        t.count = s.trades();
+        t.first = s.firstPrice();
+        t.last = s.lastPrice();
+        rank(s.product(), t);
+    }
+
+    /** Cheapest in-stock products of the category, by their best offer. */
+    public synchronized List<Entry> cheapest(String category, int n) {
+        Ranking r = cheapestByCategory.get(key(category));
+        return r == null || n <= 0 ? List.of() : r.top(n);
+    }
+
+    /** Biggest relative change between the first and the last trade price, e.g. -0.25 = 25% cheaper. */
+    public synchronized List<Entry> topMovers(int n) {
+        return n <= 0 ? List.of() : movers.top(n);
+    }
+
+    /** Products with the most trades. */
+    public synchronized List<Entry> mostTraded(int n) {
+        return n <= 0 ? List.of() : mostTraded.top(n);
+    }
+
+    private void rank(String product, Trades t) {
+        mostTraded.put(product, t.count);
+        if (t.first > 0) movers.put(product, (t.last - t.first) / t.first);
+    }
+
+    private void removeCheapest(String category, String product) {
+        Ranking r = cheapestByCategory.get(category);
+        if (r == null) return;
+        r.remove(product);
+        if (r.isEmpty()) cheapestByCategory.remove(category);
+    }
+
+    private static String key(String s) {
+        return s.toLowerCase(Locale.ROOT);
+    }
+}
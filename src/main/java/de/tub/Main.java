@@ -3,33 +3,140 @@ package de.tub;
 import lombok.extern.java.Log;
 
 import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
 
 @Log
 public class Main {
+
+    private static volatile DataSource ds;
+    private static volatile WriteBehind writeBehind;
+    private static volatile OffHeapOfferStore offHeap;
+
     public static void main(String[] args) {
-        Market market;
+        CompletableFuture<Market> market;
+
+        // JFR_CONTINUOUS=true: ring-buffer recording from the start, so the migration is in it too
+        FlightRecording.startFromConfig(DbConfig.load());
 
         String dbUrl = System.getenv("DB_URL"); // e.g. jdbc:postgresql://localhost:5432/market
+        boolean fastStart = Boolean.parseBoolean(System.getenv("FAST_START"));
         if (dbUrl != null && !dbUrl.isBlank()) {
-            try {
-   
-                DataSource ds = Db.dataSourceFromEnv();
-                Db.migrate(ds);
+            if (fastStart) {
+                // connect, check the schema and warm the pool while the console is already shown
+                market = CompletableFuture.supplyAsync(() -> openDbMarket(dbUrl, true))
+                        .exceptionally(Main::fallbackToMemory);
+            } else {
+                Market m;
+                try {
+                    m = openDbMarket(dbUrl, false);
+                } catch (Exception e) {
+                    m = fallbackToMemory(e);
+                }
+                market = CompletableFuture.completedFuture(m);
+            }
+        } else {
+            log.info("DB_URL is not set. Running in in-memory mode.");
+            market = CompletableFuture.completedFuture(memoryMarket());
+        }
 
-                JdbcMarketRepository repo = new JdbcMarketRepository(ds);
-                market = new Market(repo);
+        market = market.thenApply(Main::withPricing).thenApply(Market::startHoldExpiry);
 
-                log.info("Running with PostgreSQL: " + dbUrl);
-            } catch (Exception e) {
-                log.severe("Failed to initialize DB. Falling back to in-memory. Reason: " + e.getMessage());
-                market = new Market();
+        int batchErrors = 0;
+        int batch = java.util.Arrays.asList(args).indexOf("--batch");
+        if (batch >= 0) {
+            // --batch [file]: commands from the file (or stdin), no prompts; output is flushed at the end
+            String file = batch + 1 < args.length ? args[batch + 1] : "-";
+            try (Reader in = file.equals("-") ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+                                              : Files.newBufferedReader(Path.of(file));
+                 PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16))) {
+                BatchConsole bc = new BatchConsole(market.join(), in, out);
+                bc.run();
+                batchErrors = bc.errors();
+            } catch (IOException e) {
+                log.severe("Cannot read batch file " + file + ": " + e.getMessage());
+                batchErrors = 1;
             }
         } else {
-            log.info("DB_URL is not set. Running in in-memory mode.");
-            market = new Market();
+            Console console = new Console(market, new java.util.Scanner(System.in));
+            console.start(ManagementFactory.getRuntimeMXBean().getStartTime());
+        }
+
+        Market m = market.getNow(null);
+        if (m != null) {
+            m.close(); // stops hold expiry before the write-behind drains
+            if (m.concurrencyStats().attempts() > 0) log.info("Optimistic buys: " + m.concurrencyStats());
+        }
+
+        WriteBehind wb = writeBehind;
+        if (wb != null) {
+            wb.close(); // the market is gone, drain what it left
+            log.info("Write-behind: " + wb.stats());
+        }
+        OffHeapOfferStore offers = offHeap;
+        if (offers != null) {
+            try {
+                offers.close(); // a mapped file is forced to disk for the next start
+            } catch (IOException e) {
+                log.severe("Cannot close the off-heap offer store: " + e.getMessage());
+            }
+        }
+
+        PoolMetrics metrics = (ds != null) ? Db.metrics(ds) : null;
+        if (metrics != null) log.info("Connection pool: " + metrics.snapshot());
+        if (batchErrors > 0) System.exit(1);
+    }
+
+    private static Market openDbMarket(String dbUrl, boolean fast) {
+        ds = Db.dataSourceFromEnv();
+        if (fast) Db.migrateFast(ds); else Db.migrate(ds);
+
+        JdbcMarketRepository repo = new JdbcMarketRepository(Db.routerFromEnv(ds));
+        DbConfig conf = DbConfig.load();
+        if (conf.getBoolean("WRITE_BEHIND", false)) {
+            WriteBehind wb = WriteBehind.fromConfig(conf, repo::writeBatch).start();
+            writeBehind = wb;
+            Runtime.getRuntime().addShutdownHook(new Thread(wb::close, "write-behind-drain")); // Ctrl+C
+            log.info("Running in memory with write-behind to PostgreSQL: " + dbUrl);
+            return new Market(repo, wb, conf.getInt("DB_LOAD_PARTITIONS", 4), offHeapStore());
         }
+        log.info("Running with PostgreSQL: " + dbUrl);
+        Market market = new Market(repo);
+        market.loadIndexes();
+        return market;
+    }
+
+    // PRICING_POLICY=vwap-band keeps repricing within a band around the 5 minute VWAP; default: scarcity only
+    private static Market withPricing(Market m) {
+        if ("vwap-band".equalsIgnoreCase(System.getenv("PRICING_POLICY"))) m.setPricingPolicy(PriceCalculator.VWAP_BAND);
+        return m;
+    }
+
+    private static Market fallbackToMemory(Throwable e) {
+        log.severe("Failed to initialize DB. Falling back to in-memory. Reason: " + e.getMessage());
+        return memoryMarket();
+    }
+
+    private static Market memoryMarket() {
+        OffHeapOfferStore offers = offHeapStore();
+        if (offers == null) return new Market();
+        log.info("Offers are kept off-heap (" + offers.size() + " re-mapped).");
+        return new Market(offers);
+    }
 
-        Console console = new Console(market, new java.util.Scanner(System.in));
-        console.start();
+    // OFFHEAP_OFFERS=true / OFFHEAP_FILE=path, see OffHeapOfferStore.fromConfig
+    private static OffHeapOfferStore offHeapStore() {
+        OffHeapOfferStore offers = OffHeapOfferStore.fromConfig(DbConfig.load());
+        offHeap = offers;
+        return offers;
     }
 }
@@ -2,80 +2,308 @@ package de.tub;
 
 import lombok.extern.java.Log;
 
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
-import java.math.BigDecimal;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @Log
-public class Market {
+public class Market implements AutoCloseable {
 
     private final List<ProductModel> models = new ArrayList<>();
+    private final Map<String, ProductModel> modelsByName = new HashMap<>(); // lower(name), in-memory mode only
+
+    // in-memory mode: immutable copy of models, republished after every change for lock-free readers
+    private final AtomicReference<CatalogSnapshot> catalog = new AtomicReference<>(CatalogSnapshot.EMPTY);
+
+    // lower(product name) -> offers sorted by price, in-memory mode only
+    private final Map<String, OrderBook> books = new HashMap<>();
+
+    // lower(product name) -> open bids, without DB mode only (DB mode matches against the bids table)
+    private final Map<String, BidBook> bidBooks = new HashMap<>();
+    private final AtomicLong bidSeq = new AtomicLong();
+    private final AtomicLong bidIds = new AtomicLong();
+
+    // lower(seller) -> lower(product name) -> the seller's offer, in-memory mode only (DB mode uses idx_offers_seller)
+    private record Listing(ProductModel model, ProductOffer offer) {}
+    private final Map<String, TreeMap<String, Listing>> offersBySeller = new HashMap<>();
+
+    // in-memory mode: maintained from the start; DB mode: rebuilt from the tables by loadIndexes()
+    private final CategoryFacets facets = new CategoryFacets();
+    private final Leaderboards leaderboards = new Leaderboards();
+    private boolean indexesLoaded;
+
+    private final MarketEventPublisher events = new MarketEventPublisher();
+
+    // client order id -> outcome of recent buys; DB mode also keeps them in client_orders
+    static final int ORDER_DEDUP_SIZE = 100_000;
+    static final Duration ORDER_DEDUP_WINDOW = Duration.ofHours(24);
+    private static final int ORDER_DEDUP_PURGE_EVERY = 1_000; // claims between purges of old client_orders rows
+    private final OrderDedup orders = new OrderDedup(ORDER_DEDUP_SIZE, ORDER_DEDUP_WINDOW);
+    private final AtomicLong orderClaims = new AtomicLong();
+
+    // open holds by id, both modes (DB mode loads them once from the holds table); the wheel releases expired ones,
+    // advanced every HOLD_TICK_MILLIS by the hold-expiry thread (startHoldExpiry), not by reads or trades
+    static final long HOLD_TICK_MILLIS = 100;
+    static final long HOLD_SWEEP_MILLIS = 10_000; // DB mode: how often the holds table is checked for expired holds of any instance
+    private record OpenHold(Hold hold, TimerWheel<Long>.Timer timer) {}
+    private final Map<Long, OpenHold> holds = new ConcurrentHashMap<>();
+    private final Map<String, Integer> heldUnits = new HashMap<>(); // offerKey, not in DB mode
+    private final AtomicLong holdIds = new AtomicLong();
+    private volatile TimerWheel<Long> holdWheel;
+    private long lastHoldSweep; // clock.millis() of the last check of the holds table
+    private ScheduledExecutorService holdExpiry;
+    private volatile Clock clock = Clock.systemUTC();
+
+    // without DB mode the models, books and indexes have one writer at a time: the caller's thread or the
+    // hold-expiry thread; DB mode leaves that to the database transactions
+    private final ReentrantLock writer = new ReentrantLock();
+
+    // not in DB mode: compressed trade prices per product and listed prices per offer (offerKey), for long-horizon reads
+    static final int PRICE_SERIES_MAX_POINTS = 1_000_000;
+    private final Map<String, PriceSeries> tradePrices = new HashMap<>();
+    private final Map<String, PriceSeries> offerPrices = new HashMap<>();
+
+    // lower(product name) -> VWAP/volatility/volume windows, both modes, fed by this process's trades
+    private final Map<String, RollingStats> rolling = new ConcurrentHashMap<>();
+    private volatile PriceCalculator.Policy pricing = PriceCalculator.SCARCITY;
+
+    // lower(product name) -> category, DB mode only, for event filtering
+    private final Map<String, String> categories = new ConcurrentHashMap<>();
+
+    /** One filled part of a market order: quantity bought from a seller at the listed price. */
+    public record Fill(String seller, int quantity, double price) {}
+
+    /** Optimistic buys in DB mode: transactions run, lost compare-and-sets, re-runs, given up after MAX_CAS_ATTEMPTS. */
+    public record ConcurrencyStats(long attempts, long conflicts, long retries, long exhausted) {
+        public double conflictRate() {
+            return attempts == 0 ? 0 : (double) conflicts / attempts;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "attempts=%d conflicts=%d (%.2f%%) retries=%d exhausted=%d",
+                    attempts, conflicts, 100 * conflictRate(), retries, exhausted);
+        }
+    }
+
+    // thrown inside a transaction when a compare-and-set update lost, rolls it back for a re-run
+    private static final class VersionConflict extends RuntimeException {
+        VersionConflict() { super("offer changed concurrently", null, false, false); }
+    }
+
+    static final int MAX_CAS_ATTEMPTS = 5;
+    private static final long CAS_BACKOFF_MICROS = 500; // first re-run waits up to this, doubling per attempt
+    private final LongAdder casAttempts = new LongAdder();
+    private final LongAdder casConflicts = new LongAdder();
+    private final LongAdder casRetries = new LongAdder();
+    private final LongAdder casExhausted = new LongAdder();
 
     private final JdbcMarketRepository repo;
 
-    public Market() { this.repo = null; }
+    // hybrid mode: the in-memory market is authoritative, offer changes and trades reach store via writeBehind
+    private final JdbcMarketRepository store;
+    private final WriteBehind writeBehind;
+
+    // not in DB mode, optional: prices and quantities of all offers live in its slabs, the models hold views
+    private OffHeapOfferStore offHeap;
+
+    public Market() { this.repo = null; this.store = null; this.writeBehind = null; this.indexesLoaded = true; }
+
+    public Market(JdbcMarketRepository repo) { this.repo = Objects.requireNonNull(repo); this.store = null; this.writeBehind = null; }
+
+    /** In-memory market over an already loaded catalog (for example CompactCatalog.models()), without a database. */
+    public Market(List<ProductModel> catalog) {
+        this();
+        hydrate(catalog);
+    }
+
+    /**
+     * In-memory market whose offers live in the off-heap store. A store re-mapped from its file
+     * brings back the products and offers it had, without a database.
+     */
+    public Market(OffHeapOfferStore offers) {
+        this();
+        this.offHeap = Objects.requireNonNull(offers);
+        hydrate(offers.models());
+    }
+
+    /**
+     * Hybrid mode: loads the catalog from store once, then serves reads and trades from memory.
+     * Offer changes and trades are written by writeBehind, at most its lag later; new products
+     * and logins still go to store directly. Bids stay in memory.
+     * @param loadPartitions key ranges read in parallel at startup (see JdbcMarketRepository.loadCatalog)
+     */
+    public Market(JdbcMarketRepository store, WriteBehind writeBehind, int loadPartitions) {
+        this(store, writeBehind, loadPartitions, null);
+    }
+
+    /** Hybrid mode with the loaded offers moved into offHeap (null: they stay on the heap). */
+    public Market(JdbcMarketRepository store, WriteBehind writeBehind, int loadPartitions, OffHeapOfferStore offHeap) {
+        this.repo = null;
+        this.store = Objects.requireNonNull(store);
+        this.writeBehind = Objects.requireNonNull(writeBehind);
+        this.offHeap = offHeap;
+
+        long start = System.nanoTime();
+        List<ProductModel> loaded = store.loadCatalog(loadPartitions);
+        long read = System.nanoTime();
+        hydrate(loaded);
+        for (Leaderboards.TradeStats t : store.loadTradeStats()) leaderboards.load(t);
+        this.indexesLoaded = true;
+        log.info(String.format(Locale.ROOT, "Catalog loaded: %d products, %d offers, %d partitions, read %d ms, indexed %d ms",
+                loaded.size(), loaded.stream().mapToInt(m -> m.getOffers().size()).sum(), loadPartitions,
+                (read - start) / 1_000_000, (System.nanoTime() - read) / 1_000_000));
+    }
+
+    // order books, snapshot entries and the seller index are built per product on the fork-join pool;
+    // facets and leaderboards are single-writer and get one pass afterwards
+    private void hydrate(List<ProductModel> loaded) {
+        record Built(ProductModel model, OrderBook book, CatalogSnapshot.Product entry) {}
+        if (offHeap != null) {
+            for (ProductModel m : loaded) m.getOffers().replaceAll(o -> stored(m, o));
+        }
+        List<Built> built = loaded.parallelStream()
+                .map(m -> new Built(m, new OrderBook(m.getOffers()), CatalogSnapshot.Product.of(m)))
+                .toList();
+        Map<String, TreeMap<String, Listing>> bySeller = loaded.parallelStream()
+                .flatMap(m -> m.getOffers().stream()
+                        .filter(o -> o.getSeller() != null)
+                        .map(o -> new Listing(m, o)))
+                .collect(Collectors.groupingBy(
+                        l -> l.offer().getSeller().toLowerCase(Locale.ROOT),
+                        Collectors.toMap(l -> key(l.model().getName()), l -> l, (a, b) -> b, TreeMap::new)));
 
-    public Market(JdbcMarketRepository repo) { this.repo = Objects.requireNonNull(repo); }
+        List<CatalogSnapshot.Product> entries = new ArrayList<>(built.size());
+        for (Built b : built) {
+            ProductModel m = b.model();
+            models.add(m);
+            modelsByName.put(key(m.getName()), m);
+            books.put(key(m.getName()), b.book());
+            entries.add(b.entry());
+            facets.addProduct(m.getName(), m.getCategory());
+            for (ProductOffer o : m.getOffers()) facets.offerChanged(m.getName(), o.getSeller(), o.getPrice(), o.getQuantity());
+            leaderboards.bestPriceChanged(m.getName(), m.getCategory(), facets.bestPrice(m.getName()));
+        }
+        offersBySeller.putAll(bySeller);
+        catalog.set(CatalogSnapshot.EMPTY.with(entries));
+    }
 
     private boolean isDbMode() { return repo != null; }
 
 
     public AuthorizedUsers login(String login, String password) {
-        if (!isDbMode()) return null;
-        return repo.authenticate(login, password);
+        JdbcMarketRepository users = isDbMode() ? repo : store;
+        if (users == null) return null;
+        return users.authenticate(login, password);
     }
 
 
     public void addProductModel(String id, String name, String category, int initialQuantity) {
+        FlightEvents.MarketOperation op = operation("addProductModel", name);
+        lockWriter();
+        try {
+            insertProductModel(id, name, category, initialQuantity);
+        } finally {
+            unlockWriter();
+            op.commit();
+        }
+    }
+
+    private void insertProductModel(String id, String name, String category, int initialQuantity) {
         if (isDbMode()) {
-            repo.upsertProduct(id, name, category);
-            if (initialQuantity > 0) {
-                repo.upsertOffer(id, "Stock", 10.0, initialQuantity);
-            }
+            repo.inTransaction(() -> {
+                long pid = repo.upsertProduct(id, name, category);
+                afterCommit(() -> {
+                    if (!indexesLoaded) return;
+                    facets.addProduct(name, category);
+                    leaderboards.bestPriceChanged(name, category, facets.bestPrice(name));
+                });
+                if (initialQuantity > 0) {
+                    ProductOffer stock = repo.upsertOffer(pid, "Stock", 10.0, initialQuantity);
+                    if (stock != null) emitOffer(name, category, stock);
+                }
+                return null;
+            });
             return;
         }
         // in-memory
         if (findModelByName(name) != null) return;
+        if (store != null) store.upsertProduct(id, name, category); // rows written behind need the product
         ProductModel m = ProductModel.builder()
                 .id(id).name(name).category(category)
                 .build();
+        if (offHeap != null) offHeap.product(id, name, category);
         if (initialQuantity > 0) {
-            m.addOffer(ProductOffer.builder()
+            ProductOffer stock = stored(m, ProductOffer.builder()
                     .seller("Stock").price(10.0).quantity(initialQuantity)
                     .priceHistory(new ArrayList<>(List.of(10.0)))
                     .build());
+            if (m.addOffer(stock)) indexOffer(m, stock);
         }
         models.add(m);
+        modelsByName.put(key(name), m);
+        publish(List.of(m));
+        facets.addProduct(name, category);
+        for (ProductOffer o : m.getOffers()) emitOffer(name, category, o);
     }
 
-    public List<ProductModel> listAllModels() {
-        if (isDbMode()) return repo.fetchAllModelsWithOffers();
-        return models;
+    /**
+     * Consistent point-in-time view of the whole catalog. Never changes after it is returned,
+     * so it can be iterated while trades go on. In DB mode it is read from the tables.
+     */
+    public CatalogSnapshot snapshot() {
+        FlightEvents.MarketOperation op = operation("snapshot", null);
+        try {
+            return takeSnapshot();
+        } finally {
+            op.commit();
+        }
     }
 
-    public List<ProductModel> searchModels(String query) {
-        if (isDbMode()) {
-            String q = (query == null ? "" : query.trim().toLowerCase());
-            List<ProductModel> all = repo.fetchAllModelsWithOffers();
-            if (q.isEmpty()) return all;
-            return all.stream()
-                    .filter(m -> m.getName().toLowerCase().contains(q) ||
-                                 m.getCategory().toLowerCase().contains(q))
-                    .toList();
-        }
-        String ql = query.toLowerCase();
-        return models.stream()
-                .filter(m -> m.getName().toLowerCase().contains(ql) ||
-                             m.getCategory().toLowerCase().contains(ql))
-                .toList();
+    private CatalogSnapshot takeSnapshot() {
+        if (isDbMode()) return CatalogSnapshot.of(repo.fetchAllModelsWithOffers());
+        return catalog.get();
+    }
+
+    // called by the writer after it finished changing the models
+    private void publish(List<ProductModel> changed) {
+        List<CatalogSnapshot.Product> next = changed.stream().map(CatalogSnapshot.Product::of).toList();
+        catalog.updateAndGet(c -> c.with(next));
+    }
+
+    /** All products of the current snapshot(), not the live models. */
+    public List<CatalogSnapshot.Product> listAllModels() {
+        return snapshot().products();
+    }
+
+    /** Products of the current snapshot() whose name or category contains query, case-insensitive. */
+    public List<CatalogSnapshot.Product> searchModels(String query) {
+        return snapshot().search(query);
     }
 
     public ProductModel findModelByName(String name) {
         if (isDbMode()) return repo.findModelByNameWithOffers(name);
-        return models.stream()
-                .filter(m -> m.getName().equalsIgnoreCase(name))
-                .findFirst().orElse(null);
+        return name == null ? null : modelsByName.get(key(name));
     }
 
     public ProductOffer getOffer(String productName, String seller) {
@@ -87,19 +315,348 @@ public class Market {
                 .findFirst().orElse(null);
     }
 
+    /** Push updates of offer prices/quantities and trades, optionally filtered by product, category or seller. */
+    public void subscribe(Flow.Subscriber<? super MarketEvent> subscriber, MarketEventPublisher.Filter filter) {
+        events.subscribe(subscriber, filter);
+    }
+
+    public Flow.Publisher<MarketEvent> events() {
+        return events;
+    }
+
+    /** Number of products per category, total and in stock. */
+    public Map<String, CategoryFacets.Count> categoryCounts() {
+        return indexes().counts();
+    }
+
+    public int countMatching(CategoryFacets.Query query) {
+        return indexes().count(query);
+    }
+
+    /** Products matching the facet filter (category, in stock, price band of the best offer), one page. */
+    public List<ProductModel> browse(CategoryFacets.Query query, int offset, int limit) {
+        if (limit <= 0) return List.of();
+        List<String> names = indexes().browse(query, Math.max(0, offset), limit);
+        if (!isDbMode()) return names.stream().map(this::findModelByName).toList();
+        return repo.withConnection(() -> names.stream()
+                .map(repo::findModelByNameWithOffers)
+                .filter(Objects::nonNull)
+                .toList());
+    }
+
+    /** Cheapest in-stock products of the category (value = best offer price). */
+    public List<Leaderboards.Entry> cheapestInCategory(String category, int n) {
+        indexes();
+        return leaderboards.cheapest(category, n);
+    }
+
+    /** Biggest price moves since the first recorded trade (value = relative change). */
+    public List<Leaderboards.Entry> topMovers(int n) {
+        indexes();
+        return leaderboards.topMovers(n);
+    }
+
+    /** Products with the most trades (value = number of trades). */
+    public List<Leaderboards.Entry> mostTraded(int n) {
+        indexes();
+        return leaderboards.mostTraded(n);
+    }
+
+    /**
+     * Builds the facet index and the leaderboards from the catalog and price_history.
+     * Called once at startup in DB mode; otherwise happens on the first browse/leaderboard read.
+     */
+    public void loadIndexes() {
+        if (indexesLoaded) return;
+        CompactCatalog c = repo.fetchCompactCatalog();
+        for (int p = 0; p < c.size(); p++) {
+            facets.addProduct(c.name(p), c.category(p));
+            for (int i = 0; i < c.offerCount(p); i++) {
+                offerIndexed(c.name(p), c.seller(p, i), c.price(p, i), c.quantity(p, i));
+            }
+        }
+        for (Leaderboards.TradeStats t : repo.loadTradeStats()) leaderboards.load(t);
+        indexesLoaded = true;
+    }
+
+    private CategoryFacets indexes() {
+        loadIndexes();
+        return facets;
+    }
+
+    private void offerIndexed(String product, String seller, double price, int qty) {
+        facets.offerChanged(product, seller, price, qty);
+        leaderboards.bestPriceChanged(product, facets.categoryOf(product), facets.bestPrice(product));
+    }
+
+    // in DB mode after the commit, so a rollback never leaves events or indexes ahead of the tables
+    private void afterCommit(Runnable r) {
+        if (isDbMode()) repo.afterCommit(r);
+        else r.run();
+    }
+
+    // never blocks on subscribers
+    private void emit(Supplier<MarketEvent> event) {
+        if (!events.hasSubscribers()) return;
+        afterCommit(() -> events.publish(event.get()));
+    }
+
+    private void emitOffer(String product, String category, ProductOffer o) {
+        String seller = o.getSeller();
+        double price = o.getPrice();
+        int qty = o.getQuantity();
+        afterCommit(() -> { if (indexesLoaded) offerIndexed(product, seller, price, qty); });
+        // the table keeps held units in the offer, so holds lost with the process do not lose stock
+        if (writeBehind != null) writeBehind.offerChanged(new WriteBehind.OfferState(product, seller, price, qty + heldUnits.getOrDefault(offerKey(product, seller), 0)));
+        emit(() -> new MarketEvent.OfferChanged(product, category != null ? category : categoryOf(product), seller, price, qty));
+    }
+
+    private void emitTrade(String product, String category, String seller, int qty, double price) {
+        afterCommit(() -> {
+            if (indexesLoaded) leaderboards.trade(product, price);
+            rolling.computeIfAbsent(key(product), k -> new RollingStats()).trade(clock.millis(), price, qty);
+        });
+        if (writeBehind != null) writeBehind.trade(new WriteBehind.Trade(product, price, clock.instant()));
+        emit(() -> new MarketEvent.Trade(product, category != null ? category : categoryOf(product), seller, qty, price));
+    }
+
+    private String categoryOf(String productName) {
+        if (!isDbMode()) {
+            ProductModel m = findModelByName(productName);
+            return m == null ? null : m.getCategory();
+        }
+        String c = categories.get(key(productName));
+        if (c == null) {
+            c = repo.findCategoryByName(productName);
+            if (c != null) categories.put(key(productName), c);
+        }
+        return c;
+    }
+
+    private static String key(String productName) {
+        return productName.toLowerCase(Locale.ROOT);
+    }
+
+    private OrderBook bookOf(ProductModel model) {
+        return books.computeIfAbsent(key(model.getName()), k -> new OrderBook(model.getOffers()));
+    }
+
+    private BidBook bidBookOf(String productName) {
+        return bidBooks.computeIfAbsent(key(productName), k -> new BidBook());
+    }
+
+    /**
+     * Places a resting buy order. It is matched right away against offers at or below limitPrice,
+     * the rest waits until an offer update crosses it.
+     * @return the bid with its still open quantity, or null if the product does not exist
+     */
+    public Bid placeBid(String productName, String buyer, int qty, double limitPrice) {
+        FlightEvents.MarketOperation op = operation("placeBid", productName);
+        lockWriter();
+        try {
+            return addBid(productName, buyer, qty, limitPrice);
+        } finally {
+            unlockWriter();
+            op.commit();
+        }
+    }
+
+    private Bid addBid(String productName, String buyer, int qty, double limitPrice) {
+        if (qty <= 0 || limitPrice <= 0) return null;
+
+        if (isDbMode()) {
+            long id = repo.insertBid(productName, buyer, limitPrice, qty);
+            if (id == ProductIdCache.MISSING) return null;
+            matchBids(productName);
+            return Bid.builder()
+                    .id(id).product(productName).buyer(buyer)
+                    .limitPrice(limitPrice).quantity(repo.bidQuantity(id))
+                    .build();
+        }
+        if (findModelByName(productName) == null) return null;
+        Bid bid = Bid.builder()
+                .id(bidIds.incrementAndGet()).product(productName).buyer(buyer)
+                .limitPrice(limitPrice).quantity(qty)
+                .seq(bidSeq.incrementAndGet())
+                .build();
+        bidBookOf(productName).add(bid);
+        matchBids(productName);
+        return bid;
+    }
+
+    public boolean cancelBid(long bidId) {
+        if (isDbMode()) return repo.cancelBid(bidId);
+        lockWriter();
+        try {
+            for (BidBook b : bidBooks.values()) {
+                if (b.remove(bidId)) return true;
+            }
+            return false;
+        } finally {
+            unlockWriter();
+        }
+    }
+
+    /** Open bids for the product, best first. */
+    public List<Bid> listBids(String productName) {
+        if (isDbMode()) return repo.openBids(productName);
+        BidBook b = bidBooks.get(key(productName));
+        return b == null ? List.of() : b.list();
+    }
+
+    // runs only when the ask side got cheaper or larger; trades only raise prices, so they never create a cross
+    private void matchBids(String productName) {
+        if (isDbMode()) {
+            matchStoredBids(productName);
+            return;
+        }
+        BidBook bids = bidBooks.get(key(productName));
+        if (bids == null || bids.isEmpty()) return;
+        while (true) {
+            Bid bid = bids.best();
+            if (bid == null) return;
+            ProductOffer ask = getBestOffer(productName);
+            if (ask == null || ask.getPrice() > bid.getLimitPrice()) return;
+            int take = Math.min(bid.getQuantity(), ask.getQuantity());
+            if (!fillBid(bid, ask.getSeller(), take)) return;
+        }
+    }
+
+    private boolean fillBid(Bid bid, String seller, int qty) {
+        if (!buyFromOffer(bid.getProduct(), seller, qty)) return false;
+        bid.setQuantity(bid.getQuantity() - qty);
+        bidBookOf(bid.getProduct()).filled(bid);
+        return true;
+    }
+
+    // DB mode: the bids are read from the table on every offer change, so a restock or price cut of any
+    // instance crosses the bids of all instances; the bid row stays locked until the fill commits
+    private void matchStoredBids(String productName) {
+        boolean filled;
+        do {
+            filled = optimistic(false, () -> repo.inTransaction(() -> {
+                Bid bid = repo.lockBestBid(productName);
+                if (bid == null) return false;
+                ProductOffer ask = getBestOffer(productName);
+                if (ask == null || ask.getPrice() > bid.getLimitPrice()) return false;
+                int take = Math.min(bid.getQuantity(), ask.getQuantity());
+                if (!buyFromOffer(productName, ask.getSeller(), take)) return false;
+                repo.fillBid(bid.getId(), take);
+                return true;
+            }));
+        } while (filled);
+    }
+
+    /** Cheapest offer with stock for the product, or null. */
+    public ProductOffer getBestOffer(String productName) {
+        if (isDbMode()) return repo.getBestOffer(productName);
+        ProductModel model = findModelByName(productName);
+        if (model == null) return null;
+        return bookOf(model).best();
+    }
+
+    /**
+     * Buys qty units from the cheapest offers across sellers.
+     * All or nothing: if the product has less than qty in stock nothing is bought.
+     * Each touched offer is repriced with the pricing policy like a single buy.
+     * @return fills in execution order, empty if the order was not executed
+     */
+    public List<Fill> marketBuy(String productName, int qty) {
+        FlightEvents.MarketOperation op = operation("marketBuy", productName);
+        lockWriter();
+        try {
+            return sweep(productName, qty);
+        } finally {
+            unlockWriter();
+            op.commit();
+        }
+    }
+
+    private List<Fill> sweep(String productName, int qty) {
+        if (qty <= 0) return List.of();
+
+        if (isDbMode()) {
+            return optimistic(List.of(), () -> repo.inTransaction(() -> {
+                List<ProductOffer> asks = repo.cheapestOffers(productName, qty);
+                int available = repo.getTotalAvailableForProduct(productName);
+                if (asks.stream().mapToInt(ProductOffer::getQuantity).sum() < qty) return List.of();
+
+                List<Fill> fills = new ArrayList<>();
+                int remaining = qty;
+                for (ProductOffer o : asks) {
+                    int take = Math.min(remaining, o.getQuantity());
+                    available -= take;
+                    double newPrice = reprice(productName, o.getPrice(), take, available);
+                    if (!repo.buyFromOffer(productName, o.getSeller(), take, o.getPrice(), newPrice, o.getVersion())) {
+                        throw new VersionConflict(); // undoes the fills before it, all or nothing
+                    }
+                    emitTrade(productName, null, o.getSeller(), take, o.getPrice());
+                    emitOffer(productName, null, ProductOffer.builder()
+                            .seller(o.getSeller()).price(newPrice).quantity(o.getQuantity() - take).build());
+                    fills.add(new Fill(o.getSeller(), take, o.getPrice()));
+                    remaining -= take;
+                    if (remaining == 0) break;
+                }
+                return fills;
+            }));
+        }
+
+        ProductModel model = findModelByName(productName);
+        if (model == null) return List.of();
+        OrderBook book = bookOf(model);
+        if (book.totalQuantity() < qty) return List.of();
+
+        List<Fill> fills = new ArrayList<>();
+        int remaining = qty;
+        for (ProductOffer o : book.cheapest(qty)) {
+            int take = Math.min(remaining, o.getQuantity());
+            double executionPrice = o.getPrice();
+            int availableAfter = book.totalQuantity() - take;
+            o.setQuantity(o.getQuantity() - take);
+            double newPrice = reprice(productName, executionPrice, take, availableAfter);
+            o.setPrice(newPrice);
+            recordTrade(model, o, take, executionPrice, newPrice);
+            book.update(o);
+            fills.add(new Fill(o.getSeller(), take, executionPrice));
+            remaining -= take;
+        }
+        publish(List.of(model));
+        return fills;
+    }
+
     public boolean buyFromOffer(String productName, String seller, int qty) {
+        FlightEvents.MarketOperation op = operation("buyFromOffer", productName);
+        lockWriter();
+        try {
+            return buy(productName, seller, qty);
+        } finally {
+            unlockWriter();
+            op.commit();
+        }
+    }
+
+    private boolean buy(String productName, String seller, int qty) {
         if (qty <= 0) return false;
 
         if (isDbMode()) {
-            ProductOffer offer = repo.getOffer(productName, seller);
-            if (offer == null || offer.getQuantity() < qty) return false;
+            // one transaction for the read + write of the trade; the write is a CAS on the version read here
+            return optimistic(false, () -> repo.inTransaction(() -> {
+                ProductOffer offer = repo.getOffer(productName, seller);
+                if (offer == null || offer.getQuantity() < qty) return false;
 
-            BigDecimal executionPrice = offer.getPrice();
-            int totalBefore = repo.getTotalAvailableForProduct(productName);
-            int availableAfter = totalBefore - qty;
-            double newListedPrice = PriceCalculator.calculateNewPrice(executionPrice, qty, availableAfter);
+                double executionPrice = offer.getPrice();
+                int totalBefore = repo.getTotalAvailableForProduct(productName);
+                int availableAfter = totalBefore - qty;
+                double newListedPrice = reprice(productName, executionPrice, qty, availableAfter);
 
-            return repo.buyFromOffer(productName, seller, qty, executionPrice, newListedPrice);
+                if (!repo.buyFromOffer(productName, seller, qty, executionPrice, newListedPrice, offer.getVersion())) {
+                    throw new VersionConflict();
+                }
+                emitTrade(productName, null, offer.getSeller(), qty, executionPrice);
+                emitOffer(productName, null, ProductOffer.builder()
+                        .seller(offer.getSeller()).price(newListedPrice).quantity(offer.getQuantity() - qty).build());
+                return true;
+            }));
         }
 
         ProductModel model = findModelByName(productName);
@@ -110,13 +667,363 @@ public class Market {
                 .findFirst().orElse(null);
         if (offer == null || offer.getQuantity() < qty) return false;
 
+        OrderBook book = bookOf(model);
         double executionPrice = offer.getPrice();
+        int availableAfter = book.totalQuantity() - qty;
         offer.setQuantity(offer.getQuantity() - qty);
 
-        int availableAfter = model.getOffers().stream().mapToInt(ProductOffer::getQuantity).sum();
-        double newPrice = PriceCalculator.calculateNewPrice(executionPrice, qty, availableAfter);
+        double newPrice = reprice(productName, executionPrice, qty, availableAfter);
         offer.setPrice(newPrice);
+        recordTrade(model, offer, qty, executionPrice, newPrice);
+        book.update(offer);
+        publish(List.of(model));
+        return true;
+    }
+
+    /**
+     * Like buyFromOffer, but a retry with the same clientOrderId returns the first outcome without
+     * trading again (ids are kept for ORDER_DEDUP_WINDOW). In DB mode the id is stored in client_orders
+     * in the trade's transaction, so it also holds across restarts and instances.
+     * Reusing an id for a different order fails.
+     */
+    public boolean buyFromOffer(String productName, String seller, int qty, String clientOrderId) {
+        if (clientOrderId == null || clientOrderId.isBlank()) return buyFromOffer(productName, seller, qty);
+
+        OrderDedup.Order order = orders.get(clientOrderId);
+        if (order == null && isDbMode()) {
+            if (orderClaims.getAndIncrement() % ORDER_DEDUP_PURGE_EVERY == 0) {
+                repo.purgeClientOrders(ORDER_DEDUP_WINDOW.toMillis());
+            }
+            order = optimistic(null, () -> repo.inTransaction(() -> {
+                OrderDedup.Order prior = repo.claimClientOrder(clientOrderId, productName, seller, qty);
+                if (prior != null) return prior;
+                boolean filled = buyFromOffer(productName, seller, qty); // joins this transaction
+                if (filled) repo.completeClientOrder(clientOrderId);
+                return new OrderDedup.Order(productName, seller, qty, filled);
+            }));
+            if (order == null) return false; // gave up on conflicts, the id stays unclaimed
+            orders.put(clientOrderId, order);
+        } else if (order == null) {
+            order = new OrderDedup.Order(productName, seller, qty, buyFromOffer(productName, seller, qty));
+            orders.put(clientOrderId, order);
+        }
+
+        if (!order.sameAs(productName, seller, qty)) {
+            log.warning("Client order id " + clientOrderId + " was already used for another order.");
+            return false;
+        }
+        return order.filled();
+    }
+
+    /**
+     * Puts qty units of the seller's offer aside for buyer at the offer's current price, for ttl.
+     * Until confirmHold or releaseHold they are out of the offer's quantity, so nobody else can buy
+     * them and getAvailableQuantity does not count them. After ttl they go back to the offer.
+     * @return the hold, or null if the offer does not exist or has fewer than qty units
+     */
+    public Hold hold(String productName, String seller, String buyer, int qty, Duration ttl) {
+        FlightEvents.MarketOperation op = operation("hold", productName);
+        lockWriter();
+        try {
+            return putAside(productName, seller, buyer, qty, ttl);
+        } finally {
+            unlockWriter();
+            op.commit();
+        }
+    }
+
+    private Hold putAside(String productName, String seller, String buyer, int qty, Duration ttl) {
+        if (qty <= 0 || ttl == null || ttl.isNegative() || ttl.isZero()) return null;
+        holdWheel();
+        Instant expiresAt = clock.instant().plus(ttl);
+
+        if (isDbMode()) {
+            Hold h = repo.inTransaction(() -> {
+                Hold stored = repo.insertHold(productName, seller, buyer, qty, expiresAt);
+                if (stored == null) return null;
+                ProductOffer left = repo.getOffer(stored.product(), stored.seller());
+                if (left != null) emitOffer(stored.product(), null, left);
+                return stored;
+            });
+            if (h != null) track(h);
+            return h;
+        }
+
+        ProductModel model = findModelByName(productName);
+        ProductOffer offer = model == null ? null : offerOf(model, seller);
+        if (offer == null || offer.getQuantity() < qty) return null;
+        Hold h = new Hold(holdIds.incrementAndGet(), model.getName(), offer.getSeller(), buyer, qty, offer.getPrice(), expiresAt);
+        heldUnits.merge(offerKey(h.product(), h.seller()), qty, Integer::sum);
+        offer.setQuantity(offer.getQuantity() - qty);
+        bookOf(model).update(offer);
+        publish(List.of(model));
+        emitOffer(model.getName(), model.getCategory(), offer);
+        track(h);
+        return h;
+    }
+
+    /**
+     * Buys the held units at the price they were held at; the offer is repriced with the pricing policy
+     * like after buyFromOffer.
+     * @return false if the hold does not exist (any more): confirmed, released or expired
+     */
+    public boolean confirmHold(long holdId) {
+        FlightEvents.MarketOperation op = operation("confirmHold", null);
+        lockWriter();
+        try {
+            return buyHeld(holdId);
+        } finally {
+            unlockWriter();
+            op.commit();
+        }
+    }
+
+    private boolean buyHeld(long holdId) {
+        holdWheel();
+
+        if (isDbMode()) {
+            boolean ok = optimistic(false, () -> repo.inTransaction(() -> {
+                Hold h = repo.deleteHold(holdId);
+                if (h == null) return false;
+                ProductOffer offer = repo.getOffer(h.product(), h.seller());
+                if (offer == null) return false;
+                int available = repo.getTotalAvailableForProduct(h.product());
+                double newPrice = reprice(h.product(), h.price(), h.quantity(), available);
+                if (!repo.sellHeld(h.product(), h.seller(), h.price(), newPrice, offer.getVersion())) {
+                    throw new VersionConflict();
+                }
+                emitTrade(h.product(), null, h.seller(), h.quantity(), h.price());
+                emitOffer(h.product(), null, ProductOffer.builder()
+                        .seller(h.seller()).price(newPrice).quantity(offer.getQuantity()).build());
+                return true;
+            }));
+            if (ok) untrack(holdId);
+            return ok;
+        }
+
+        Hold h = untrack(holdId);
+        if (h == null) return false;
+        ProductModel model = findModelByName(h.product());
+        ProductOffer offer = offerOf(model, h.seller());
+        OrderBook book = bookOf(model);
+        double newPrice = reprice(h.product(), h.price(), h.quantity(), book.totalQuantity());
+        offer.setPrice(newPrice);
+        recordTrade(model, offer, h.quantity(), h.price(), newPrice);
+        book.update(offer);
+        publish(List.of(model));
+        return true;
+    }
+
+    /**
+     * Gives the held units back to the offer, where they can cross resting bids.
+     * @return false if the hold does not exist (any more)
+     */
+    public boolean releaseHold(long holdId) {
+        FlightEvents.MarketOperation op = operation("releaseHold", null);
+        lockWriter();
+        try {
+            return giveBack(holdId);
+        } finally {
+            unlockWriter();
+            op.commit();
+        }
+    }
+
+    private boolean giveBack(long holdId) {
+        holdWheel();
+        if (isDbMode()) {
+            untrack(holdId);
+            SellerOffer back = repo.releaseHold(holdId);
+            if (back == null) return false;
+            emitOffer(back.product(), back.category(), back.offer());
+            matchBids(back.product());
+            return true;
+        }
+
+        Hold h = untrack(holdId);
+        if (h == null) return false;
+        ProductModel model = findModelByName(h.product());
+        ProductOffer offer = offerOf(model, h.seller());
+        offer.setQuantity(offer.getQuantity() + h.quantity());
+        bookOf(model).update(offer);
+        publish(List.of(model));
+        emitOffer(model.getName(), model.getCategory(), offer);
+        matchBids(h.product());
+        return true;
+    }
+
+    /**
+     * Starts the hold-expiry daemon: every HOLD_TICK_MILLIS it calls expireHolds, so expired holds give
+     * their stock back without any read or trade paying for it. Stopped by close().
+     */
+    public synchronized Market startHoldExpiry() {
+        if (holdExpiry != null) return this;
+        holdExpiry = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "hold-expiry");
+            t.setDaemon(true);
+            return t;
+        });
+        holdExpiry.scheduleWithFixedDelay(this::expireTick, HOLD_TICK_MILLIS, HOLD_TICK_MILLIS, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    private void expireTick() {
+        try {
+            expireHolds();
+        } catch (RuntimeException e) {
+            log.warning("Hold expiry failed: " + e.getMessage());
+        }
+    }
+
+    /** Stops the hold-expiry daemon. */
+    @Override
+    public synchronized void close() {
+        if (holdExpiry != null) holdExpiry.shutdownNow();
+    }
+
+    /**
+     * Releases the holds whose time is up; called by the hold-expiry daemon (startHoldExpiry).
+     * The wheel walks one slot per HOLD_TICK_MILLIS that passed, not all holds. In DB mode the holds table
+     * is also checked every HOLD_SWEEP_MILLIS, so holds of other or stopped instances are released too.
+     * @return number of holds released
+     */
+    public int expireHolds() {
+        // a rollback of the caller's transaction would leave the hold in the table without a timer
+        if (isDbMode() && repo.isTransactionActive()) throw new IllegalStateException("expireHolds inside a transaction");
+        TimerWheel<Long> wheel = isDbMode() ? holdWheel() : holdWheel; // DB mode may have holds from before a restart
+        if (wheel == null) return 0;
+        lockWriter();
+        try {
+            List<Long> due = new ArrayList<>();
+            long now = clock.millis();
+            wheel.advance(now, due::add);
+            if (isDbMode() && now - lastHoldSweep >= HOLD_SWEEP_MILLIS) {
+                lastHoldSweep = now;
+                for (long id : repo.expiredHoldIds(clock.instant())) {
+                    if (!due.contains(id)) due.add(id);
+                }
+            }
+            int released = 0;
+            for (long id : due) {
+                if (releaseHold(id)) released++;
+            }
+            return released;
+        } finally {
+            unlockWriter();
+        }
+    }
+
+    private void lockWriter() {
+        if (!isDbMode()) writer.lock();
+    }
+
+    private void unlockWriter() {
+        if (!isDbMode()) writer.unlock();
+    }
+
+    // for tests
+    void setClock(Clock clock) {
+        this.clock = Objects.requireNonNull(clock);
+    }
+
+    private synchronized TimerWheel<Long> holdWheel() {
+        if (holdWheel != null) return holdWheel;
+        holdWheel = new TimerWheel<>(HOLD_TICK_MILLIS, clock.millis());
+        if (isDbMode()) {
+            for (Hold h : repo.loadHolds()) track(h); // expired ones are released on the next tick
+        }
+        return holdWheel;
+    }
+
+    private void track(Hold h) {
+        holds.put(h.id(), new OpenHold(h, holdWheel.schedule(h.id(), h.expiresAt().toEpochMilli())));
+    }
+
+    // removes the hold and its timer, null if it was not open
+    private Hold untrack(long holdId) {
+        OpenHold open = holds.remove(holdId);
+        if (open == null) return null;
+        open.timer().cancel();
+        Hold h = open.hold();
+        if (!isDbMode()) heldUnits.computeIfPresent(offerKey(h.product(), h.seller()), (k, n) -> n == h.quantity() ? null : n - h.quantity());
+        return h;
+    }
+
+    // lower(product)/lower(seller)
+    private static String offerKey(String product, String seller) {
+        return key(product) + '\0' + seller.toLowerCase(Locale.ROOT);
+    }
+
+    private static ProductOffer offerOf(ProductModel model, String seller) {
+        return model.getOffers().stream()
+                .filter(o -> o.getSeller() != null && o.getSeller().equalsIgnoreCase(seller))
+                .findFirst().orElse(null);
+    }
+
+    /**
+     * Runs a DB transaction that throws VersionConflict when one of its compare-and-sets lost,
+     * again after a jittered exponential backoff, at most MAX_CAS_ATTEMPTS times.
+     * Inside an outer transaction the conflict is passed up: only the outermost one can be re-run.
+     * @return the result, or onExhausted if every attempt conflicted
+     */
+    private <T> T optimistic(T onExhausted, Supplier<T> transaction) {
+        if (repo.isTransactionActive()) return transaction.get();
+        for (int attempt = 1; ; attempt++) {
+            casAttempts.increment();
+            try {
+                return transaction.get();
+            } catch (VersionConflict e) {
+                casConflicts.increment();
+                if (attempt == MAX_CAS_ATTEMPTS) {
+                    casExhausted.increment();
+                    log.warning("Giving up after " + attempt + " concurrent offer changes.");
+                    return onExhausted;
+                }
+                casRetries.increment();
+                // full jitter: competing buyers of the same offer spread out instead of colliding again
+                long bound = CAS_BACKOFF_MICROS << (attempt - 1);
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(ThreadLocalRandom.current().nextLong(bound + 1)));
+            }
+        }
+    }
+
+    /** Volume, VWAP and volatility of the product's trades in the window; EMPTY before the first trade. */
+    public RollingStats.Snapshot rollingStats(String productName, RollingStats.Window window) {
+        RollingStats r = rolling.get(key(productName));
+        return r == null ? RollingStats.Snapshot.EMPTY : r.stats(window, clock.millis());
+    }
+
+    /** How offers are repriced after buys, PriceCalculator.SCARCITY unless set. */
+    public void setPricingPolicy(PriceCalculator.Policy policy) {
+        this.pricing = Objects.requireNonNull(policy);
+    }
 
+    private double reprice(String productName, double executionPrice, int bought, int availableAfter) {
+        FlightEvents.Pricing event = new FlightEvents.Pricing();
+        event.begin();
+        double newPrice = pricing.newPrice(executionPrice, bought, availableAfter, rollingStats(productName, RollingStats.Window.FIVE_MINUTES));
+        event.end();
+        if (event.shouldCommit()) {
+            event.product = productName;
+            event.quantity = bought;
+            event.availableAfter = availableAfter;
+            event.commit();
+        }
+        return newPrice;
+    }
+
+    // started MarketOperation event, committed by the caller when the operation returns
+    private static FlightEvents.MarketOperation operation(String name, String productName) {
+        FlightEvents.MarketOperation op = new FlightEvents.MarketOperation(name, productName);
+        op.begin();
+        return op;
+    }
+
+    public ConcurrencyStats concurrencyStats() {
+        return new ConcurrencyStats(casAttempts.sum(), casConflicts.sum(), casRetries.sum(), casExhausted.sum());
+    }
+
+    private void recordTrade(ProductModel model, ProductOffer offer, int qty, double executionPrice, double newPrice) {
         List<Double> ph = model.getPriceHistory();
         if (ph == null) ph = new ArrayList<>();
         ph.add(executionPrice);
@@ -128,17 +1035,37 @@ public class Market {
         if (oh.size() >= 3) oh.remove(0);
         oh.add(newPrice);
         offer.setPriceHistory(oh);
+        appendPrice(tradePrices, key(model.getName()), executionPrice);
+        appendPrice(offerPrices, offerKey(model.getName(), offer.getSeller()), newPrice);
 
-        return true;
+        emitTrade(model.getName(), model.getCategory(), offer.getSeller(), qty, executionPrice);
+        emitOffer(model.getName(), model.getCategory(), offer);
     }
 
     public boolean updateOffer(String productName, String seller, int addedQuantity, double newPrice) {
+        FlightEvents.MarketOperation op = operation("updateOffer", productName);
+        lockWriter();
+        try {
+            boolean ok = changeOffer(productName, seller, addedQuantity, newPrice);
+            if (ok) matchBids(productName);
+            return ok;
+        } finally {
+            unlockWriter();
+            op.commit();
+        }
+    }
+
+    private boolean changeOffer(String productName, String seller, int addedQuantity, double newPrice) {
         if (isDbMode()) {
-            String id = repo.findProductIdByName(productName);
-            if (id == null) { log.warning("Product not found: " + productName); return false; }
             if (addedQuantity <= 0) { log.warning("Quantity must be positive."); return false; }
-            repo.upsertOffer(id, seller, newPrice, addedQuantity);
-            return true;
+            return repo.withConnection(() -> {
+                long id = repo.findProductIdByName(productName);
+                if (id == ProductIdCache.MISSING) { log.warning("Product not found: " + productName); return false; }
+                ProductOffer stored = repo.upsertOffer(id, seller, newPrice, addedQuantity);
+                if (stored == null) { log.warning("Unknown seller: " + seller); return false; }
+                emitOffer(productName, null, stored);
+                return true;
+            });
         }
 
         // ---- in-memory fallback ----
@@ -156,26 +1083,170 @@ public class Market {
             }
             existing.setQuantity(existing.getQuantity() + addedQuantity);
             existing.setPrice(newPrice);
-            updatePriceHistory(existing, newPrice);
+            updatePriceHistory(model, existing, newPrice);
+            bookOf(model).update(existing);
+            publish(List.of(model));
+            emitOffer(model.getName(), model.getCategory(), existing);
             return true;
         } else {
             if (addedQuantity <= 0) return false;
-            return model.addOffer(ProductOffer.builder()
+            ProductOffer offer = stored(model, ProductOffer.builder()
                     .seller(seller).price(newPrice).quantity(addedQuantity)
                     .priceHistory(new ArrayList<>(List.of(newPrice))).build());
+            if (!model.addOffer(offer)) return false;
+            bookOf(model).update(offer);
+            indexOffer(model, offer);
+            appendPrice(offerPrices, offerKey(model.getName(), seller), newPrice);
+            publish(List.of(model));
+            emitOffer(model.getName(), model.getCategory(), offer);
+            return true;
         }
     }
 
     public boolean addOfferToExistingProduct(String productName, ProductOffer offer) {
+        FlightEvents.MarketOperation op = operation("addOfferToExistingProduct", productName);
+        lockWriter();
+        try {
+            boolean ok = putOffer(productName, offer);
+            if (ok) matchBids(productName);
+            return ok;
+        } finally {
+            unlockWriter();
+            op.commit();
+        }
+    }
+
+    private boolean putOffer(String productName, ProductOffer offer) {
         if (isDbMode()) {
-            String id = repo.findProductIdByName(productName);
-            if (id == null) return false;
-            repo.upsertOffer(id, offer.getSeller(), offer.getPrice(), offer.getQuantity());
-            return true;
+            return repo.withConnection(() -> {
+                long id = repo.findProductIdByName(productName);
+                if (id == ProductIdCache.MISSING) return false;
+                ProductOffer stored = repo.upsertOffer(id, offer.getSeller(), offer.getPrice(), offer.getQuantity());
+                if (stored == null) return false; // seller has no account
+                emitOffer(productName, null, stored);
+                return true;
+            });
         }
         ProductModel model = findModelByName(productName);
-        if (model == null) return false;
-        return model.addOffer(offer);
+        if (model == null || model.hasOffer(offer.getSeller())) return false;
+        ProductOffer kept = stored(model, offer);
+        if (!model.addOffer(kept)) return false;
+        bookOf(model).update(kept);
+        indexOffer(model, kept);
+        appendPrice(offerPrices, offerKey(model.getName(), kept.getSeller()), kept.getPrice());
+        publish(List.of(model));
+        emitOffer(model.getName(), model.getCategory(), kept);
+        return true;
+    }
+
+    // the offer to keep in the model: a view on its off-heap slot if there is a store
+    private ProductOffer stored(ProductModel model, ProductOffer offer) {
+        if (offHeap == null || offer.getSeller() == null) return offer;
+        return offHeap.offer(model, offer);
+    }
+
+    private void indexOffer(ProductModel model, ProductOffer offer) {
+        if (offer.getSeller() == null) return;
+        offersBySeller.computeIfAbsent(offer.getSeller().toLowerCase(Locale.ROOT), k -> new TreeMap<>())
+                .put(key(model.getName()), new Listing(model, offer));
+    }
+
+    /**
+     * Offers of one seller ordered by product name, one page at a time.
+     * @param offset number of offers to skip
+     * @param limit  page size
+     */
+    public List<SellerOffer> listOffersBySeller(String seller, int offset, int limit) {
+        if (seller == null || limit <= 0) return List.of();
+        if (isDbMode()) return repo.listOffersBySeller(seller, Math.max(0, offset), limit);
+
+        TreeMap<String, Listing> own = offersBySeller.get(seller.toLowerCase(Locale.ROOT));
+        if (own == null) return List.of();
+        return own.values().stream()
+                .skip(Math.max(0, offset))
+                .limit(limit)
+                .map(l -> new SellerOffer(l.model().getName(), l.model().getCategory(), l.offer()))
+                .toList();
+    }
+
+    /**
+     * Adds addedQuantity to every offer of the seller (one UPDATE in DB mode).
+     * @return number of offers restocked
+     */
+    public int restockAllOffers(String seller, int addedQuantity) {
+        FlightEvents.MarketOperation op = operation("restockAllOffers", null);
+        lockWriter();
+        try {
+            return restock(seller, addedQuantity);
+        } finally {
+            unlockWriter();
+            op.commit();
+        }
+    }
+
+    private int restock(String seller, int addedQuantity) {
+        if (seller == null || addedQuantity <= 0) return 0;
+        if (isDbMode()) return afterBulkUpdate(repo.inTransaction(() -> repo.restockSellerOffers(seller, addedQuantity)));
+
+        List<SellerOffer> changed = new ArrayList<>();
+        for (Listing l : ownListings(seller)) {
+            ProductOffer o = l.offer();
+            o.setQuantity(o.getQuantity() + addedQuantity);
+            bookOf(l.model()).update(o);
+            changed.add(new SellerOffer(l.model().getName(), l.model().getCategory(), o));
+        }
+        publishListings(seller);
+        return afterBulkUpdate(changed);
+    }
+
+    /**
+     * Multiplies the price of every offer of the seller by factor, e.g. 0.9 for 10% off (one UPDATE in DB mode).
+     * @return number of offers repriced
+     */
+    public int repriceAllOffers(String seller, double factor) {
+        FlightEvents.MarketOperation op = operation("repriceAllOffers", null);
+        lockWriter();
+        try {
+            return repriceAll(seller, factor);
+        } finally {
+            unlockWriter();
+            op.commit();
+        }
+    }
+
+    private int repriceAll(String seller, double factor) {
+        if (seller == null || !(factor > 0) || Double.isInfinite(factor)) return 0;
+        if (isDbMode()) return afterBulkUpdate(repo.inTransaction(() -> repo.repriceSellerOffers(seller, factor)));
+
+        List<SellerOffer> changed = new ArrayList<>();
+        for (Listing l : ownListings(seller)) {
+            ProductOffer o = l.offer();
+            double newPrice = o.getPrice() * factor;
+            o.setPrice(newPrice);
+            updatePriceHistory(l.model(), o, newPrice);
+            bookOf(l.model()).update(o);
+            changed.add(new SellerOffer(l.model().getName(), l.model().getCategory(), o));
+        }
+        publishListings(seller);
+        return afterBulkUpdate(changed);
+    }
+
+    private void publishListings(String seller) {
+        publish(ownListings(seller).stream().map(Listing::model).toList());
+    }
+
+    private List<Listing> ownListings(String seller) {
+        TreeMap<String, Listing> own = offersBySeller.get(seller.toLowerCase(Locale.ROOT));
+        return own == null ? List.of() : new ArrayList<>(own.values());
+    }
+
+    // more stock or lower prices can cross resting bids
+    private int afterBulkUpdate(List<SellerOffer> changed) {
+        for (SellerOffer so : changed) {
+            emitOffer(so.product(), so.category(), so.offer());
+            matchBids(so.product());
+        }
+        return changed.size();
     }
 
     public List<Double> getOfferPriceHistory(String productName, String seller) {
@@ -183,12 +1254,33 @@ public class Market {
         return (offer != null) ? offer.getPriceHistory() : null;
     }
 
-    private void updatePriceHistory(ProductOffer offer, double newPrice) {
+    private void updatePriceHistory(ProductModel model, ProductOffer offer, double newPrice) {
         List<Double> history = offer.getPriceHistory();
         if (history == null) history = new ArrayList<>();
         if (history.size() >= 3) history.remove(0);
         history.add(newPrice);
         offer.setPriceHistory(history);
+        appendPrice(offerPrices, offerKey(model.getName(), offer.getSeller()), newPrice);
+    }
+
+    private void appendPrice(Map<String, PriceSeries> series, String key, double price) {
+        series.computeIfAbsent(key, k -> new PriceSeries(PRICE_SERIES_MAX_POINTS)).append(clock.millis(), price);
+    }
+
+    /** Trade prices of the product with from <= time < to, oldest first. */
+    public List<PriceSeries.Point> getTradePrices(String productName, Instant from, Instant to) {
+        if (isDbMode()) return repo.getTradePrices(productName, from, to);
+        PriceSeries s = tradePrices.get(key(productName));
+        return s == null ? List.of() : s.range(from.toEpochMilli(), to.toEpochMilli());
+    }
+
+    /**
+     * Listed prices of the offer (after trades and reprices) with from <= time < to, oldest first.
+     * Not kept in DB mode, which only stores the current price.
+     */
+    public List<PriceSeries.Point> getOfferPrices(String productName, String seller, Instant from, Instant to) {
+        PriceSeries s = offerPrices.get(offerKey(productName, seller));
+        return s == null ? List.of() : s.range(from.toEpochMilli(), to.toEpochMilli());
     }
 
     public List<Double> getLastTradePrices(String productName, int limit) {
@@ -196,14 +1288,7 @@ public class Market {
         if (limit <= 0) return java.util.Collections.emptyList();
         if (isDbMode()) return repo.getLastTradePrices(productName, limit);
 
-        ProductModel m = findModelByName(productName);
-        if (m == null) return java.util.Collections.emptyList();
-        List<Double> ph = m.getPriceHistory();
-        if (ph == null || ph.isEmpty()) return java.util.Collections.emptyList();
-
-        int from = Math.max(0, ph.size() - limit);
-        List<Double> tail = new ArrayList<>(ph.subList(from, ph.size())); 
-        java.util.Collections.reverse(tail); 
-        return tail;
+        PriceSeries s = tradePrices.get(key(productName));
+        return s == null ? java.util.Collections.emptyList() : s.lastValues(limit);
     }
 }
@@ -0,0 +1,37 @@
+package de.tub;
+
+import java.util.Locale;
+
+/** Change on the market pushed to subscribers (see Market.subscribe). */
+public sealed interface MarketEvent permits MarketEvent.OfferChanged, MarketEvent.Trade {
+
+    String product();
+
+    String category();
+
+    String seller();
+
+    /**
+     * Events with the same key supersede each other in a slow subscriber's buffer;
+     * null means the event is never dropped in favour of a newer one.
+     */
+    Object conflationKey();
+
+    /** Current price and quantity of a seller's offer. */
+    record OfferChanged(String product, String category, String seller, double price, int quantity)
+            implements MarketEvent {
+        @Override
+        public Object conflationKey() {
+            return "offer|" + product.toLowerCase(Locale.ROOT) + "|" + seller.toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /** Executed buy: quantity units from seller at price. */
+    record Trade(String product, String category, String seller, int quantity, double price)
+            implements MarketEvent {
+        @Override
+        public Object conflationKey() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package de.tub;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Рассылает MarketEvent подписчикам через java.util.concurrent.Flow.
+ * publish() никогда не ждёт подписчиков: у каждого свой ограниченный буфер,
+ * доставка идёт на executor. Для медленного подписчика новое состояние оффера
+ * заменяет ещё не доставленное старое (conflation) и встаёт в конец очереди, после сделок
+ * до него. Если буфер всё равно полон, выбрасывается самое старое состояние оффера (счётчик dropped);
+ * сделки выбрасываются, только если в буфере одни сделки (счётчик droppedTrades).
+ */
+public class MarketEventPublisher implements Flow.Publisher<MarketEvent> {
+
+    public static final int DEFAULT_BUFFER = 256;
+
+    /** Which events a subscriber wants; null fields match anything, comparison ignores case. */
+    public record Filter(String product, String category, String seller) {
+        public static final Filter ALL = new Filter(null, null, null);
+
+        public boolean matches(MarketEvent e) {
+            return same(product, e.product()) && same(category, e.category()) && same(seller, e.seller());
+        }
+
+        private static boolean same(String wanted, String actual) {
+            return wanted == null || wanted.equalsIgnoreCase(actual);
+        }
+    }
+
+    private final Executor executor;
+    private final int bufferSize;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    public MarketEventPublisher() {
+        this(ForkJoinPool.commonPool(), DEFAULT_BUFFER);
+    }
+
+    public MarketEventPublisher(Executor executor, int bufferSize) {
+        if (bufferSize <= 0) throw new IllegalArgumentException("bufferSize must be positive");
+        this.executor = Objects.requireNonNull(executor);
+        this.bufferSize = bufferSize;
+    }
+
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super MarketEvent> subscriber) {
+        subscribe(subscriber, Filter.ALL);
+    }
+
+    public void subscribe(Flow.Subscriber<? super MarketEvent> subscriber, Filter filter) {
+        Subscription s = new Subscription(Objects.requireNonNull(subscriber), Objects.requireNonNull(filter));
+        subscriptions.add(s);
+        subscriber.onSubscribe(s);
+    }
+
+    public void publish(MarketEvent event) {
+        for (Subscription s : subscriptions) {
+            if (s.filter.matches(event)) s.offer(event);
+        }
+    }
+
+    final class Subscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super MarketEvent> subscriber;
+        private final Filter filter;
+
+        // insertion ordered; a superseded offer state is removed and the new one goes to the tail
+        private final LinkedHashMap<Object, MarketEvent> buffer = new LinkedHashMap<>();
+        private final AtomicInteger wip = new AtomicInteger();
+        private long demand;
+        private long dropped;
+        private long droppedTrades;
+        private boolean cancelled;
+
+        Subscription(Flow.Subscriber<? super MarketEvent> subscriber, Filter filter) {
+            this.subscriber = subscriber;
+            this.filter = filter;
+        }
+
+        void offer(MarketEvent e) {
+            synchronized (this) {
+                if (cancelled) return;
+                Object key = e.conflationKey();
+                if (key == null) key = new Object();
+                if (buffer.remove(key) == null && buffer.size() >= bufferSize) evict();
+                buffer.put(key, e);
+            }
+            schedule();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("request must be positive (rule 3.9): " + n));
+                return;
+            }
+            synchronized (this) {
+                demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n;
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                buffer.clear();
+            }
+            subscriptions.remove(this);
+        }
+
+        /** Offer states dropped because the buffer was full (not the ones replaced by a newer state). */
+        public synchronized long dropped() {
+            return dropped;
+        }
+
+        /** Trades lost because the buffer was full of trades. */
+        public synchronized long droppedTrades() {
+            return droppedTrades;
+        }
+
+        // oldest offer state first: a newer one for the same offer may still come, a lost trade never does
+        private void evict() {
+            for (Iterator<MarketEvent> it = buffer.values().iterator(); it.hasNext(); ) {
+                if (it.next().conflationKey() != null) {
+                    it.remove();
+                    dropped++;
+                    return;
+                }
+            }
+            Iterator<MarketEvent> it = buffer.values().iterator();
+            it.next();
+            it.remove();
+            droppedTrades++;
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) executor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            while (true) {
+                drain();
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) return;
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                MarketEvent next;
+                synchronized (this) {
+                    if (cancelled || demand == 0 || buffer.isEmpty()) return;
+                    Iterator<MarketEvent> it = buffer.values().iterator();
+                    next = it.next();
+                    it.remove();
+                    if (demand != Long.MAX_VALUE) demand--;
+                }
+                try {
+                    subscriber.onNext(next);
+                } catch (Throwable t) {
+                    cancel();
+                    subscriber.onError(t);
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package de.tub;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Хранилище цен и количеств предложений вне кучи (direct ByteBuffer, без preview API).
+ * Предложение - слот 24 байта (цена, количество, id продавца, id продукта) в блоках (slab) по SLAB_SLOTS слотов.
+ * Индекс (продукт, продавец) -> слот - открытая адресация, тоже вне кучи.
+ * Market держит вместо ProductOffer тонкие view (Offer), поэтому покупка и обновление пишут прямо в слоты.
+ * Опционально блоки отображаются на файл (mapped): после перезапуска файл просто отображается заново,
+ * индекс пересобирается проходом по слотам, без загрузки предложений.
+ * Продукты и продавцы хранятся в файле рядом (&lt;file&gt;.names).
+ */
+public final class OffHeapOfferStore implements AutoCloseable {
+
+    static final int SLAB_SLOTS = 1 << 16;
+    private static final int SLOT = 24;
+    private static final int PRICE = 0, QUANTITY = 8, SELLER = 12, PRODUCT = 16;
+    private static final int SLAB_BYTES = SLAB_SLOTS * SLOT;
+
+    // file: header (magic, used slots), then the slabs one after another
+    private static final int HEADER = 64;
+    private static final long MAGIC = 0x4752_4e54_4f46_4652L; // "GRNTOFFR"
+
+    // index entry: key (product << 32 | seller) + slot + 1 (0 = empty)
+    private static final int ENTRY = 16;
+
+    private final FileChannel file;   // null = plain direct memory
+    private final BufferedWriter names;
+    private final ByteBuffer header;
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+
+    // lower(name) -> id; display names, ids and categories by id for models()
+    private final Dictionary products = new Dictionary();
+    private final Dictionary sellers = new Dictionary();
+    private final List<String> productIds = new ArrayList<>();
+    private final List<String> productNames = new ArrayList<>();
+    private final List<String> productCategories = new ArrayList<>();
+    private final List<String> sellerNames = new ArrayList<>();
+
+    private ByteBuffer index;
+    private int indexMask;
+    private int slots;
+
+    private OffHeapOfferStore(FileChannel file, BufferedWriter names) {
+        this.file = file;
+        this.names = names;
+        this.header = file == null ? null : map(0, HEADER);
+        newIndex(1024);
+    }
+
+    public static OffHeapOfferStore inMemory() {
+        return new OffHeapOfferStore(null, null);
+    }
+
+    /** Opens or creates a file-backed store; an existing file is re-mapped, not reloaded. */
+    public static OffHeapOfferStore mapped(Path path) throws IOException {
+        Path namesFile = Path.of(path + ".names");
+        List<String> knownNames = Files.exists(namesFile)
+                ? Files.readAllLines(namesFile, StandardCharsets.UTF_8) : List.of();
+        FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        BufferedWriter w = Files.newBufferedWriter(namesFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        OffHeapOfferStore s = new OffHeapOfferStore(ch, w);
+        s.reopen(knownNames);
+        return s;
+    }
+
+    /** OFFHEAP_FILE=path: mapped store; OFFHEAP_OFFERS=true: direct memory; otherwise null (offers on the heap). */
+    public static OffHeapOfferStore fromConfig(DbConfig conf) {
+        String path = conf.get("OFFHEAP_FILE", "");
+        if (!path.isEmpty()) {
+            try {
+                return mapped(Path.of(path));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to open OFFHEAP_FILE " + path, e);
+            }
+        }
+        return conf.getBoolean("OFFHEAP_OFFERS", false) ? inMemory() : null;
+    }
+
+    private void reopen(List<String> knownNames) {
+        long magic = header.getLong(0);
+        if (magic == 0) {
+            header.putLong(0, MAGIC);
+            return;
+        }
+        if (magic != MAGIC) throw new IllegalStateException("Not an offer store file");
+        for (String line : knownNames) {
+            String[] f = line.split("\t", -1);
+            if (f[0].equals("P") && f.length == 4) addProduct(f[1], f[2], f[3].isEmpty() ? null : f[3]);
+            else if (f[0].equals("S") && f.length == 2) addSeller(f[1]);
+        }
+        long used = header.getLong(8);
+        for (int slot = 0; slot < used; slot++) {
+            ByteBuffer slab = slab(slot);
+            int off = offset(slot);
+            indexPut(key(slab.getInt(off + PRODUCT), slab.getInt(off + SELLER)), slot);
+            slots = slot + 1;
+        }
+    }
+
+    /** Registers the product (kept across restarts of a mapped store) and returns its id. */
+    public synchronized int product(String id, String name, String category) {
+        int before = products.size();
+        int p = addProduct(id, name, category);
+        if (products.size() > before) writeName("P\t" + (id == null ? "" : id) + "\t" + name + "\t" + (category == null ? "" : category));
+        return p;
+    }
+
+    /**
+     * The offer of the seller for the product as a view on its slot, adding the slot if needed.
+     * Price and quantity are taken from offer; a view of this store is returned as it is.
+     */
+    public synchronized Offer offer(ProductModel model, ProductOffer offer) {
+        if (offer instanceof Offer v && v.store == this) return v;
+        int product = product(model.getId(), model.getName(), model.getCategory());
+        int seller = sellerId(offer.getSeller());
+        int slot = find(product, seller);
+        if (slot < 0) slot = newSlot(product, seller);
+        Offer view = new Offer(this, sellerNames.get(seller), slot, offer.getPriceHistory());
+        view.setPrice(offer.getPrice());
+        view.setQuantity(offer.getQuantity());
+        return view;
+    }
+
+    /** All registered products with views of their offers, in slot order; for a Market over a re-mapped file. */
+    public synchronized List<ProductModel> models() {
+        List<ProductModel> out = new ArrayList<>(productNames.size());
+        for (int p = 0; p < productNames.size(); p++) {
+            out.add(new ProductModel(productIds.get(p), productNames.get(p), productCategories.get(p), new ArrayList<>(), null));
+        }
+        for (int slot = 0; slot < slots; slot++) {
+            ByteBuffer slab = slab(slot);
+            int off = offset(slot);
+            String seller = sellerNames.get(slab.getInt(off + SELLER));
+            out.get(slab.getInt(off + PRODUCT)).getOffers().add(new Offer(this, seller, slot, null));
+        }
+        return out;
+    }
+
+    public synchronized int size() {
+        return slots;
+    }
+
+    /** Writes mapped slabs to disk (no-op in memory). */
+    public synchronized void force() {
+        if (file == null) return;
+        ((MappedByteBuffer) header).force();
+        for (ByteBuffer s : slabs) ((MappedByteBuffer) s).force();
+    }
+
+    /** Forces and closes the file; the buffers themselves are freed by the GC once no view is left. */
+    @Override
+    public synchronized void close() throws IOException {
+        force();
+        if (file != null) {
+            names.close();
+            file.close();
+        }
+    }
+
+    /** Offer whose price and quantity live in a slot; the seller and the price history are fields of its own. */
+    public static final class Offer extends ProductOffer {
+        private final OffHeapOfferStore store;
+        private final ByteBuffer slab;
+        private final int offset;
+
+        private Offer(OffHeapOfferStore store, String seller, int slot, List<Double> priceHistory) {
+            super(seller, 0, 0, priceHistory);
+            this.store = store;
+            this.slab = store.slab(slot);
+            this.offset = offset(slot);
+        }
+
+        @Override public double getPrice() { return slab.getDouble(offset + PRICE); }
+        @Override public void setPrice(double price) { slab.putDouble(offset + PRICE, price); }
+        @Override public int getQuantity() { return slab.getInt(offset + QUANTITY); }
+        @Override public void setQuantity(int quantity) { slab.putInt(offset + QUANTITY, quantity); }
+    }
+
+    private int addProduct(String id, String name, String category) {
+        int p = products.id(name.toLowerCase(Locale.ROOT));
+        if (p == productNames.size()) {
+            productIds.add(id == null || id.isEmpty() ? null : id);
+            productNames.add(name);
+            productCategories.add(category);
+        }
+        return p;
+    }
+
+    private int addSeller(String seller) {
+        int s = sellers.id(seller.toLowerCase(Locale.ROOT));
+        if (s == sellerNames.size()) sellerNames.add(seller);
+        return s;
+    }
+
+    private int sellerId(String seller) {
+        int before = sellers.size();
+        int s = addSeller(seller);
+        if (sellers.size() > before) writeName("S\t" + seller);
+        return s;
+    }
+
+    private void writeName(String line) {
+        if (names == null) return;
+        try {
+            names.write(line);
+            names.newLine();
+            names.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("writeName failed", e);
+        }
+    }
+
+    private static int offset(int slot) {
+        return (slot % SLAB_SLOTS) * SLOT;
+    }
+
+    private ByteBuffer slab(int slot) {
+        int i = slot / SLAB_SLOTS;
+        while (slabs.size() <= i) {
+            slabs.add(file == null
+                    ? ByteBuffer.allocateDirect(SLAB_BYTES)
+                    : map(HEADER + (long) slabs.size() * SLAB_BYTES, SLAB_BYTES));
+        }
+        return slabs.get(i);
+    }
+
+    private ByteBuffer map(long offset, int size) {
+        try {
+            return file.map(FileChannel.MapMode.READ_WRITE, offset, size);
+        } catch (IOException e) {
+            throw new RuntimeException("map failed", e);
+        }
+    }
+
+    private int newSlot(int product, int seller) {
+        int slot = slots++;
+        ByteBuffer slab = slab(slot);
+        int off = offset(slot);
+        slab.putInt(off + SELLER, seller);
+        slab.putInt(off + PRODUCT, product);
+        slab.putInt(off + QUANTITY, 0);
+        if (header != null) header.putLong(8, slots);
+        indexPut(key(product, seller), slot);
+        return slot;
+    }
+
+    private static long key(int product, int seller) {
+        return ((long) product << 32) | (seller & 0xFFFF_FFFFL);
+    }
+
+    private int find(int product, int seller) {
+        long k = key(product, seller);
+        for (int i = hash(k) & indexMask; ; i = (i + 1) & indexMask) {
+            int e = i * ENTRY;
+            long slotPlusOne = index.getLong(e + 8);
+            if (slotPlusOne == 0) return -1;
+            if (index.getLong(e) == k) return (int) (slotPlusOne - 1);
+        }
+    }
+
+    // load factor <= 1/2
+    private void indexPut(long k, int slot) {
+        if ((slots + 1L) * 2 > indexMask + 1L) grow();
+        insert(index, indexMask, k, slot);
+    }
+
+    private static void insert(ByteBuffer idx, int mask, long k, int slot) {
+        for (int i = hash(k) & mask; ; i = (i + 1) & mask) {
+            int e = i * ENTRY;
+            if (idx.getLong(e + 8) == 0) {
+                idx.putLong(e, k);
+                idx.putLong(e + 8, slot + 1L);
+                return;
+            }
+        }
+    }
+
+    private void grow() {
+        ByteBuffer old = index;
+        int oldCapacity = indexMask + 1;
+        newIndex(oldCapacity * 2);
+        for (int i = 0; i < oldCapacity; i++) {
+            long slotPlusOne = old.getLong(i * ENTRY + 8);
+            if (slotPlusOne != 0) insert(index, indexMask, old.getLong(i * ENTRY), (int) (slotPlusOne - 1));
+        }
+    }
+
+    private void newIndex(int capacity) {
+        index = ByteBuffer.allocateDirect(capacity * ENTRY); // zeroed = all empty
+        indexMask = capacity - 1;
+    }
+
+    private static int hash(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        return (int) k;
+    }
+}
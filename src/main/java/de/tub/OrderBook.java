@@ -0,0 +1,99 @@
+package de.tub;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Предложения одного продукта, отсортированные по цене (при равной цене - кто раньше выставил).
+ * Лучшее предложение - O(log n). Книгу нужно обновлять (update) после каждого изменения цены или количества.
+ * Предложения с нулевым количеством в книге не хранятся.
+ */
+public class OrderBook {
+
+    private static final AtomicLong SEQ = new AtomicLong();
+
+    private record Key(double price, long seq) {}
+
+    private static final Comparator<Key> BY_PRICE_THEN_TIME =
+            Comparator.comparingDouble(Key::price).thenComparingLong(Key::seq);
+
+    private final TreeMap<Key, ProductOffer> asks = new TreeMap<>(BY_PRICE_THEN_TIME);
+    private final Map<String, Key> keyBySeller = new HashMap<>();
+    private final Map<String, Integer> quantityBySeller = new HashMap<>();
+    private int totalQuantity;
+
+    public OrderBook() {}
+
+    public OrderBook(Collection<ProductOffer> offers) {
+        for (ProductOffer o : offers) update(o);
+    }
+
+    /** Re-indexes the offer after its price or quantity changed (or adds it). */
+    public synchronized void update(ProductOffer offer) {
+        String s = key(offer.getSeller());
+        Key old = keyBySeller.get(s);
+        Integer oldQty = quantityBySeller.remove(s);
+        if (oldQty != null) totalQuantity -= oldQty;
+
+        if (offer.getQuantity() <= 0) {
+            if (old != null) asks.remove(old);
+            keyBySeller.remove(s);
+            return;
+        }
+        quantityBySeller.put(s, offer.getQuantity());
+        totalQuantity += offer.getQuantity();
+
+        if (old != null && old.price() == offer.getPrice()) {
+            asks.put(old, offer); // same price keeps its place in the queue
+            return;
+        }
+        if (old != null) asks.remove(old);
+        Key k = new Key(offer.getPrice(), SEQ.incrementAndGet());
+        asks.put(k, offer);
+        keyBySeller.put(s, k);
+    }
+
+    public synchronized void remove(String seller) {
+        String s = key(seller);
+        Key k = keyBySeller.remove(s);
+        if (k != null) asks.remove(k);
+        Integer q = quantityBySeller.remove(s);
+        if (q != null) totalQuantity -= q;
+    }
+
+    public synchronized ProductOffer best() {
+        Map.Entry<Key, ProductOffer> e = asks.firstEntry();
+        return e == null ? null : e.getValue();
+    }
+
+    /** Cheapest offers first, enough of them to cover qty (or all offers if there is not enough). */
+    public synchronized List<ProductOffer> cheapest(int qty) {
+        List<ProductOffer> out = new ArrayList<>();
+        int covered = 0;
+        for (ProductOffer o : asks.values()) {
+            if (covered >= qty) break;
+            out.add(o);
+            covered += o.getQuantity();
+        }
+        return out;
+    }
+
+    public synchronized int totalQuantity() {
+        return totalQuantity;
+    }
+
+    public synchronized int size() {
+        return asks.size();
+    }
+
+    private static String key(String seller) {
+        return seller == null ? "" : seller.toLowerCase(Locale.ROOT);
+    }
+}
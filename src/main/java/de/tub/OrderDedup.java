@@ -0,0 +1,69 @@
+package de.tub;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Недавние клиентские номера заказов (client order id) и их результат, чтобы повтор
+ * заказа (клиент не дождался ответа) возвращал первый результат, а не покупал второй раз.
+ * Хранит не больше maxSize номеров и не дольше window, самые старые вытесняются первыми.
+ */
+public class OrderDedup {
+
+    /** What the order asked for and whether it was filled. */
+    public record Order(String product, String seller, int quantity, boolean filled) {
+        public boolean sameAs(String product, String seller, int quantity) {
+            return this.quantity == quantity
+                    && this.product.equalsIgnoreCase(product)
+                    && this.seller.equalsIgnoreCase(seller);
+        }
+    }
+
+    private record Seen(Order order, long at) {}
+
+    private final int maxSize;
+    private final long windowNanos;
+    private final LongSupplier clock;
+    private final LinkedHashMap<String, Seen> seen = new LinkedHashMap<>(); // oldest first
+
+    public OrderDedup(int maxSize, Duration window) {
+        this(maxSize, window, System::nanoTime);
+    }
+
+    OrderDedup(int maxSize, Duration window, LongSupplier clock) {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize must be positive");
+        this.maxSize = maxSize;
+        this.windowNanos = window.toNanos();
+        this.clock = clock;
+    }
+
+    /** The remembered order, or null if the id is new or fell out of the window. */
+    public synchronized Order get(String clientOrderId) {
+        evict();
+        Seen s = seen.get(clientOrderId);
+        return s == null ? null : s.order();
+    }
+
+    public synchronized void put(String clientOrderId, Order order) {
+        seen.remove(clientOrderId); // keeps the map ordered by time
+        seen.put(clientOrderId, new Seen(order, clock.getAsLong()));
+        evict();
+    }
+
+    public synchronized int size() {
+        return seen.size();
+    }
+
+    private void evict() {
+        long now = clock.getAsLong();
+        Iterator<Map.Entry<String, Seen>> it = seen.entrySet().iterator();
+        while (it.hasNext()) {
+            Seen s = it.next().getValue();
+            if (seen.size() <= maxSize && now - s.at() < windowNanos) break;
+            it.remove();
+        }
+    }
+}
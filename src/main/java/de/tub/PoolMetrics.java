@@ -0,0 +1,125 @@
+package de.tub;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.IMetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Метрики одного пула Hikari: состояние пула (active/idle/pending)
+ * и гистограмма времени ожидания соединения.
+ * Подключается через HikariConfig.setMetricsTrackerFactory.
+ */
+public class PoolMetrics implements IMetricsTrackerFactory {
+
+    // bucket i holds waits in [2^(i-1), 2^i) microseconds, bucket 0 is < 1 µs
+    static final int BUCKETS = 24;
+
+    private final AtomicLongArray waitHistogram = new AtomicLongArray(BUCKETS);
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder acquiredNanos = new LongAdder();
+    private final LongAdder usages = new LongAdder();
+    private final LongAdder usageMillis = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    private volatile PoolStats poolStats;
+
+    public record Snapshot(int active, int idle, int total, int pending, int max,
+                           long acquired, long acquiredNanos, long usages, long usageMillis,
+                           long timeouts, long[] waitHistogram) {
+
+        public double meanWaitMillis() {
+            return acquired == 0 ? 0.0 : acquiredNanos / 1e6 / acquired;
+        }
+
+        public double meanUsageMillis() {
+            return usages == 0 ? 0.0 : (double) usageMillis / usages;
+        }
+
+        /** Upper bound of the histogram bucket holding the given quantile, in ms. */
+        public double waitPercentileMillis(double q) {
+            long count = 0;
+            for (long c : waitHistogram) count += c;
+            if (count == 0) return 0.0;
+            long rank = (long) Math.ceil(q * count);
+            long seen = 0;
+            for (int i = 0; i < waitHistogram.length; i++) {
+                seen += waitHistogram[i];
+                if (seen >= rank) return (1L << i) / 1000.0;
+            }
+            return (1L << (waitHistogram.length - 1)) / 1000.0;
+        }
+
+        /** Difference to an earlier snapshot of the same pool (pool state is taken from this one). */
+        public Snapshot since(Snapshot earlier) {
+            long[] h = new long[waitHistogram.length];
+            for (int i = 0; i < h.length; i++) h[i] = waitHistogram[i] - earlier.waitHistogram[i];
+            return new Snapshot(active, idle, total, pending, max,
+                    acquired - earlier.acquired, acquiredNanos - earlier.acquiredNanos,
+                    usages - earlier.usages, usageMillis - earlier.usageMillis,
+                    timeouts - earlier.timeouts, h);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(java.util.Locale.US,
+                    "active=%d idle=%d total=%d pending=%d max=%d | wait mean=%.2fms p99<=%.2fms | use mean=%.2fms | timeouts=%d",
+                    active, idle, total, pending, max,
+                    meanWaitMillis(), waitPercentileMillis(0.99), meanUsageMillis(), timeouts);
+        }
+    }
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats stats) {
+        this.poolStats = stats;
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                recordWait(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                recordUsage(elapsedBorrowedMillis);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.increment();
+            }
+        };
+    }
+
+    void recordWait(long nanos) {
+        acquired.increment();
+        acquiredNanos.add(nanos);
+        waitHistogram.incrementAndGet(bucketOf(nanos / 1000));
+    }
+
+    void recordUsage(long millis) {
+        usages.increment();
+        usageMillis.add(millis);
+    }
+
+    static int bucketOf(long micros) {
+        if (micros <= 0) return 0;
+        int b = 64 - Long.numberOfLeadingZeros(micros);
+        return Math.min(b, BUCKETS - 1);
+    }
+
+    public Snapshot snapshot() {
+        PoolStats s = poolStats;
+        long[] h = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) h[i] = waitHistogram.get(i);
+        return new Snapshot(
+                s == null ? 0 : s.getActiveConnections(),
+                s == null ? 0 : s.getIdleConnections(),
+                s == null ? 0 : s.getTotalConnections(),
+                s == null ? 0 : s.getPendingThreads(),
+                s == null ? 0 : s.getMaxConnections(),
+                acquired.sum(), acquiredNanos.sum(), usages.sum(), usageMillis.sum(),
+                timeouts.sum(), h);
+    }
+}
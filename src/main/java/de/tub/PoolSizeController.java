@@ -0,0 +1,88 @@
+package de.tub;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.java.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Периодически подстраивает maximumPoolSize под нагрузку.
+ * Если ожидание соединения из пула заметно больше времени работы с БД
+ * (соединение занято), пул растёт; если соединения простаивают, пул сжимается.
+ */
+@Log
+public class PoolSizeController implements AutoCloseable {
+
+    private final HikariDataSource ds;
+    private final PoolMetrics metrics;
+    private final int floor;
+    private final int ceiling;
+    private final double waitToUseRatio;
+    private final ScheduledExecutorService timer;
+
+    private PoolMetrics.Snapshot last;
+
+    public PoolSizeController(HikariDataSource ds, PoolMetrics metrics,
+                              int floor, int ceiling, double waitToUseRatio) {
+        if (floor <= 0 || ceiling < floor) throw new IllegalArgumentException("bad pool bounds " + floor + ".." + ceiling);
+        this.ds = ds;
+        this.metrics = metrics;
+        this.floor = floor;
+        this.ceiling = ceiling;
+        this.waitToUseRatio = waitToUseRatio;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pool-size-controller");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void start(long intervalMillis) {
+        last = metrics.snapshot();
+        timer.scheduleWithFixedDelay(this::tick, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void tick() {
+        try {
+            PoolMetrics.Snapshot now = metrics.snapshot();
+            PoolMetrics.Snapshot window = now.since(last);
+            last = now;
+
+            int current = ds.getHikariConfigMXBean().getMaximumPoolSize();
+            int next = nextSize(current, floor, ceiling, waitToUseRatio, window);
+            if (next != current) {
+                ds.getHikariConfigMXBean().setMaximumPoolSize(next);
+                log.info("Pool size " + current + " -> " + next + " (" + window + ")");
+            }
+        } catch (RuntimeException e) {
+            log.warning("Pool size controller tick failed: " + e.getMessage());
+        }
+    }
+
+    /** Decision for one window of pool metrics. */
+    static int nextSize(int current, int floor, int ceiling, double waitToUseRatio, PoolMetrics.Snapshot window) {
+        double waitMs = window.meanWaitMillis();
+        double useMs = Math.max(window.meanUsageMillis(), 1.0);
+
+        boolean starving = window.timeouts() > 0
+                || (window.pending() > 0 && waitMs > waitToUseRatio * useMs);
+        if (starving && current < ceiling) {
+            return Math.min(ceiling, current + Math.max(1, current / 4));
+        }
+
+        boolean oversized = window.pending() == 0
+                && waitMs < 0.1 * useMs
+                && window.idle() > current / 2;
+        if (oversized && current > floor) {
+            return current - 1;
+        }
+        return Math.max(floor, Math.min(ceiling, current));
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+}
@@ -5,4 +5,23 @@ public class PriceCalculator {
     public static double calculateNewPrice(double oldPrice, int bought, int available) {
         return oldPrice * (1 + 0.05 * bought / (available + 1));
     }
+
+    /** How an offer is repriced after a buy; recent = the product's trades of the last 5 minutes. */
+    public interface Policy {
+        double newPrice(double oldPrice, int bought, int available, RollingStats.Snapshot recent);
+    }
+
+    /** calculateNewPrice: the less stock is left, the more a buy raises the price. */
+    public static final Policy SCARCITY = (oldPrice, bought, available, recent) -> calculateNewPrice(oldPrice, bought, available);
+
+    /**
+     * SCARCITY, but kept within a band around the 5 minute VWAP: +-max(2%, 3 volatilities).
+     * Needs 5 recent trades; with fewer it is plain SCARCITY.
+     */
+    public static final Policy VWAP_BAND = (oldPrice, bought, available, recent) -> {
+        double p = calculateNewPrice(oldPrice, bought, available);
+        if (recent.trades() < 5) return p;
+        double band = Double.isNaN(recent.volatility()) ? 0.02 : Math.max(0.02, 3 * recent.volatility());
+        return Math.min(recent.vwap() * (1 + band), Math.max(recent.vwap() * (1 - band), p));
+    };
 }
@@ -0,0 +1,239 @@
+package de.tub;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Сжатый ряд цен (время в мс, цена) в памяти, кодирование как в Gorilla (Facebook):
+ * время - разность разностей (delta-of-delta) кодами переменной длины, цена - XOR с предыдущей,
+ * хранятся только значащие биты. Биты лежат в блоках long[]; каждый блок начинается с полного
+ * времени и цены, поэтому читается независимо, а старые блоки удаляются целиком (maxPoints).
+ * Повторная цена через равный интервал стоит 2 бита вместо 16 байт.
+ */
+public class PriceSeries {
+
+    public record Point(long timeMillis, double value) {}
+
+    // a closed block never grows past this; a new one starts instead
+    private static final int MAX_BLOCK_WORDS = 256;
+    private static final int FIRST_BLOCK_WORDS = 4;
+    private static final int MAX_POINT_BITS = 4 + 64 + 2 + 5 + 6 + 64;
+
+    private static final class Block {
+        long[] words;
+        long bits;      // bits written
+        int count;
+        long firstTime, lastTime;
+
+        Block(int words) { this.words = new long[words]; }
+    }
+
+    private final int maxPoints;
+    private final List<Block> blocks = new ArrayList<>();
+    private int size;
+
+    // encoder state of the open (last) block
+    private long prevTime, prevDelta;
+    private long prevBits;
+    private int prevLeading = -1, prevTrailing;
+
+    /** @param maxPoints oldest blocks are dropped once more points are stored (at least maxPoints are kept) */
+    public PriceSeries(int maxPoints) {
+        if (maxPoints <= 0) throw new IllegalArgumentException("maxPoints must be positive");
+        this.maxPoints = maxPoints;
+    }
+
+    /** Appends a point; a time before the last one (wall clock stepped back) is stored as the last one. */
+    public synchronized void append(long timeMillis, double value) {
+        Block b = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+        if (b != null) timeMillis = Math.max(timeMillis, b.lastTime);
+        if (b == null || !fits(b)) {
+            b = openBlock(b);
+            write(b, timeMillis, 64);
+            write(b, Double.doubleToRawLongBits(value), 64);
+            b.firstTime = timeMillis;
+            prevDelta = 0;
+            prevLeading = -1;
+        } else {
+            long delta = timeMillis - prevTime;
+            writeDeltaOfDelta(b, delta - prevDelta);
+            writeXor(b, Double.doubleToRawLongBits(value));
+            prevDelta = delta;
+        }
+        prevTime = timeMillis;
+        prevBits = Double.doubleToRawLongBits(value);
+        b.lastTime = timeMillis;
+        b.count++;
+        size++;
+        while (blocks.size() > 1 && size - blocks.get(0).count >= maxPoints) size -= blocks.remove(0).count;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /** Last n values, newest first. */
+    public synchronized List<Double> lastValues(int n) {
+        List<Double> out = new ArrayList<>(Math.min(Math.max(n, 0), size));
+        for (int i = blocks.size() - 1; i >= 0 && out.size() < n; i--) {
+            List<Point> pts = decode(blocks.get(i));
+            for (int j = pts.size() - 1; j >= 0 && out.size() < n; j--) out.add(pts.get(j).value());
+        }
+        return out;
+    }
+
+    /** Points with fromMillis <= time < toMillis, oldest first; blocks outside the range are not decoded. */
+    public synchronized List<Point> range(long fromMillis, long toMillis) {
+        List<Point> out = new ArrayList<>();
+        for (Block b : blocks) {
+            if (b.lastTime < fromMillis || b.firstTime >= toMillis) continue;
+            for (Point p : decode(b)) {
+                if (p.timeMillis() >= fromMillis && p.timeMillis() < toMillis) out.add(p);
+            }
+        }
+        return out;
+    }
+
+    /** Encoded size in bytes, block headers included (not the unused tail of the open block). */
+    public synchronized long encodedBytes() {
+        long bits = 0;
+        for (Block b : blocks) bits += b.bits;
+        return (bits + 7) / 8;
+    }
+
+    public synchronized double bytesPerPoint() {
+        return size == 0 ? 0 : (double) encodedBytes() / size;
+    }
+
+    private boolean fits(Block b) {
+        if (b.bits + MAX_POINT_BITS <= (long) b.words.length * 64) return true;
+        if (b.words.length >= MAX_BLOCK_WORDS) return false;
+        b.words = Arrays.copyOf(b.words, Math.min(MAX_BLOCK_WORDS, b.words.length * 2));
+        return true;
+    }
+
+    // trims the full block to what it uses; series with few points stay small
+    private Block openBlock(Block full) {
+        if (full != null) full.words = Arrays.copyOf(full.words, (int) ((full.bits + 63) / 64));
+        Block b = new Block(full == null ? FIRST_BLOCK_WORDS : MAX_BLOCK_WORDS);
+        blocks.add(b);
+        return b;
+    }
+
+    // ranges are in milliseconds: '0' same interval, then 7/12/20 bit buckets, else the full 64 bits
+    private void writeDeltaOfDelta(Block b, long dod) {
+        if (dod == 0) {
+            write(b, 0b0, 1);
+        } else if (dod >= -63 && dod <= 64) {
+            write(b, 0b10, 2);
+            write(b, dod, 7);
+        } else if (dod >= -2047 && dod <= 2048) {
+            write(b, 0b110, 3);
+            write(b, dod, 12);
+        } else if (dod >= -524_287 && dod <= 524_288) {
+            write(b, 0b1110, 4);
+            write(b, dod, 20);
+        } else {
+            write(b, 0b1111, 4);
+            write(b, dod, 64);
+        }
+    }
+
+    // '0' same value; '10' meaningful bits fit the previous window; '11' + 5 bits leading zeros + 6 bits length
+    private void writeXor(Block b, long bits) {
+        long xor = bits ^ prevBits;
+        if (xor == 0) {
+            write(b, 0b0, 1);
+            return;
+        }
+        int leading = Math.min(31, Long.numberOfLeadingZeros(xor));
+        int trailing = Long.numberOfTrailingZeros(xor);
+        if (prevLeading >= 0 && leading >= prevLeading && trailing >= prevTrailing) {
+            write(b, 0b10, 2);
+            write(b, xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+        } else {
+            int length = 64 - leading - trailing;
+            write(b, 0b11, 2);
+            write(b, leading, 5);
+            write(b, length - 1, 6);
+            write(b, xor >>> trailing, length);
+            prevLeading = leading;
+            prevTrailing = trailing;
+        }
+    }
+
+    // appends the low n bits of value
+    private static void write(Block b, long value, int n) {
+        if (n < 64) value &= (1L << n) - 1;
+        int word = (int) (b.bits >>> 6);
+        int used = (int) (b.bits & 63);
+        int free = 64 - used;
+        if (n <= free) {
+            b.words[word] |= value << (free - n);
+        } else {
+            b.words[word] |= value >>> (n - free);
+            b.words[word + 1] |= value << (64 - (n - free));
+        }
+        b.bits += n;
+    }
+
+    private static List<Point> decode(Block b) {
+        List<Point> out = new ArrayList<>(b.count);
+        Reader r = new Reader(b.words);
+        long time = r.read(64);
+        long bits = r.read(64);
+        out.add(new Point(time, Double.longBitsToDouble(bits)));
+        long delta = 0;
+        int leading = 0, trailing = 0;
+        for (int i = 1; i < b.count; i++) {
+            delta += readDeltaOfDelta(r);
+            time += delta;
+            if (r.read(1) == 1) {
+                if (r.read(1) == 1) {
+                    leading = (int) r.read(5);
+                    int length = (int) r.read(6) + 1;
+                    trailing = 64 - leading - length;
+                }
+                bits ^= r.read(64 - leading - trailing) << trailing;
+            }
+            out.add(new Point(time, Double.longBitsToDouble(bits)));
+        }
+        return out;
+    }
+
+    private static long readDeltaOfDelta(Reader r) {
+        if (r.read(1) == 0) return 0;
+        if (r.read(1) == 0) return r.readSigned(7);
+        if (r.read(1) == 0) return r.readSigned(12);
+        if (r.read(1) == 0) return r.readSigned(20);
+        return r.read(64);
+    }
+
+    private static final class Reader {
+        private final long[] words;
+        private long pos;
+
+        Reader(long[] words) { this.words = words; }
+
+        long read(int n) {
+            int word = (int) (pos >>> 6);
+            int used = (int) (pos & 63);
+            int avail = 64 - used;
+            long v;
+            if (n <= avail) {
+                v = words[word] >>> (avail - n);
+            } else {
+                v = (words[word] << (n - avail)) | (words[word + 1] >>> (64 - (n - avail)));
+            }
+            pos += n;
+            return n == 64 ? v : v & ((1L << n) - 1);
+        }
+
+        // buckets are [-(2^(n-1) - 1), 2^(n-1)], so 2^(n-1) itself is positive
+        long readSigned(int n) {
+            long v = read(n);
+            return v > 1L << (n - 1) ? v - (1L << n) : v;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package de.tub;
+
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Байты на точку у PriceSeries на нескольких типичных рядах цен.
+ * Запуск: gradle priceSeriesReport [-Ppoints=1000000].
+ * Для сравнения: точка как long + double - 16 байт, в List<Double> без времени - около 20 байт.
+ */
+public final class PriceSeriesReport {
+    private PriceSeriesReport() {}
+
+    private interface Walk {
+        double next(double price, SplittableRandom rnd);
+    }
+
+    public static void main(String[] args) {
+        int points = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        System.out.printf(Locale.US, "%d points per series%n", points);
+        System.out.printf(Locale.US, "%-44s %12s %12s%n", "series", "bytes/point", "vs 16 bytes");
+
+        // PriceCalculator after every buy: price * (1 + 0.05 * bought / (available + 1)), arbitrary doubles
+        report("trades, repriced by PriceCalculator", points, false,
+                (p, r) -> PriceCalculator.calculateNewPrice(p, 1 + r.nextInt(5), 50 + r.nextInt(500)));
+        // listed prices in cents that move a few cents at a time
+        report("cent prices, random walk +-3 cents", points, false,
+                (p, r) -> Math.max(0.01, Math.round(p * 100 + r.nextInt(-3, 4)) / 100.0));
+        // the same prices, mostly unchanged between trades
+        report("cent prices, changing on 1 in 10 trades", points, false,
+                (p, r) -> r.nextInt(10) == 0 ? Math.max(0.01, Math.round(p * 100 + r.nextInt(-3, 4)) / 100.0) : p);
+        // a sampled price, once per second
+        report("1 s samples, changing on 1 in 10", points, true,
+                (p, r) -> r.nextInt(10) == 0 ? Math.max(0.01, Math.round(p * 100 + r.nextInt(-3, 4)) / 100.0) : p);
+    }
+
+    // trades arrive at random (exponential gaps, mean 500 ms) unless regular
+    private static void report(String name, int points, boolean regular, Walk walk) {
+        SplittableRandom rnd = new SplittableRandom(42);
+        PriceSeries s = new PriceSeries(points);
+        long t = 1_700_000_000_000L;
+        double price = 20.0;
+        for (int i = 0; i < points; i++) {
+            s.append(t, price);
+            t += regular ? 1_000 : (long) (-500 * Math.log(1 - rnd.nextDouble()));
+            price = walk.next(price, rnd);
+        }
+        System.out.printf(Locale.US, "%-44s %12.2f %11.1fx%n", name, s.bytesPerPoint(), 16 / s.bytesPerPoint());
+    }
+}
@@ -0,0 +1,65 @@
+package de.tub;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Потокобезопасный ограниченный кэш "имя продукта -> id".
+ * Имена сравниваются без учёта регистра, как name_key=lower(?) в SQL.
+ */
+public class ProductIdCache {
+
+    /** Returned by get for names that are not cached. */
+    public static final long MISSING = -1;
+
+    private final int maxSize;
+    private final Map<String, Long> idByName = new ConcurrentHashMap<>();
+    private final Map<Long, String> nameById = new ConcurrentHashMap<>();
+
+    public ProductIdCache(int maxSize) {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize must be positive");
+        this.maxSize = maxSize;
+    }
+
+    public long get(String name) {
+        if (name == null) return MISSING;
+        Long id = idByName.get(key(name));
+        return id == null ? MISSING : id;
+    }
+
+    /** Remembers id for name; an older name of the same id (rename) is dropped. */
+    public synchronized void put(String name, long id) {
+        if (name == null || id < 0) return;
+        String k = key(name);
+        String oldName = nameById.put(id, k);
+        if (oldName != null && !oldName.equals(k)) idByName.remove(oldName, id);
+        Long oldId = idByName.put(k, id);
+        if (oldId != null && !oldId.equals(id)) nameById.remove(oldId, k);
+        evictOverflow();
+    }
+
+    public synchronized void clear() {
+        idByName.clear();
+        nameById.clear();
+    }
+
+    public int size() {
+        return idByName.size();
+    }
+
+    // not LRU: drops arbitrary entries, a miss only costs one indexed lookup
+    private void evictOverflow() {
+        Iterator<Map.Entry<String, Long>> it = idByName.entrySet().iterator();
+        while (idByName.size() > maxSize && it.hasNext()) {
+            Map.Entry<String, Long> e = it.next();
+            it.remove();
+            nameById.remove(e.getValue(), e.getKey());
+        }
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
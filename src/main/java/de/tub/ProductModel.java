@@ -31,6 +31,7 @@ public class ProductModel {
                 .orElse(0.0);
     }
 
+    // units on hold (Market.hold) are already out of the offers' quantities
     public int getAvailableQuantity() {
         return offers.stream().mapToInt(ProductOffer::getQuantity).sum();
     }
@@ -42,12 +43,13 @@ public class ProductModel {
         }
     }
 
+    public boolean hasOffer(String seller) {
+        return seller != null && offers.stream()
+                .anyMatch(o -> o.getSeller() != null && o.getSeller().equalsIgnoreCase(seller));
+    }
+
     public boolean addOffer(ProductOffer offer) {
-        boolean exists = offers.stream()
-                .anyMatch(o -> o.getSeller() != null
-                        && offer.getSeller() != null
-                        && o.getSeller().equalsIgnoreCase(offer.getSeller()));
-        if (exists) return false;
+        if (hasOffer(offer.getSeller())) return false;
         offers.add(offer);
         return true;
     }
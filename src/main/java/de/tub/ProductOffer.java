@@ -25,6 +25,13 @@ public class ProductOffer {
     @Builder.Default
     private List<Double> priceHistory = new ArrayList<>();
 
+    // offers.version as read from the DB, the expected value of a compare-and-set update
+    private long version;
+
+    public ProductOffer(String seller, double price, int quantity, List<Double> priceHistory) {
+        this(seller, price, quantity, priceHistory, 0);
+    }
+
     public void addListedPriceToHistory(double listedPrice) {
         priceHistory.add(listedPrice);
         if (priceHistory.size() > 3) {
@@ -0,0 +1,112 @@
+package de.tub;
+
+import lombok.extern.java.Log;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Выбирает источник данных для запросов только на чтение.
+ * Чтения идут на реплику, кроме случаев:
+ * - реплики нет или она помечена как недоступная (проверка здоровья вернёт её обратно);
+ * - этот поток недавно писал в primary (read-your-writes).
+ */
+@Log
+public class ReplicaRouter implements AutoCloseable {
+
+    private final DataSource primary;
+    private final DataSource replica;
+    private final long readYourWritesNanos;
+
+    // the console runs one session per thread, so "own writes" are tracked per thread
+    private final ThreadLocal<Long> lastWriteAt = new ThreadLocal<>();
+
+    private volatile boolean replicaHealthy;
+    private ScheduledExecutorService healthCheck;
+
+    public ReplicaRouter(DataSource primary) {
+        this(primary, null, 0);
+    }
+
+    public ReplicaRouter(DataSource primary, DataSource replica, long readYourWritesMillis) {
+        this.primary = Objects.requireNonNull(primary);
+        this.replica = replica;
+        this.readYourWritesNanos = TimeUnit.MILLISECONDS.toNanos(readYourWritesMillis);
+        this.replicaHealthy = replica != null;
+    }
+
+    public DataSource primary() {
+        return primary;
+    }
+
+    public DataSource forRead() {
+        if (replica == null || !replicaHealthy) return primary;
+        Long at = lastWriteAt.get();
+        if (at != null && System.nanoTime() - at < readYourWritesNanos) return primary;
+        return replica;
+    }
+
+    public boolean isReplica(DataSource ds) {
+        return replica != null && ds == replica;
+    }
+
+    public void markWrite() {
+        if (replica != null) lastWriteAt.set(System.nanoTime());
+    }
+
+    public void replicaFailed(SQLException e) {
+        if (replicaHealthy) log.warning("Read replica failed, reading from primary: " + e.getMessage());
+        replicaHealthy = false;
+    }
+
+    /**
+     * True for errors of the connection itself (SQLState class 08, pool timeouts), the ones that say the
+     * replica is unreachable; a failed query would fail the health check's isValid, so it must not count.
+     */
+    public static boolean isConnectionFailure(SQLException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLTransientConnectionException || t instanceof SQLNonTransientConnectionException) return true;
+            if (t instanceof SQLException s && s.getSQLState() != null && s.getSQLState().startsWith("08")) return true;
+        }
+        return false;
+    }
+
+    public boolean isReplicaHealthy() {
+        return replicaHealthy;
+    }
+
+    /** Periodically checks the replica and routes reads back to it once it answers again. */
+    public void startHealthCheck(long intervalMillis) {
+        if (replica == null || healthCheck != null) return;
+        healthCheck = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "replica-health-check");
+            t.setDaemon(true);
+            return t;
+        });
+        healthCheck.scheduleWithFixedDelay(this::checkReplica, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void checkReplica() {
+        boolean ok;
+        try (Connection c = replica.getConnection()) {
+            ok = c.isValid(2);
+        } catch (SQLException e) {
+            ok = false;
+        }
+        if (ok && !replicaHealthy) log.info("Read replica is back, routing reads to it.");
+        if (!ok && replicaHealthy) log.warning("Read replica health check failed, reading from primary.");
+        replicaHealthy = ok;
+    }
+
+    @Override
+    public void close() {
+        if (healthCheck != null) healthCheck.shutdownNow();
+    }
+}
@@ -0,0 +1,103 @@
+package de.tub;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Скользящие статистики сделок одного товара: объём, VWAP и волатильность за 5 минут, час и сутки.
+ * Каждое окно - кольцо из 60 корзин по времени; сделка добавляется в текущую корзину за O(1),
+ * корзина старше окна обнуляется, когда её место занимает новая. Чтение суммирует 60 корзин,
+ * price_history не читается. Волатильность - выборочное стандартное отклонение логарифмических
+ * доходностей между соседними сделками (без годового пересчёта).
+ */
+public class RollingStats {
+
+    public enum Window {
+        FIVE_MINUTES(Duration.ofMinutes(5)), ONE_HOUR(Duration.ofHours(1)), ONE_DAY(Duration.ofDays(1));
+
+        private final long bucketMillis;
+
+        Window(Duration length) {
+            this.bucketMillis = length.toMillis() / BUCKETS;
+        }
+    }
+
+    /** Trades in the window; vwap and volatility are NaN without trades or returns. */
+    public record Snapshot(long trades, long volume, double vwap, double volatility) {
+        public static final Snapshot EMPTY = new Snapshot(0, 0, Double.NaN, Double.NaN);
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "trades=%d volume=%d vwap=%.2f volatility=%.4f", trades, volume, vwap, volatility);
+        }
+    }
+
+    private static final int BUCKETS = 60;
+
+    // per window, per bucket; a bucket holds the trades of bucket number epoch[i] (time / bucketMillis)
+    private static final class Ring {
+        final long[] epoch = new long[BUCKETS];
+        final long[] trades = new long[BUCKETS];
+        final long[] volume = new long[BUCKETS];
+        final double[] notional = new double[BUCKETS];
+        final long[] returns = new long[BUCKETS];
+        final double[] sumReturn = new double[BUCKETS];
+        final double[] sumSquares = new double[BUCKETS];
+
+        Ring() { Arrays.fill(epoch, -1); }
+    }
+
+    private final Ring[] rings = new Ring[Window.values().length];
+    private double lastPrice = Double.NaN;
+
+    public RollingStats() {
+        for (int i = 0; i < rings.length; i++) rings[i] = new Ring();
+    }
+
+    public synchronized void trade(long timeMillis, double price, int qty) {
+        if (qty <= 0 || !(price > 0)) return;
+        double r = Double.isNaN(lastPrice) ? Double.NaN : Math.log(price / lastPrice);
+        lastPrice = price;
+        for (Window w : Window.values()) {
+            Ring ring = rings[w.ordinal()];
+            long e = timeMillis / w.bucketMillis;
+            int i = (int) (e % BUCKETS);
+            if (ring.epoch[i] != e) {
+                if (ring.epoch[i] > e) continue; // older than the window (clock stepped back)
+                ring.epoch[i] = e;
+                ring.trades[i] = 0; ring.volume[i] = 0; ring.notional[i] = 0;
+                ring.returns[i] = 0; ring.sumReturn[i] = 0; ring.sumSquares[i] = 0;
+            }
+            ring.trades[i]++;
+            ring.volume[i] += qty;
+            ring.notional[i] += price * qty;
+            if (!Double.isNaN(r)) {
+                ring.returns[i]++;
+                ring.sumReturn[i] += r;
+                ring.sumSquares[i] += r * r;
+            }
+        }
+    }
+
+    /** Trades of the last window length up to nowMillis (bucket granularity: 1/60 of the window). */
+    public synchronized Snapshot stats(Window w, long nowMillis) {
+        Ring ring = rings[w.ordinal()];
+        long now = nowMillis / w.bucketMillis;
+        long trades = 0, volume = 0, returns = 0;
+        double notional = 0, sum = 0, squares = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (ring.epoch[i] <= now - BUCKETS || ring.epoch[i] > now) continue;
+            trades += ring.trades[i];
+            volume += ring.volume[i];
+            notional += ring.notional[i];
+            returns += ring.returns[i];
+            sum += ring.sumReturn[i];
+            squares += ring.sumSquares[i];
+        }
+        if (trades == 0) return Snapshot.EMPTY;
+        double volatility = returns < 2 ? Double.NaN
+                : Math.sqrt(Math.max(0, (squares - sum * sum / returns) / (returns - 1)));
+        return new Snapshot(trades, volume, notional / volume, volatility);
+    }
+}
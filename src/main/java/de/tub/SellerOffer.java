@@ -0,0 +1,10 @@
+package de.tub;
+
+/** A seller's offer together with the product it belongs to ("my offers" view). */
+public record SellerOffer(String product, String category, ProductOffer offer) {
+
+    @Override
+    public String toString() {
+        return String.format("Product: %s | Category: %s | %s", product, category, offer);
+    }
+}
@@ -0,0 +1,177 @@
+package de.tub;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Иерархическое колесо таймеров (как в ядре Linux): 4 уровня по 256/64/64/64 слота.
+ * Таймер кладётся в слот по времени срабатывания, добавление и отмена - O(1).
+ * Каждый тик смотрит один слот нижнего уровня; раз в 256 тиков слот следующего уровня
+ * раскладывается вниз. Просроченные таймеры находятся без обхода всех таймеров.
+ * Сроки дальше ~2^26 тиков ждут в последнем уровне и перекладываются, пока не подойдёт срок.
+ */
+public class TimerWheel<T> {
+
+    private static final int[] BITS = {8, 6, 6, 6};
+    private static final int LEVELS = BITS.length;
+
+    /** A scheduled item; cancel() takes it out of its slot in O(1). */
+    public final class Timer {
+        private final T item;
+        private final long deadline; // tick
+        private Timer prev, next;
+        private Slot slot;           // null when not scheduled
+
+        private Timer(T item, long deadline) {
+            this.item = item;
+            this.deadline = deadline;
+        }
+
+        public T item() {
+            return item;
+        }
+
+        /** @return false if it already fired or was cancelled */
+        public boolean cancel() {
+            synchronized (TimerWheel.this) {
+                if (slot == null) return false;
+                unlink(this);
+                size--;
+                return true;
+            }
+        }
+    }
+
+    private final class Slot {
+        Timer head;
+    }
+
+    private final long tickMillis;
+    private final long startMillis;
+    private final List<List<Slot>> wheels = new ArrayList<>(LEVELS); // level -> slots
+    private long currentTick;
+    private int size;
+
+    public TimerWheel(long tickMillis, long startMillis) {
+        if (tickMillis <= 0) throw new IllegalArgumentException("tickMillis must be positive");
+        this.tickMillis = tickMillis;
+        this.startMillis = startMillis;
+        for (int bits : BITS) {
+            List<Slot> slots = new ArrayList<>(1 << bits);
+            for (int i = 0; i < 1 << bits; i++) slots.add(new Slot());
+            wheels.add(slots);
+        }
+    }
+
+    /** Schedules item to fire at the first tick at or after deadlineMillis (but never in the current tick). */
+    public synchronized Timer schedule(T item, long deadlineMillis) {
+        long tick = Math.ceilDiv(deadlineMillis - startMillis, tickMillis);
+        Timer t = new Timer(item, Math.max(tick, currentTick + 1));
+        insert(t);
+        size++;
+        return t;
+    }
+
+    /** Runs the ticks up to nowMillis and hands every due item to expired, in deadline order per tick. */
+    public void advance(long nowMillis, Consumer<? super T> expired) {
+        long target = Math.floorDiv(nowMillis - startMillis, tickMillis);
+        while (true) {
+            Timer due;
+            synchronized (this) {
+                if (currentTick >= target) return;
+                if (size == 0) { currentTick = target; return; } // nothing to fire: skip the idle ticks
+                currentTick++;
+                cascade();
+                due = takeSlot(0, (int) (currentTick & mask(0)));
+            }
+            // outside the lock, so expired may schedule or cancel
+            for (Timer t = due; t != null; ) {
+                Timer next = t.next;
+                t.prev = t.next = null;
+                expired.accept(t.item);
+                t = next;
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // at the start of each block of level l, its slot for this block moves down a level
+    private void cascade() {
+        for (int l = 1; l < LEVELS; l++) {
+            if ((currentTick & ((1L << shift(l)) - 1)) != 0) return;
+            Timer t = takeSlot(l, (int) ((currentTick >>> shift(l)) & mask(l)));
+            while (t != null) {
+                Timer next = t.next;
+                t.prev = t.next = null;
+                insert(t);
+                t = next;
+            }
+        }
+    }
+
+    // unlinks the whole slot; timers that are not due yet (clamped far deadlines) go back in
+    private Timer takeSlot(int level, int slot) {
+        Slot owner = wheels.get(level).get(slot);
+        Timer head = owner.head;
+        owner.head = null;
+        if (level > 0) {
+            for (Timer t = head; t != null; t = t.next) t.slot = null;
+            return head;
+        }
+        Timer dueHead = null, dueTail = null;
+        for (Timer t = head; t != null; ) {
+            Timer next = t.next;
+            t.prev = t.next = null;
+            t.slot = null;
+            if (t.deadline > currentTick) {
+                insert(t);
+            } else {
+                size--;
+                if (dueTail == null) dueHead = t; else { dueTail.next = t; t.prev = dueTail; }
+                dueTail = t;
+            }
+            t = next;
+        }
+        return dueHead;
+    }
+
+    private void insert(Timer t) {
+        long at = Math.max(t.deadline, currentTick);
+        long delta = at - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= span(level)) level++;
+        if (delta >= span(level)) at = currentTick + span(level) - 1; // beyond the top level: re-inserted when it comes round
+        Slot owner = wheels.get(level).get((int) ((at >>> shift(level)) & mask(level)));
+        t.slot = owner;
+        t.prev = null;
+        t.next = owner.head;
+        if (owner.head != null) owner.head.prev = t;
+        owner.head = t;
+    }
+
+    private void unlink(Timer t) {
+        if (t.prev != null) t.prev.next = t.next; else t.slot.head = t.next;
+        if (t.next != null) t.next.prev = t.prev;
+        t.prev = t.next = null;
+        t.slot = null;
+    }
+
+    // ticks covered by the levels up to and including this one
+    private static long span(int level) {
+        return 1L << (shift(level) + BITS[level]);
+    }
+
+    private static int shift(int level) {
+        int s = 0;
+        for (int l = 0; l < level; l++) s += BITS[l];
+        return s;
+    }
+
+    private static long mask(int level) {
+        return (1L << BITS[level]) - 1;
+    }
+}
@@ -0,0 +1,271 @@
+package de.tub;
+
+import lombok.extern.java.Log;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Отложенная запись в Postgres для гибридного режима (WRITE_BEHIND=true).
+ * Рынок работает в памяти, а изменения офферов и сделки (строки price_history) копятся здесь.
+ * Несколько изменений одного оффера сливаются в его последнее состояние. Фоновый поток пишет
+ * накопленное одной транзакцией, когда набралось batchSize изменений или самое старое ждёт maxLagMillis.
+ * Если в очереди capacity изменений, вызывающий поток ждёт записи (back-pressure).
+ * close() дописывает всё, что осталось; изменения, пришедшие после close(), не пишутся, а считаются в dropped.
+ */
+@Log
+public class WriteBehind implements AutoCloseable {
+
+    /** Latest state of one offer. Price and quantity are absolute, so writing it twice is harmless. */
+    public record OfferState(String product, String seller, double price, int quantity) {}
+
+    /** One execution, becomes a price_history row. */
+    public record Trade(String product, double price, Instant at) {}
+
+    /**
+     * Writes one batch in one transaction and throws if it was not written.
+     * Returns how many changes the database did not take (unknown seller or product); they are not retried.
+     */
+    public interface Sink {
+        int write(List<OfferState> offers, List<Trade> trades);
+    }
+
+    public record Stats(int pending, long flushedOffers, long flushedTrades, long batches, long coalesced, long stalls,
+                        long skipped, long dropped) {
+        @Override
+        public String toString() {
+            return "pending=" + pending + " offers=" + flushedOffers + " trades=" + flushedTrades
+                    + " batches=" + batches + " coalesced=" + coalesced + " stalls=" + stalls + " skipped=" + skipped
+                    + " dropped=" + dropped;
+        }
+    }
+
+    // a failed batch is retried this often after close() before it is given up
+    private static final int CLOSE_ATTEMPTS = 3;
+
+    private final Sink sink;
+    private final int batchSize;
+    private final int capacity;
+    private final long maxLagNanos;
+    private final Thread writer;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition work = lock.newCondition();  // the writer waits for a due batch
+    private final Condition space = lock.newCondition(); // producers wait while the queue is full
+
+    // guarded by lock
+    private LinkedHashMap<String, OfferState> offers = new LinkedHashMap<>(); // lower(product)/lower(seller)
+    private List<Trade> trades = new ArrayList<>();
+    private long oldestPending; // nanoTime of the oldest unwritten change
+    private boolean closed;
+    private long flushedOffers, flushedTrades, batches, coalesced, stalls, skipped;
+    private long dropped; // changes that came after close(), the market already applied them in memory
+
+    /**
+     * @param batchSize    pending changes that trigger a write right away
+     * @param capacity     pending changes at which callers block until the writer catches up
+     * @param maxLagMillis longest time a change stays only in memory (while the DB is reachable)
+     */
+    public WriteBehind(Sink sink, int batchSize, int capacity, long maxLagMillis) {
+        if (batchSize <= 0 || capacity < batchSize) throw new IllegalArgumentException("bad batch/capacity " + batchSize + "/" + capacity);
+        if (maxLagMillis <= 0) throw new IllegalArgumentException("maxLagMillis must be positive");
+        this.sink = Objects.requireNonNull(sink);
+        this.batchSize = batchSize;
+        this.capacity = capacity;
+        this.maxLagNanos = TimeUnit.MILLISECONDS.toNanos(maxLagMillis);
+        this.writer = new Thread(this::run, "write-behind");
+        this.writer.setDaemon(true);
+    }
+
+    /** WRITE_BEHIND_LAG_MS (1000), WRITE_BEHIND_BATCH (500), WRITE_BEHIND_QUEUE (10000). */
+    public static WriteBehind fromConfig(DbConfig conf, Sink sink) {
+        return new WriteBehind(sink,
+                conf.getInt("WRITE_BEHIND_BATCH", 500),
+                conf.getInt("WRITE_BEHIND_QUEUE", 10_000),
+                conf.getLong("WRITE_BEHIND_LAG_MS", 1000));
+    }
+
+    public WriteBehind start() {
+        writer.start();
+        return this;
+    }
+
+    /** Queues the offer's new state, replacing a still unwritten older one. */
+    public void offerChanged(OfferState offer) {
+        String k = key(offer);
+        lock.lock();
+        try {
+            if (closed) { drop(); return; }
+            if (!offers.containsKey(k) && !awaitSpace()) return;
+            boolean first = pending() == 0;
+            if (offers.put(k, offer) != null) coalesced++;
+            queued(first);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void trade(Trade trade) {
+        Objects.requireNonNull(trade);
+        lock.lock();
+        try {
+            if (!awaitSpace()) return;
+            boolean first = pending() == 0;
+            trades.add(trade);
+            queued(first);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Stats stats() {
+        lock.lock();
+        try {
+            return new Stats(pending(), flushedOffers, flushedTrades, batches, coalesced, stalls, skipped, dropped);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Writes everything still queued and stops the writer. */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            work.signal();
+            space.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (writer.getState() == Thread.State.NEW) {
+            run(); // never started: drain on the caller's thread
+            return;
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // false (and counted as dropped) once closed: the writer may already be gone, nothing queued now is written
+    private boolean awaitSpace() {
+        if (!closed && pending() >= capacity) {
+            stalls++;
+            while (!closed && pending() >= capacity) space.awaitUninterruptibly();
+        }
+        if (closed) drop();
+        return !closed;
+    }
+
+    private void drop() {
+        if (dropped++ == 0) log.warning("Write-behind is closed, changes made from now on are not written to the database");
+    }
+
+    // the first change starts the writer's lag timer, a full batch ends it
+    private void queued(boolean first) {
+        if (first) oldestPending = System.nanoTime();
+        if (first || pending() >= batchSize) work.signal();
+    }
+
+    private int pending() {
+        return offers.size() + trades.size();
+    }
+
+    private void run() {
+        int closeFailures = 0;
+        while (true) {
+            List<OfferState> o;
+            List<Trade> t;
+            long oldest;
+            lock.lock();
+            try {
+                while (!closed && !due()) {
+                    if (pending() == 0) work.awaitUninterruptibly();
+                    else awaitNanos(oldestPending + maxLagNanos - System.nanoTime());
+                }
+                if (pending() == 0) return; // closed and drained
+                o = new ArrayList<>(offers.values());
+                t = trades;
+                oldest = oldestPending;
+                offers = new LinkedHashMap<>();
+                trades = new ArrayList<>();
+                space.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                int dropped = sink.write(o, t);
+                if (dropped > 0) log.warning("Write-behind: " + dropped + " changes had no seller account or product in the database");
+                lock.lock();
+                try {
+                    flushedOffers += o.size();
+                    flushedTrades += t.size();
+                    batches++;
+                    skipped += dropped;
+                } finally {
+                    lock.unlock();
+                }
+            } catch (RuntimeException e) {
+                log.warning("Write-behind flush of " + (o.size() + t.size()) + " changes failed: " + e.getMessage());
+                if (requeue(o, t, oldest) && ++closeFailures >= CLOSE_ATTEMPTS) {
+                    log.severe("Write-behind gave up on " + stats().pending() + " changes after shutdown");
+                    return;
+                }
+                sleepBeforeRetry();
+            }
+        }
+    }
+
+    private boolean due() {
+        return pending() >= batchSize
+                || (pending() > 0 && System.nanoTime() - oldestPending >= maxLagNanos);
+    }
+
+    private void awaitNanos(long nanos) {
+        try {
+            work.awaitNanos(nanos);
+        } catch (InterruptedException ignore) {
+            // the writer is stopped by close(), not by interrupts
+        }
+    }
+
+    // puts a failed batch back in front of what was queued meanwhile; newer offer states win
+    private boolean requeue(List<OfferState> o, List<Trade> t, long oldest) {
+        lock.lock();
+        try {
+            LinkedHashMap<String, OfferState> merged = new LinkedHashMap<>();
+            for (OfferState s : o) merged.put(key(s), s);
+            merged.putAll(offers);
+            List<Trade> all = new ArrayList<>(t);
+            all.addAll(trades);
+            offers = merged;
+            trades = all;
+            oldestPending = oldest;
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void sleepBeforeRetry() {
+        try {
+            Thread.sleep(Math.max(100, TimeUnit.NANOSECONDS.toMillis(maxLagNanos)));
+        } catch (InterruptedException ignore) {
+            // retry right away
+        }
+    }
+
+    private static String key(OfferState o) {
+        return o.product().toLowerCase(Locale.ROOT) + '\0' + o.seller().toLowerCase(Locale.ROOT);
+    }
+}
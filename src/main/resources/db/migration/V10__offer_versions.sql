@@ -0,0 +1,2 @@
+-- every write to an offer increments version; a buy updates the offer only if it still has the version it was read with
+ALTER TABLE offers ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 0;
@@ -0,0 +1,12 @@
+-- holds: units taken out of an offer for a buyer until they are confirmed, released or expire.
+-- The offer's quantity no longer contains them; releasing a hold adds them back.
+CREATE TABLE IF NOT EXISTS holds (
+  id          BIGSERIAL PRIMARY KEY,
+  product_id  BIGINT NOT NULL,
+  seller_id   BIGINT NOT NULL,
+  buyer       TEXT NOT NULL,
+  quantity    INTEGER NOT NULL CHECK (quantity > 0),
+  price       DOUBLE PRECISION NOT NULL,
+  expires_at  TIMESTAMPTZ NOT NULL,
+  FOREIGN KEY (product_id, seller_id) REFERENCES offers(product_id, seller_id) ON DELETE CASCADE
+);
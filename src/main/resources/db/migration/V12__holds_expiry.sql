@@ -0,0 +1,2 @@
+-- every instance looks for expired holds (of any instance) every few seconds
+CREATE INDEX IF NOT EXISTS idx_holds_expires ON holds(expires_at);
@@ -0,0 +1,7 @@
+-- order book: offers per product by price, ties by listing time
+ALTER TABLE offers
+    ADD COLUMN IF NOT EXISTS listed_at TIMESTAMPTZ NOT NULL DEFAULT now();
+
+CREATE INDEX IF NOT EXISTS idx_offers_book
+    ON offers(product_id, price, listed_at)
+    WHERE quantity > 0;
@@ -0,0 +1,13 @@
+-- bids: resting buy orders, quantity is what is still open
+CREATE TABLE IF NOT EXISTS bids (
+  id          BIGSERIAL PRIMARY KEY,
+  product_id  TEXT NOT NULL REFERENCES products(id) ON DELETE CASCADE,
+  buyer       TEXT NOT NULL,
+  limit_price DOUBLE PRECISION NOT NULL,
+  quantity    INTEGER NOT NULL CHECK (quantity >= 0),
+  created_at  TIMESTAMPTZ NOT NULL DEFAULT now()
+);
+
+CREATE INDEX IF NOT EXISTS idx_bids_open
+    ON bids(product_id, limit_price DESC, created_at)
+    WHERE quantity > 0;
@@ -0,0 +1,3 @@
+-- "my offers": offers of one seller without scanning the whole table
+CREATE INDEX IF NOT EXISTS idx_offers_seller
+    ON offers(lower(seller), product_id);
@@ -0,0 +1,87 @@
+-- BIGINT surrogate keys.
+-- products.id becomes a BIGINT identity, the old TEXT id stays as products.code (the ID shown and entered in the console).
+-- offers.seller becomes offers.seller_id -> users.id. Case-folded names are stored once: products.name_key, users.login_key.
+
+-- logins, seller names in offers and product names that differ only in case would collide on the new keys;
+-- nothing is renamed or merged here, the migration stops and lists them so they can be resolved by hand
+DO $$
+DECLARE
+    seller_names TEXT;
+    product_names TEXT;
+BEGIN
+    SELECT string_agg(spellings, '; ') INTO seller_names FROM (
+        SELECT string_agg(DISTINCT name, ', ' ORDER BY name) AS spellings
+        FROM (SELECT login AS name FROM users UNION SELECT seller FROM offers) n
+        GROUP BY lower(name) HAVING count(DISTINCT name) > 1
+    ) c;
+    SELECT string_agg(spellings, '; ') INTO product_names FROM (
+        SELECT string_agg(name || ' [' || id || ']', ', ' ORDER BY id) AS spellings
+        FROM products GROUP BY lower(name) HAVING count(*) > 1
+    ) c;
+    IF seller_names IS NOT NULL OR product_names IS NOT NULL THEN
+        RAISE EXCEPTION 'V8: names that differ only in case must be made unique before this migration. %',
+            concat_ws(' | ', 'logins/sellers: ' || seller_names, 'products [id]: ' || product_names);
+    END IF;
+END $$;
+
+-- sellers that so far only existed as text in offers get an account without a usable password
+INSERT INTO users (login, password_hash, role)
+SELECT DISTINCT ON (lower(o.seller)) o.seller, crypt(gen_random_uuid()::text, gen_salt('bf')), 'seller'
+FROM offers o
+WHERE NOT EXISTS (SELECT 1 FROM users u WHERE lower(u.login) = lower(o.seller))
+ORDER BY lower(o.seller), o.seller;
+
+-- initial stock added by an admin is listed by this seller
+INSERT INTO users (login, password_hash, role)
+SELECT 'Stock', crypt(gen_random_uuid()::text, gen_salt('bf')), 'seller'
+WHERE NOT EXISTS (SELECT 1 FROM users WHERE lower(login) = 'stock');
+
+ALTER TABLE users ADD COLUMN login_key TEXT GENERATED ALWAYS AS (lower(login)) STORED;
+CREATE UNIQUE INDEX idx_users_login_key ON users(login_key);
+
+ALTER TABLE products RENAME COLUMN id TO code;
+ALTER TABLE products ADD COLUMN id BIGINT GENERATED BY DEFAULT AS IDENTITY;
+ALTER TABLE products ADD COLUMN name_key TEXT GENERATED ALWAYS AS (lower(name)) STORED;
+
+-- offers: (product_id TEXT, seller TEXT) -> (product_id BIGINT, seller_id BIGINT)
+ALTER TABLE offers ADD COLUMN product_key BIGINT, ADD COLUMN seller_id BIGINT;
+UPDATE offers o SET product_key = p.id FROM products p WHERE p.code = o.product_id;
+UPDATE offers o SET seller_id = u.id FROM users u WHERE u.login_key = lower(o.seller);
+
+-- dropping the TEXT columns also drops their FKs and indexes (idx_offers_product, idx_offers_book, idx_offers_seller)
+ALTER TABLE offers DROP CONSTRAINT offers_pkey;
+ALTER TABLE offers DROP COLUMN product_id, DROP COLUMN seller;
+ALTER TABLE offers RENAME COLUMN product_key TO product_id;
+ALTER TABLE offers ALTER COLUMN product_id SET NOT NULL, ALTER COLUMN seller_id SET NOT NULL;
+
+ALTER TABLE price_history ADD COLUMN product_key BIGINT;
+UPDATE price_history h SET product_key = p.id FROM products p WHERE p.code = h.product_id;
+ALTER TABLE price_history DROP COLUMN product_id;
+ALTER TABLE price_history RENAME COLUMN product_key TO product_id;
+ALTER TABLE price_history ALTER COLUMN product_id SET NOT NULL;
+
+ALTER TABLE bids ADD COLUMN product_key BIGINT;
+UPDATE bids b SET product_key = p.id FROM products p WHERE p.code = b.product_id;
+ALTER TABLE bids DROP COLUMN product_id;
+ALTER TABLE bids RENAME COLUMN product_key TO product_id;
+ALTER TABLE bids ALTER COLUMN product_id SET NOT NULL;
+
+-- nothing references the TEXT key any more
+ALTER TABLE products DROP CONSTRAINT products_pkey;
+ALTER TABLE products ADD PRIMARY KEY (id);
+ALTER TABLE products ADD CONSTRAINT products_code_key UNIQUE (code);
+DROP INDEX IF EXISTS idx_products_name;
+CREATE UNIQUE INDEX idx_products_name_key ON products(name_key);
+
+ALTER TABLE offers
+    ADD PRIMARY KEY (product_id, seller_id),
+    ADD FOREIGN KEY (product_id) REFERENCES products(id) ON DELETE CASCADE,
+    ADD FOREIGN KEY (seller_id) REFERENCES users(id);
+ALTER TABLE price_history ADD FOREIGN KEY (product_id) REFERENCES products(id) ON DELETE CASCADE;
+ALTER TABLE bids ADD FOREIGN KEY (product_id) REFERENCES products(id) ON DELETE CASCADE;
+
+-- covering indexes: the order book, "my offers" and the last trades are answered from the index alone
+CREATE INDEX idx_offers_book ON offers(product_id, price, listed_at) INCLUDE (seller_id, quantity) WHERE quantity > 0;
+CREATE INDEX idx_offers_seller ON offers(seller_id) INCLUDE (product_id, price, quantity);
+CREATE INDEX idx_price_history_prod_created ON price_history(product_id, created_at DESC) INCLUDE (price);
+CREATE INDEX idx_bids_open ON bids(product_id, limit_price DESC, created_at) WHERE quantity > 0;
@@ -0,0 +1,12 @@
+-- client order ids of recent buys: a retried order finds its row and gets the first result instead of trading again.
+-- The row is written in the trade's transaction; rows older than the dedup window are purged by the app.
+CREATE TABLE IF NOT EXISTS client_orders (
+  client_order_id TEXT PRIMARY KEY,
+  product         TEXT NOT NULL,
+  seller          TEXT NOT NULL,
+  quantity        INT NOT NULL,
+  filled          BOOLEAN NOT NULL DEFAULT false,
+  created_at      TIMESTAMPTZ NOT NULL DEFAULT now()
+);
+
+CREATE INDEX IF NOT EXISTS idx_client_orders_created ON client_orders(created_at);
@@ -0,0 +1,86 @@
+package de.tub;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchConsoleTest {
+
+    private static String run(Market market, String script, BatchConsole[] console) {
+        StringWriter sw = new StringWriter();
+        console[0] = new BatchConsole(market, new StringReader(script), new PrintWriter(sw));
+        console[0].run();
+        return sw.toString();
+    }
+
+    @Test
+    void run_shouldExecuteCommandsWithoutPrompts() {
+        Market market = new Market();
+        market.addProductModel("p1", "Green Tea", "Drinks", 10);
+        BatchConsole[] console = new BatchConsole[1];
+
+        String out = run(market, """
+                # buy, then look at the catalog
+                buy "Green Tea" Stock 4
+                buy "green tea" * 2
+                list
+                """, console);
+
+        assertEquals(4, market.getOffer("Green Tea", "Stock").getQuantity());
+        assertFalse(out.contains("Press Enter"));
+        assertFalse(out.contains("\033["));
+        assertTrue(out.contains("> list"));
+        assertTrue(out.contains("Product: Green Tea"), out);
+        assertTrue(out.contains("# buy "));
+        assertEquals(0, console[0].errors());
+    }
+
+    @Test
+    void run_shouldReportErrorsAndKeepGoing() {
+        Market market = new Market();
+        market.addProductModel("p1", "Apple", "Fruit", 5);
+        BatchConsole[] console = new BatchConsole[1];
+
+        String out = run(market, """
+                frobnicate
+                buy Apple Stock many
+                sell Apple 3 1.0
+                buy Apple Stock 9
+                buy Apple Stock 1
+                quit
+                buy Apple Stock 1
+                """, console);
+
+        assertEquals(4, console[0].errors());
+        assertTrue(out.contains("[ERROR] line 1: unknown command"));
+        assertTrue(out.contains("[ERROR] line 2: not an integer: many"));
+        assertTrue(out.contains("[ERROR] line 3: access denied"));
+        assertTrue(out.contains("[FAIL] Not bought"));
+        assertEquals(4, market.getOffer("Apple", "Stock").getQuantity()); // nothing after quit
+    }
+
+    @Test
+    void run_shouldSummarizeTimingPerCommand() {
+        Market market = new Market();
+        market.addProductModel("p1", "Apple", "Fruit", 5);
+        StringWriter sw = new StringWriter();
+
+        List<BatchConsole.Timing> timings = new BatchConsole(market,
+                new StringReader("buy Apple Stock 1\nbuy Apple Stock 1\nhistory Apple\n"), new PrintWriter(sw)).run();
+
+        assertEquals(List.of("buy", "history"), timings.stream().map(BatchConsole.Timing::command).toList());
+        assertEquals(2, timings.get(0).calls());
+        assertTrue(timings.get(0).maxNanos() <= timings.get(0).totalNanos());
+    }
+
+    @Test
+    void split_shouldKeepQuotedSpaces() {
+        assertEquals(List.of("buy", "Green Tea", "*", "2"), BatchConsole.split("buy  \"Green Tea\" * 2"));
+        assertEquals(List.of("x", ""), BatchConsole.split("x \"\""));
+    }
+}
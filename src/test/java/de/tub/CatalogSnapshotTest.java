@@ -0,0 +1,39 @@
+package de.tub;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CatalogSnapshotTest {
+
+    private static CatalogSnapshot.Product product(String name, String category) {
+        return new CatalogSnapshot.Product(name, name, category, List.of(), List.of());
+    }
+
+    @Test
+    void with_shouldLeaveOlderVersionUnchanged() {
+        CatalogSnapshot v1 = CatalogSnapshot.EMPTY.with(product("Apple", "Fruit"));
+        CatalogSnapshot v2 = v1.with(List.of(product("apple", "Vegetable"), product("Milk", "Dairy")));
+
+        assertEquals(1, v1.size());
+        assertEquals("Fruit", v1.find("Apple").category());
+        assertEquals(2, v2.size());
+        assertEquals("Vegetable", v2.find("APPLE").category());
+        assertEquals(v1.version() + 1, v2.version());
+    }
+
+    @Test
+    void with_shouldSpanSeveralChunks() {
+        List<CatalogSnapshot.Product> many = new ArrayList<>();
+        for (int i = 0; i < 200; i++) many.add(product("P" + i, "C"));
+        CatalogSnapshot s = CatalogSnapshot.EMPTY.with(many).with(product("P150", "D"));
+
+        assertEquals(200, s.size());
+        assertEquals("P199", s.products().get(199).name());
+        assertEquals("D", s.find("p150").category());
+        assertEquals(List.of("P150"), s.search("d").stream().map(CatalogSnapshot.Product::name).toList());
+    }
+}
@@ -0,0 +1,65 @@
+package de.tub;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CategoryFacetsTest {
+
+    @Test
+    void counts_shouldFollowStockChanges() {
+        CategoryFacets f = new CategoryFacets();
+        f.addProduct("Apple", "Fruit");
+        f.addProduct("Banana", "Fruit");
+        f.addProduct("Milk", "Dairy");
+        f.offerChanged("Apple", "alice", 2.0, 5);
+
+        assertEquals(new CategoryFacets.Count(2, 1), f.counts().get("Fruit"));
+
+        f.offerChanged("Apple", "alice", 2.0, 0);
+
+        assertEquals(new CategoryFacets.Count(2, 0), f.counts().get("Fruit"));
+        assertEquals(new CategoryFacets.Count(1, 0), f.counts().get("Dairy"));
+    }
+
+    @Test
+    void counts_shouldKeepFirstSeenCategoryOrder() {
+        CategoryFacets f = new CategoryFacets();
+        for (String c : List.of("Vegetable", "Dairy", "Fruit", "Bakery", "Drinks", "Meat")) f.addProduct(c + " item", c);
+        f.addProduct("Another vegetable", "vegetable");
+
+        assertEquals(List.of("Vegetable", "Dairy", "Fruit", "Bakery", "Drinks", "Meat"), List.copyOf(f.counts().keySet()));
+    }
+
+    @Test
+    void browse_shouldIntersectCategoryStockAndPrice() {
+        CategoryFacets f = new CategoryFacets();
+        f.addProduct("Apple", "Fruit");
+        f.addProduct("Banana", "Fruit");
+        f.addProduct("Cherry", "Fruit");
+        f.addProduct("Milk", "Dairy");
+        f.offerChanged("Apple", "alice", 1.5, 5);
+        f.offerChanged("Banana", "alice", 7.0, 5);
+        f.offerChanged("Banana", "bob", 3.0, 5);   // best price of Banana is 3.0
+        f.offerChanged("Milk", "alice", 3.0, 5);
+
+        CategoryFacets.Query q = CategoryFacets.Query.category("fruit").inStock().price(2.5, 6.0);
+
+        assertEquals(List.of("Banana"), f.browse(q, 0, 10));
+        assertEquals(List.of("Apple", "Banana"), f.browse(CategoryFacets.Query.category("Fruit").inStock(), 0, 10));
+        assertEquals(List.of("Banana", "Cherry"), f.browse(CategoryFacets.Query.category("Fruit"), 1, 10));
+    }
+
+    @Test
+    void addProduct_shouldMoveProductToNewCategory() {
+        CategoryFacets f = new CategoryFacets();
+        f.addProduct("Tomato", "Fruit");
+        f.offerChanged("Tomato", "alice", 1.0, 1);
+        f.addProduct("Tomato", "Vegetable");
+
+        assertNull(f.counts().get("Fruit"));
+        assertEquals(new CategoryFacets.Count(1, 1), f.counts().get("Vegetable"));
+    }
+}
@@ -0,0 +1,76 @@
+package de.tub;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactCatalogTest {
+
+    @Test
+    void putOffer_shouldUpsertBySeller() {
+        CompactCatalog c = new CompactCatalog();
+        int apple = c.addProduct("1", "Apple", "Fruit");
+        c.putOffer(apple, "alice", 2.0, 5);
+        c.putOffer(apple, "bob", 3.0, 1);
+        c.putOffer(apple, "alice", 2.5, 4);
+
+        assertEquals(2, c.offerCount(apple));
+        assertEquals(2L, c.offerCount());
+        assertEquals(2.5, c.price(apple, 0));
+        assertEquals(4, c.quantity(apple, 0));
+        assertEquals(apple, c.indexOf("APPLE"));
+    }
+
+    @Test
+    void model_shouldMaterializeProductModelView() {
+        ProductModel m = ProductModel.builder().id("1").name("Apple").category("Fruit").build();
+        m.addOffer(ProductOffer.builder().seller("alice").price(2.0).quantity(5).build());
+        CompactCatalog c = CompactCatalog.of(List.of(m));
+
+        ProductModel view = c.models().get(0);
+
+        assertEquals("Apple", view.getName());
+        assertEquals("Fruit", view.getCategory());
+        assertEquals("alice", view.getOffers().get(0).getSeller());
+        assertEquals(5, view.getAvailableQuantity());
+    }
+
+    @Test
+    void model_shouldWritePriceAndQuantityToTheColumns() {
+        CompactCatalog c = new CompactCatalog();
+        int apple = c.addProduct("1", "Apple", "Fruit");
+        c.putOffer(apple, "alice", 2.0, 5);
+        ProductOffer offer = c.models().get(0).getOffers().get(0);
+
+        offer.setQuantity(3);
+        offer.setPrice(2.2);
+
+        assertEquals(3, c.quantity(apple, 0));
+        assertEquals(2.2, c.price(apple, 0));
+    }
+
+    @Test
+    void market_shouldTradeOnCatalogViews() {
+        CompactCatalog c = new CompactCatalog();
+        int apple = c.addProduct("1", "Apple", "Fruit");
+        c.putOffer(apple, "alice", 2.0, 5);
+        Market market = new Market(c.models());
+
+        assertTrue(market.buyFromOffer("Apple", "alice", 2));
+
+        assertEquals(3, c.quantity(apple, 0));
+        assertEquals(3, market.snapshot().find("apple").availableQuantity());
+    }
+
+    @Test
+    void dictionary_shouldShareOneStringPerValue() {
+        Dictionary d = new Dictionary();
+        String a = d.intern(new String("alice"));
+        String b = d.intern(new String("alice"));
+
+        assertSame(a, b);
+        assertEquals(1, d.size());
+    }
+}
@@ -21,9 +21,9 @@ public class ConsoleTest {
 
         console.addProduct();
 
-        List<ProductModel> products = market.listAllModels();
+        List<CatalogSnapshot.Product> products = market.listAllModels();
         assertEquals(1, products.size());
-        assertEquals("TestProduct", products.get(0).getName());
+        assertEquals("TestProduct", products.get(0).name());
     }
 
     @Test
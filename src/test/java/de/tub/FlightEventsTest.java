@@ -0,0 +1,83 @@
+package de.tub;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlightEventsTest {
+
+    private static List<RecordedEvent> record(Runnable work) throws Exception {
+        Path file = Files.createTempFile("flight-events", ".jfr");
+        try (Recording r = new Recording()) {
+            r.enable(FlightEvents.MarketOperation.class);
+            r.enable(FlightEvents.Pricing.class);
+            r.start();
+            work.run();
+            r.stop();
+            r.dump(file);
+            return RecordingFile.readAllEvents(file);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void buyFromOffer_shouldRecordOperationAndPricing() throws Exception {
+        Market market = new Market();
+        market.addProductModel("p1", "Green Tea", "Drinks", 10);
+
+        List<RecordedEvent> events = record(() -> assertTrue(market.buyFromOffer("Green Tea", "Stock", 2)));
+
+        RecordedEvent op = events.stream()
+                .filter(e -> e.getEventType().getName().equals("de.tub.MarketOperation"))
+                .filter(e -> "buyFromOffer".equals(e.getString("operation")))
+                .findFirst().orElseThrow();
+        assertEquals("Green Tea", op.getString("product"));
+        assertTrue(events.stream().anyMatch(e -> e.getEventType().getName().equals("de.tub.Pricing")
+                && e.getInt("quantity") == 2));
+    }
+
+    @Test
+    void query_shouldCountRowsChangedByTheStatement() throws Exception {
+        PreparedStatement ps = stub(PreparedStatement.class, (m, args) -> m.equals("executeUpdate") ? 2 : null);
+        Connection c = stub(Connection.class, (m, args) -> m.equals("prepareStatement") ? ps : null);
+        DataSource ds = stub(DataSource.class, (m, args) -> m.equals("getConnection") ? c : null);
+        JdbcMarketRepository repo = new JdbcMarketRepository(ds);
+
+        Path file = Files.createTempFile("flight-events", ".jfr");
+        try (Recording r = new Recording()) {
+            r.enable(FlightEvents.Query.class);
+            r.start();
+            assertEquals(2, repo.purgeClientOrders(1_000));
+            r.stop();
+            r.dump(file);
+            RecordedEvent q = RecordingFile.readAllEvents(file).stream()
+                    .filter(e -> e.getEventType().getName().equals("de.tub.Query"))
+                    .findFirst().orElseThrow();
+            assertEquals("purgeClientOrders", q.getString("label"));
+            assertEquals(2, q.getLong("rows"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private interface Answer {
+        Object answer(String method, Object[] args);
+    }
+
+    private static <T> T stub(Class<T> type, Answer a) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+                (p, m, args) -> a.answer(m.getName(), args)));
+    }
+}
@@ -0,0 +1,54 @@
+package de.tub;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LeaderboardsTest {
+
+    @Test
+    void cheapest_shouldFollowBestPriceAndStock() {
+        Leaderboards l = new Leaderboards();
+        l.bestPriceChanged("Apple", "Fruit", 3.0);
+        l.bestPriceChanged("Banana", "Fruit", 1.0);
+        l.bestPriceChanged("Cherry", "Fruit", 2.0);
+        l.bestPriceChanged("Milk", "Dairy", 0.5);
+
+        assertEquals(List.of("Banana", "Cherry"), names(l.cheapest("fruit", 2)));
+
+        l.bestPriceChanged("Banana", "Fruit", Double.NaN); // sold out
+        l.bestPriceChanged("Apple", "Fruit", 1.5);
+
+        assertEquals(List.of("Apple", "Cherry"), names(l.cheapest("Fruit", 2)));
+    }
+
+    @Test
+    void topMovers_shouldRankByAbsoluteChange() {
+        Leaderboards l = new Leaderboards();
+        l.trade("Apple", 10.0);
+        l.trade("Apple", 11.0);    // +10%
+        l.trade("Banana", 10.0);
+        l.trade("Banana", 7.0);    // -30%
+        l.load(new Leaderboards.TradeStats("Milk", 5, 2.0, 3.0)); // +50%
+
+        assertEquals(List.of("Milk", "Banana", "Apple"), names(l.topMovers(3)));
+        assertEquals(-0.3, l.topMovers(2).get(1).value(), 1e-9);
+    }
+
+    @Test
+    void mostTraded_shouldCountTrades() {
+        Leaderboards l = new Leaderboards();
+        l.load(new Leaderboards.TradeStats("Milk", 2, 1.0, 1.0));
+        l.trade("Apple", 1.0);
+        l.trade("Milk", 1.0);
+
+        assertEquals(List.of("Milk", "Apple"), names(l.mostTraded(5)));
+        assertEquals(3.0, l.mostTraded(1).get(0).value());
+    }
+
+    private static List<String> names(List<Leaderboards.Entry> entries) {
+        return entries.stream().map(Leaderboards.Entry::product).toList();
+    }
+}
@@ -0,0 +1,135 @@
+package de.tub;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MarketEventPublisherTest {
+
+    /** Records events; requests nothing until told to. */
+    private static class Recorder implements Flow.Subscriber<MarketEvent> {
+        final List<MarketEvent> received = new ArrayList<>();
+        Flow.Subscription subscription;
+
+        @Override public void onSubscribe(Flow.Subscription s) { subscription = s; }
+        @Override public void onNext(MarketEvent e) { received.add(e); }
+        @Override public void onError(Throwable t) { fail(t.toString()); }
+        @Override public void onComplete() {}
+    }
+
+    private static MarketEvent.OfferChanged offer(String product, String seller, double price, int qty) {
+        return new MarketEvent.OfferChanged(product, "Fruit", seller, price, qty);
+    }
+
+    @Test
+    void publish_shouldDeliverOnlyRequestedEvents() {
+        MarketEventPublisher publisher = new MarketEventPublisher(Runnable::run, 16);
+        Recorder r = new Recorder();
+        publisher.subscribe(r);
+
+        publisher.publish(offer("Banana", "alice", 1.0, 5));
+        publisher.publish(offer("Banana", "bob", 1.0, 5));
+        assertTrue(r.received.isEmpty());
+
+        r.subscription.request(1);
+        assertEquals(1, r.received.size());
+    }
+
+    @Test
+    void publish_shouldConflateOfferUpdatesForSlowSubscriber() {
+        MarketEventPublisher publisher = new MarketEventPublisher(Runnable::run, 16);
+        Recorder r = new Recorder();
+        publisher.subscribe(r);
+
+        for (int i = 1; i <= 10; i++) publisher.publish(offer("Banana", "alice", i, 5));
+        publisher.publish(new MarketEvent.Trade("Banana", "Fruit", "alice", 1, 10.0));
+        publisher.publish(new MarketEvent.Trade("Banana", "Fruit", "alice", 1, 10.0));
+        r.subscription.request(Long.MAX_VALUE);
+
+        assertEquals(3, r.received.size());
+        assertEquals(10.0, ((MarketEvent.OfferChanged) r.received.get(0)).price());
+    }
+
+    @Test
+    void publish_shouldDropOldestWhenBufferIsFull() {
+        MarketEventPublisher publisher = new MarketEventPublisher(Runnable::run, 2);
+        Recorder r = new Recorder();
+        publisher.subscribe(r);
+
+        publisher.publish(offer("Banana", "a", 1.0, 1));
+        publisher.publish(offer("Banana", "b", 1.0, 1));
+        publisher.publish(offer("Banana", "c", 1.0, 1));
+        r.subscription.request(10);
+
+        assertEquals(2, r.received.size());
+        assertEquals("b", r.received.get(0).seller());
+    }
+
+    @Test
+    void publish_shouldDeliverNewerOfferStateAfterEarlierTrade() {
+        MarketEventPublisher publisher = new MarketEventPublisher(Runnable::run, 16);
+        Recorder r = new Recorder();
+        publisher.subscribe(r);
+
+        publisher.publish(offer("Banana", "alice", 1.0, 5));
+        publisher.publish(new MarketEvent.Trade("Banana", "Fruit", "alice", 1, 1.0));
+        publisher.publish(offer("Banana", "alice", 1.1, 4));
+        r.subscription.request(10);
+
+        assertEquals(2, r.received.size());
+        assertInstanceOf(MarketEvent.Trade.class, r.received.get(0));
+        assertEquals(4, ((MarketEvent.OfferChanged) r.received.get(1)).quantity());
+    }
+
+    @Test
+    void publish_shouldDropOfferStatesBeforeTrades() {
+        MarketEventPublisher publisher = new MarketEventPublisher(Runnable::run, 2);
+        Recorder r = new Recorder();
+        publisher.subscribe(r);
+
+        publisher.publish(new MarketEvent.Trade("Banana", "Fruit", "a", 1, 1.0));
+        publisher.publish(offer("Banana", "a", 1.0, 1));
+        publisher.publish(offer("Banana", "b", 1.0, 1));
+        publisher.publish(new MarketEvent.Trade("Banana", "Fruit", "b", 1, 1.0));
+        MarketEventPublisher.Subscription s = (MarketEventPublisher.Subscription) r.subscription;
+        r.subscription.request(10);
+
+        assertEquals(2, r.received.size());
+        assertInstanceOf(MarketEvent.Trade.class, r.received.get(0));
+        assertInstanceOf(MarketEvent.Trade.class, r.received.get(1));
+        assertEquals(2, s.dropped());
+        assertEquals(0, s.droppedTrades());
+    }
+
+    @Test
+    void subscribe_shouldFilterByCategoryAndSeller() {
+        MarketEventPublisher publisher = new MarketEventPublisher(Runnable::run, 16);
+        Recorder r = new Recorder();
+        publisher.subscribe(r, new MarketEventPublisher.Filter(null, "fruit", "ALICE"));
+        r.subscription.request(10);
+
+        publisher.publish(offer("Banana", "alice", 1.0, 1));
+        publisher.publish(offer("Banana", "bob", 1.0, 1));
+        publisher.publish(new MarketEvent.OfferChanged("Milk", "Dairy", "alice", 1.0, 1));
+
+        assertEquals(1, r.received.size());
+    }
+
+    @Test
+    void cancel_shouldStopDelivery() {
+        MarketEventPublisher publisher = new MarketEventPublisher(Runnable::run, 16);
+        Recorder r = new Recorder();
+        publisher.subscribe(r);
+        r.subscription.request(10);
+        r.subscription.cancel();
+
+        publisher.publish(offer("Banana", "alice", 1.0, 1));
+
+        assertTrue(r.received.isEmpty());
+        assertFalse(publisher.hasSubscribers());
+    }
+}
@@ -3,8 +3,18 @@ package de.tub;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -29,10 +39,10 @@ class MarketTest {
         market.addProductModel("123", "Banana", "Fruit", 100);
         market.addOfferToExistingProduct("Banana", offer);
 
-        List<ProductModel> models = market.listAllModels();
+        List<CatalogSnapshot.Product> models = market.listAllModels();
         assertEquals(1, models.size());
-        assertEquals("Banana", models.get(0).getName());
-        assertEquals("123", models.get(0).getId());
+        assertEquals("Banana", models.get(0).name());
+        assertEquals("123", models.get(0).id());
     }
 
     @Test
@@ -135,5 +145,369 @@ class MarketTest {
         assertEquals(3, history.size());
         assertEquals(11.0, history.get(0)); 
     }
-}
 
+    @Test
+    void marketBuy_shouldSweepCheapestOffers() {
+        market.addProductModel("123", "Banana", "Fruit", 0);
+        market.updateOffer("Banana", "alice", 3, 1.0);
+        market.updateOffer("Banana", "bob", 5, 2.0);
+        market.updateOffer("Banana", "carol", 5, 3.0);
+
+        List<Market.Fill> fills = market.marketBuy("Banana", 5);
+
+        assertEquals(2, fills.size());
+        assertEquals("alice", fills.get(0).seller());
+        assertEquals(3, fills.get(0).quantity());
+        assertEquals("bob", fills.get(1).seller());
+        assertEquals(2, fills.get(1).quantity());
+        assertEquals(0, market.getOffer("Banana", "alice").getQuantity());
+        assertEquals(3, market.getOffer("Banana", "bob").getQuantity());
+        assertTrue(market.getOffer("Banana", "bob").getPrice() > 2.0);
+    }
+
+    @Test
+    void marketBuy_shouldBuyNothingWhenStockIsShort() {
+        market.addProductModel("123", "Banana", "Fruit", 0);
+        market.updateOffer("Banana", "alice", 3, 1.0);
+
+        assertTrue(market.marketBuy("Banana", 4).isEmpty());
+        assertEquals(3, market.getOffer("Banana", "alice").getQuantity());
+    }
+
+    @Test
+    void getBestOffer_shouldFollowTrades() {
+        market.addProductModel("123", "Banana", "Fruit", 0);
+        market.updateOffer("Banana", "alice", 2, 1.0);
+        market.updateOffer("Banana", "bob", 5, 2.0);
+
+        market.buyFromOffer("Banana", "alice", 2);
+
+        assertEquals("bob", market.getBestOffer("Banana").getSeller());
+    }
+
+    @Test
+    void placeBid_shouldRestUntilOfferCrosses() {
+        market.addProductModel("123", "Banana", "Fruit", 0);
+        market.updateOffer("Banana", "alice", 10, 3.0);
+
+        Bid bid = market.placeBid("Banana", "bob", 4, 2.0);
+        assertEquals(4, bid.getQuantity());
+        assertEquals(10, market.getOffer("Banana", "alice").getQuantity());
+
+        market.updateOffer("Banana", "carol", 3, 1.5);
+
+        assertEquals(1, bid.getQuantity());
+        assertEquals(0, market.getOffer("Banana", "carol").getQuantity());
+        assertEquals(1, market.listBids("Banana").size());
+    }
+
+    @Test
+    void placeBid_shouldFillRightAwayWhenOfferIsCheapEnough() {
+        market.addProductModel("123", "Banana", "Fruit", 0);
+        market.updateOffer("Banana", "alice", 10, 1.0);
+
+        Bid bid = market.placeBid("Banana", "bob", 4, 2.0);
+
+        assertEquals(0, bid.getQuantity());
+        assertEquals(6, market.getOffer("Banana", "alice").getQuantity());
+        assertTrue(market.listBids("Banana").isEmpty());
+    }
+
+    @Test
+    void cancelBid_shouldRemoveRestingBid() {
+        market.addProductModel("123", "Banana", "Fruit", 0);
+        Bid bid = market.placeBid("Banana", "bob", 4, 2.0);
+
+        assertTrue(market.cancelBid(bid.getId()));
+        market.updateOffer("Banana", "alice", 10, 1.0);
+
+        assertEquals(10, market.getOffer("Banana", "alice").getQuantity());
+    }
+
+    @Test
+    void listOffersBySeller_shouldPageByProductName() {
+        market.addProductModel("1", "Cherry", "Fruit", 0);
+        market.addProductModel("2", "Apple", "Fruit", 0);
+        market.addProductModel("3", "Banana", "Fruit", 0);
+        market.updateOffer("Cherry", "alice", 1, 3.0);
+        market.updateOffer("Apple", "Alice", 1, 1.0);
+        market.updateOffer("Banana", "alice", 1, 2.0);
+        market.updateOffer("Banana", "bob", 1, 2.0);
+
+        List<SellerOffer> first = market.listOffersBySeller("ALICE", 0, 2);
+        List<SellerOffer> second = market.listOffersBySeller("alice", 2, 2);
+
+        assertEquals(List.of("Apple", "Banana"), first.stream().map(SellerOffer::product).toList());
+        assertEquals(List.of("Cherry"), second.stream().map(SellerOffer::product).toList());
+    }
+
+    @Test
+    void repriceAllOffers_shouldCrossRestingBids() {
+        market.addProductModel("1", "Apple", "Fruit", 0);
+        market.addProductModel("2", "Banana", "Fruit", 0);
+        market.updateOffer("Apple", "alice", 5, 4.0);
+        market.updateOffer("Banana", "alice", 5, 2.0);
+        Bid bid = market.placeBid("Apple", "bob", 2, 3.0);
+
+        assertEquals(2, market.repriceAllOffers("alice", 0.5));
+
+        assertEquals(0, bid.getQuantity());
+        assertEquals(1.0, market.getOffer("Banana", "alice").getPrice(), 1e-9);
+    }
+
+    @Test
+    void restockAllOffers_shouldTouchOnlyOwnOffers() {
+        market.addProductModel("1", "Apple", "Fruit", 0);
+        market.updateOffer("Apple", "alice", 5, 4.0);
+        market.updateOffer("Apple", "bob", 5, 4.0);
+
+        assertEquals(1, market.restockAllOffers("alice", 3));
+
+        assertEquals(8, market.getOffer("Apple", "alice").getQuantity());
+        assertEquals(5, market.getOffer("Apple", "bob").getQuantity());
+    }
+
+    @Test
+    void browse_shouldTrackTradesAndOfferChanges() {
+        market.addProductModel("1", "Apple", "Fruit", 0);
+        market.addProductModel("2", "Banana", "Fruit", 0);
+        market.updateOffer("Apple", "alice", 2, 3.0);
+
+        CategoryFacets.Query inStock = CategoryFacets.Query.category("Fruit").inStock();
+        assertEquals(List.of("Apple"), market.browse(inStock, 0, 10).stream().map(ProductModel::getName).toList());
+
+        market.buyFromOffer("Apple", "alice", 2);
+
+        assertTrue(market.browse(inStock, 0, 10).isEmpty());
+        assertEquals(new CategoryFacets.Count(2, 0), market.categoryCounts().get("Fruit"));
+    }
+
+    @Test
+    void snapshot_shouldNotSeeLaterTrades() {
+        market.addProductModel("1", "Apple", "Fruit", 0);
+        market.updateOffer("Apple", "alice", 5, 2.0);
+        CatalogSnapshot before = market.snapshot();
+
+        market.buyFromOffer("Apple", "alice", 3);
+
+        assertEquals(5, before.find("Apple").offers().get(0).quantity());
+        assertEquals(2, market.snapshot().find("Apple").offers().get(0).quantity());
+    }
+
+    @Test
+    void hybridMarket_shouldServeLoadedCatalogAndWriteChangesBehind() {
+        ProductModel apple = ProductModel.builder().id("A1").name("Apple").category("Fruit").build();
+        apple.addOffer(ProductOffer.builder().seller("alice").price(3.0).quantity(4).build());
+        apple.addOffer(ProductOffer.builder().seller("bob").price(2.0).quantity(1).build());
+        ProductModel pear = ProductModel.builder().id("P1").name("Pear").category("Fruit").build();
+
+        JdbcMarketRepository store = new JdbcMarketRepository(noDb()) {
+            @Override public List<ProductModel> loadCatalog(int partitions) { return new ArrayList<>(List.of(apple, pear)); }
+            @Override public List<Leaderboards.TradeStats> loadTradeStats() { return List.of(); }
+        };
+        List<WriteBehind.OfferState> written = new ArrayList<>();
+        List<WriteBehind.Trade> trades = new ArrayList<>();
+        WriteBehind wb = new WriteBehind((o, t) -> { written.addAll(o); trades.addAll(t); return 0; }, 100, 1000, 60_000);
+
+        Market hybrid = new Market(store, wb, 4);
+
+        assertEquals("bob", hybrid.getBestOffer("Apple").getSeller());
+        assertEquals(new CategoryFacets.Count(2, 1), hybrid.categoryCounts().get("Fruit"));
+        assertEquals(1, hybrid.listOffersBySeller("ALICE", 0, 10).size());
+        assertEquals(2, hybrid.snapshot().size());
+
+        Instant t0 = Instant.parse("2026-01-01T00:00:00Z");
+        hybrid.setClock(Clock.fixed(t0, ZoneOffset.UTC));
+        assertEquals(2, hybrid.marketBuy("Apple", 2).size());
+        wb.close(); // never started: drains on this thread
+
+        assertEquals(2, trades.size());
+        assertEquals(t0, trades.get(0).at());
+        assertEquals(List.of("bob", "alice"), written.stream().map(WriteBehind.OfferState::seller).toList());
+        assertEquals(3, written.get(1).quantity());
+
+        assertTrue(hybrid.buyFromOffer("Apple", "alice", 1)); // after shutdown: applied in memory, not written
+        assertEquals(2, wb.stats().dropped());
+    }
+
+    @Test
+    void buyFromOffer_withSameClientOrderId_shouldBuyOnlyOnce() {
+        market.addProductModel("1", "Apple", "Fruit", 0);
+        market.updateOffer("Apple", "alice", 10, 2.0);
+
+        assertTrue(market.buyFromOffer("Apple", "alice", 3, "order-1"));
+        assertTrue(market.buyFromOffer("Apple", "alice", 3, "order-1")); // retry after a lost response
+
+        assertEquals(7, market.getOffer("Apple", "alice").getQuantity());
+        assertFalse(market.buyFromOffer("Apple", "alice", 4, "order-1")); // id reused for another order
+        assertEquals(7, market.getOffer("Apple", "alice").getQuantity());
+    }
+
+    @Test
+    void hold_shouldTakeUnitsUntilConfirmedReleasedOrExpired() {
+        Instant t0 = Instant.parse("2026-01-01T10:00:00Z");
+        market.setClock(Clock.fixed(t0, ZoneOffset.UTC));
+        market.addProductModel("1", "Apple", "Fruit", 0);
+        market.updateOffer("Apple", "alice", 10, 2.0);
+
+        Hold confirmed = market.hold("Apple", "alice", "bob", 3, Duration.ofMinutes(5));
+        Hold released = market.hold("Apple", "alice", "carol", 2, Duration.ofMinutes(5));
+        Hold expiring = market.hold("Apple", "alice", "dave", 4, Duration.ofSeconds(30));
+        assertNull(market.hold("Apple", "alice", "erin", 2, Duration.ofMinutes(5))); // only 1 left
+        assertEquals(1, market.findModelByName("Apple").getAvailableQuantity());
+
+        assertTrue(market.confirmHold(confirmed.id()));
+        assertFalse(market.confirmHold(confirmed.id()));
+        assertEquals(List.of(2.0), market.getLastTradePrices("Apple", 5));
+        assertTrue(market.releaseHold(released.id()));
+        assertEquals(3, market.findModelByName("Apple").getAvailableQuantity());
+
+        market.setClock(Clock.fixed(t0.plusSeconds(31), ZoneOffset.UTC));
+        assertEquals(3, market.findModelByName("Apple").getAvailableQuantity()); // reads do not expire holds
+        assertEquals(1, market.expireHolds());
+        assertEquals(7, market.findModelByName("Apple").getAvailableQuantity());
+        assertFalse(market.confirmHold(expiring.id()));
+    }
+
+    @Test
+    void startHoldExpiry_shouldGiveExpiredHoldsBackInTheBackground() throws InterruptedException {
+        try (Market m = new Market().startHoldExpiry()) {
+            m.addProductModel("1", "Apple", "Fruit", 0);
+            m.updateOffer("Apple", "alice", 10, 2.0);
+            m.hold("Apple", "alice", "bob", 4, Duration.ofMillis(50));
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (m.snapshot().find("Apple").offers().get(0).quantity() != 10) {
+                if (System.nanoTime() > deadline) fail("hold was not released");
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    @Test
+    void rollingStats_shouldFollowTrades() {
+        market.addProductModel("1", "Apple", "Fruit", 0);
+        market.updateOffer("Apple", "alice", 10, 2.0);
+        market.updateOffer("Apple", "bob", 10, 4.0);
+
+        market.buyFromOffer("Apple", "alice", 3);
+        market.buyFromOffer("Apple", "bob", 1);
+
+        RollingStats.Snapshot s = market.rollingStats("apple", RollingStats.Window.FIVE_MINUTES);
+        assertEquals(4, s.volume());
+        assertEquals((3 * 2.0 + 4.0) / 4, s.vwap(), 1e-9);
+        assertSame(RollingStats.Snapshot.EMPTY, market.rollingStats("Pear", RollingStats.Window.ONE_DAY));
+    }
+
+    // every connection attempt fails: repositories in these tests override the methods the market calls
+    private static DataSource noDb() {
+        return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(),
+                new Class<?>[]{DataSource.class}, (proxy, method, args) -> { throw new SQLException("no db"); });
+    }
+
+    // DB-mode market over a repository whose compare-and-set loses the first `conflicts` times
+    private static Market casMarket(int conflicts, AtomicInteger writes) {
+        JdbcMarketRepository repo = new JdbcMarketRepository(noDb()) {
+            int lost;
+            @Override public <T> T inTransaction(Supplier<T> work) { return work.get(); }
+            @Override public ProductOffer getOffer(String product, String seller) {
+                return ProductOffer.builder().seller(seller).price(2.0).quantity(10).version(7).build();
+            }
+            @Override public int getTotalAvailableForProduct(String product) { return 10; }
+            @Override public List<Hold> loadHolds() { return List.of(); }
+            @Override public List<Long> expiredHoldIds(Instant now) { return List.of(); }
+            @Override public boolean buyFromOffer(String product, String seller, int qty,
+                                                  double executionPrice, double newPrice, long expectedVersion) {
+                assertEquals(7, expectedVersion);
+                if (lost++ < conflicts) return false;
+                writes.incrementAndGet();
+                return true;
+            }
+        };
+        return new Market(repo);
+    }
+
+    @Test
+    void buyFromOffer_shouldRetryLostCompareAndSet() {
+        AtomicInteger writes = new AtomicInteger();
+        Market db = casMarket(2, writes);
+
+        assertTrue(db.buyFromOffer("Apple", "alice", 1));
+
+        assertEquals(1, writes.get());
+        assertEquals(new Market.ConcurrencyStats(3, 2, 2, 0), db.concurrencyStats());
+    }
+
+    @Test
+    void buyFromOffer_shouldGiveUpAfterMaxAttempts() {
+        AtomicInteger writes = new AtomicInteger();
+        Market db = casMarket(Integer.MAX_VALUE, writes);
+
+        assertFalse(db.buyFromOffer("Apple", "alice", 1));
+
+        assertEquals(0, writes.get());
+        assertEquals(Market.MAX_CAS_ATTEMPTS, db.concurrencyStats().conflicts());
+        assertEquals(1, db.concurrencyStats().exhausted());
+    }
+
+    @Test
+    void placeBid_shouldMatchAgainstBidsTableInDbMode() {
+        int[] open = {3}; // the bid as stored in the table
+        AtomicInteger bought = new AtomicInteger();
+        JdbcMarketRepository repo = new JdbcMarketRepository(noDb()) {
+            @Override public <T> T inTransaction(Supplier<T> work) { return work.get(); }
+            @Override public List<Hold> loadHolds() { return List.of(); }
+            @Override public List<Long> expiredHoldIds(Instant now) { return List.of(); }
+            @Override public long insertBid(String product, String buyer, double limit, int qty) { return 42; }
+            @Override public Bid lockBestBid(String product) {
+                return open[0] == 0 ? null : Bid.builder().id(42).product(product).buyer("bob").limitPrice(3.0).quantity(open[0]).build();
+            }
+            @Override public ProductOffer getBestOffer(String product) { return getOffer(product, "alice"); }
+            @Override public ProductOffer getOffer(String product, String seller) {
+                return ProductOffer.builder().seller("alice").price(2.0).quantity(10 - bought.get()).version(7).build();
+            }
+            @Override public int getTotalAvailableForProduct(String product) { return 10 - bought.get(); }
+            @Override public boolean buyFromOffer(String product, String seller, int qty,
+                                                  double executionPrice, double newPrice, long expectedVersion) {
+                bought.addAndGet(qty);
+                return true;
+            }
+            @Override public void fillBid(long bidId, int qty) { open[0] -= qty; }
+            @Override public int bidQuantity(long bidId) { return open[0]; }
+            @Override public boolean cancelBid(long bidId) { return open[0] > 0; }
+        };
+        Market db = new Market(repo);
+
+        Bid bid = db.placeBid("Apple", "bob", 3, 3.0);
+
+        assertEquals(0, bid.getQuantity());
+        assertEquals(3, bought.get());
+        assertFalse(db.cancelBid(42), "the table says the bid is filled");
+    }
+
+    @Test
+    void expireHolds_shouldReleaseExpiredHoldsOfOtherInstancesInDbMode() {
+        List<Long> table = new ArrayList<>(List.of(7L)); // left by an instance that stopped
+        AtomicInteger sweeps = new AtomicInteger();
+        JdbcMarketRepository repo = new JdbcMarketRepository(noDb()) {
+            @Override public List<Hold> loadHolds() { return List.of(); }
+            @Override public List<Long> expiredHoldIds(Instant now) { sweeps.incrementAndGet(); return List.copyOf(table); }
+            @Override public SellerOffer releaseHold(long holdId) {
+                if (!table.remove(holdId)) return null;
+                return new SellerOffer("Apple", "Fruit", ProductOffer.builder().seller("alice").price(2.0).quantity(5).build());
+            }
+            @Override public <T> T inTransaction(Supplier<T> work) { return work.get(); }
+            @Override public Bid lockBestBid(String product) { return null; }
+        };
+        Market db = new Market(repo);
+        Instant t0 = Instant.parse("2026-01-01T10:00:00Z");
+        db.setClock(Clock.fixed(t0, ZoneOffset.UTC));
+
+        assertEquals(1, db.expireHolds());
+        assertTrue(table.isEmpty());
+        assertEquals(0, db.expireHolds(), "the table is checked every HOLD_SWEEP_MILLIS only");
+        db.setClock(Clock.fixed(t0.plusMillis(Market.HOLD_SWEEP_MILLIS), ZoneOffset.UTC));
+        assertEquals(0, db.expireHolds());
+        assertEquals(2, sweeps.get());
+    }
+}
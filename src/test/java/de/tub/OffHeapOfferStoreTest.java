@@ -0,0 +1,100 @@
+package de.tub;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapOfferStoreTest {
+
+    private static ProductModel model(String name) {
+        return ProductModel.builder().id(name.toUpperCase()).name(name).category("Fruit").build();
+    }
+
+    private static ProductOffer offer(String seller, double price, int qty) {
+        return ProductOffer.builder().seller(seller).price(price).quantity(qty).build();
+    }
+
+    @Test
+    void offer_shouldShareTheSlotOfProductAndSeller() throws Exception {
+        try (OffHeapOfferStore s = OffHeapOfferStore.inMemory()) {
+            ProductModel banana = model("Banana");
+            OffHeapOfferStore.Offer a = s.offer(banana, offer("alice", 10.0, 5));
+            a.setQuantity(3);
+
+            OffHeapOfferStore.Offer again = s.offer(model("BANANA"), offer("ALICE", 10.0, 3));
+            again.setPrice(11.0);
+
+            assertEquals(1, s.size());
+            assertEquals(11.0, a.getPrice());
+            assertEquals(3, a.getQuantity());
+            assertSame(a, s.offer(banana, a));
+        }
+    }
+
+    @Test
+    void index_shouldGrowPastOneSlab() throws Exception {
+        try (OffHeapOfferStore s = OffHeapOfferStore.inMemory()) {
+            int n = OffHeapOfferStore.SLAB_SLOTS + 10;
+            List<OffHeapOfferStore.Offer> views = new ArrayList<>();
+            for (int p = 0; p < n; p++) views.add(s.offer(model("p" + p), offer("alice", p, 1)));
+
+            assertEquals(n, s.size());
+            assertEquals(n - 1.0, views.get(n - 1).getPrice());
+            assertEquals(7.0, s.offer(model("p7"), offer("alice", 7.0, 1)).getPrice());
+            assertEquals(n, s.size());
+        }
+    }
+
+    @Test
+    void market_shouldTradeOnTheSlots() throws Exception {
+        try (OffHeapOfferStore s = OffHeapOfferStore.inMemory()) {
+            Market market = new Market(s);
+            market.addProductModel("B1", "Banana", "Fruit", 0);
+            assertTrue(market.updateOffer("Banana", "alice", 5, 10.0));
+            assertTrue(market.addOfferToExistingProduct("Banana", offer("bob", 12.0, 5)));
+
+            assertTrue(market.buyFromOffer("Banana", "alice", 2));
+
+            ProductOffer alice = market.findModelByName("Banana").getOffers().get(0);
+            assertInstanceOf(OffHeapOfferStore.Offer.class, alice);
+            assertEquals(3, alice.getQuantity());
+            assertEquals(PriceCalculator.calculateNewPrice(10.0, 2, 8), alice.getPrice(), 1e-9);
+            assertEquals(8, market.findModelByName("Banana").getAvailableQuantity());
+            assertFalse(market.addOfferToExistingProduct("Banana", offer("ALICE", 1.0, 100)));
+            assertEquals(3, alice.getQuantity());
+        }
+    }
+
+    @Test
+    void mapped_shouldReopenWithoutReload() throws Exception {
+        Path file = Files.createTempFile("offers", ".bin");
+        Files.delete(file);
+        try {
+            try (OffHeapOfferStore s = OffHeapOfferStore.mapped(file)) {
+                Market market = new Market(s);
+                market.addProductModel("B1", "Banana", "Fruit", 0);
+                market.addProductModel("M1", "Milk", "Dairy", 7);
+                market.updateOffer("Banana", "Alice", 5, 10.0);
+                market.buyFromOffer("Banana", "alice", 1);
+            }
+            try (OffHeapOfferStore s = OffHeapOfferStore.mapped(file)) {
+                assertEquals(2, s.size());
+                Market market = new Market(s);
+                ProductModel banana = market.findModelByName("banana");
+                assertEquals("Fruit", banana.getCategory());
+                assertEquals("Alice", banana.getOffers().get(0).getSeller());
+                assertEquals(4, banana.getAvailableQuantity());
+                assertEquals(7, market.findModelByName("Milk").getAvailableQuantity());
+                assertTrue(market.buyFromOffer("Milk", "Stock", 7));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(Path.of(file + ".names"));
+        }
+    }
+}
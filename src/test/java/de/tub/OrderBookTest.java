@@ -0,0 +1,65 @@
+package de.tub;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderBookTest {
+
+    private static ProductOffer offer(String seller, double price, int qty) {
+        return ProductOffer.builder().seller(seller).price(price).quantity(qty).build();
+    }
+
+    @Test
+    void best_shouldReturnCheapestOffer() {
+        OrderBook book = new OrderBook(List.of(offer("a", 3.0, 5), offer("b", 1.0, 5), offer("c", 2.0, 5)));
+
+        assertEquals("b", book.best().getSeller());
+        assertEquals(15, book.totalQuantity());
+    }
+
+    @Test
+    void best_shouldPreferEarlierOfferOnSamePrice() {
+        OrderBook book = new OrderBook();
+        book.update(offer("first", 2.0, 1));
+        book.update(offer("second", 2.0, 1));
+
+        assertEquals("first", book.best().getSeller());
+    }
+
+    @Test
+    void update_shouldReorderAfterPriceChange() {
+        ProductOffer a = offer("a", 1.0, 5);
+        OrderBook book = new OrderBook(List.of(a, offer("b", 2.0, 5)));
+
+        a.setPrice(3.0);
+        book.update(a);
+
+        assertEquals("b", book.best().getSeller());
+    }
+
+    @Test
+    void update_shouldDropSoldOutOffer() {
+        ProductOffer a = offer("a", 1.0, 5);
+        OrderBook book = new OrderBook(List.of(a, offer("b", 2.0, 5)));
+
+        a.setQuantity(0);
+        book.update(a);
+
+        assertEquals(1, book.size());
+        assertEquals(5, book.totalQuantity());
+    }
+
+    @Test
+    void cheapest_shouldCoverRequestedQuantity() {
+        OrderBook book = new OrderBook(List.of(offer("a", 1.0, 3), offer("b", 2.0, 3), offer("c", 3.0, 3)));
+
+        List<ProductOffer> asks = book.cheapest(4);
+
+        assertEquals(2, asks.size());
+        assertEquals("a", asks.get(0).getSeller());
+        assertEquals("b", asks.get(1).getSeller());
+    }
+}
@@ -0,0 +1,45 @@
+package de.tub;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderDedupTest {
+
+    private static final OrderDedup.Order MILK = new OrderDedup.Order("Milk", "anna", 2, true);
+
+    @Test
+    void get_shouldForgetIdsOutsideTheWindow() {
+        AtomicLong now = new AtomicLong();
+        OrderDedup dedup = new OrderDedup(10, Duration.ofSeconds(60), now::get);
+        dedup.put("o-1", MILK);
+
+        now.set(Duration.ofSeconds(59).toNanos());
+        assertEquals(MILK, dedup.get("o-1"));
+
+        now.set(Duration.ofSeconds(60).toNanos());
+        assertNull(dedup.get("o-1"));
+        assertEquals(0, dedup.size());
+    }
+
+    @Test
+    void put_shouldEvictOldestBeyondMaxSize() {
+        OrderDedup dedup = new OrderDedup(2, Duration.ofHours(1));
+        dedup.put("o-1", MILK);
+        dedup.put("o-2", MILK);
+        dedup.put("o-3", MILK);
+
+        assertNull(dedup.get("o-1"));
+        assertNotNull(dedup.get("o-2"));
+        assertNotNull(dedup.get("o-3"));
+    }
+
+    @Test
+    void sameAs_shouldIgnoreCaseButNotQuantity() {
+        assertTrue(MILK.sameAs("MILK", "Anna", 2));
+        assertFalse(MILK.sameAs("Milk", "anna", 3));
+    }
+}
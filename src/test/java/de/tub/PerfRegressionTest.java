@@ -0,0 +1,226 @@
+package de.tub;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntPredicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Бюджеты на операцию: байты, выделенные потоком (ThreadMXBean.getThreadAllocatedBytes), и p99 времени
+ * на засеянном каталоге в памяти. Бюджеты лежат в perf-baseline.properties; превышение валит сборку,
+ * пока в файле нет provisional=true (тогда превышения только печатаются).
+ * Только ./gradlew perfTest (тег perf), не в test. ./gradlew perfTest -PrecordPerfBaseline
+ * переписывает файл по замерам этой машины с запасом и снимает provisional. Бюджет задержки не бывает ниже 50 мкс:
+ * меньшие значения — шум таймера и JIT, а аллокации проверяются строго.
+ */
+@Tag("perf")
+class PerfRegressionTest {
+
+    private static final String BASELINE = "/perf-baseline.properties";
+    // baseline not yet recorded by the Gradle task: overruns are printed, not failed
+    private static final String PROVISIONAL = "provisional";
+    private static final int PRODUCTS = 2_000;
+    private static final String[] SELLERS = {"Stock", "alice", "bob", "carol"};
+    private static final int WARMUP = 50_000;
+    private static final int OPS = 20_000;
+
+    // recorded budgets get this much room: allocation is stable, latency depends on the machine
+    private static final double BYTES_HEADROOM = 1.25;
+    private static final double LATENCY_HEADROOM = 5.0;
+    // no latency budget below this: a few microseconds are timer resolution, JIT and GC noise, not a regression
+    private static final long LATENCY_FLOOR_MICROS = 50;
+
+    private record Result(double bytesPerOp, long p99Nanos, int succeeded) {}
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // PRODUCTS products, each with an offer of every seller and stock that lasts through all runs
+    private static Market seeded(PriceCalculator.Policy pricing) {
+        Market market = new Market();
+        market.setPricingPolicy(pricing);
+        for (int i = 0; i < PRODUCTS; i++) {
+            String name = "Product " + i;
+            market.addProductModel("p" + i, name, "Category " + (i % 20), 1_000_000_000);
+            for (int s = 1; s < SELLERS.length; s++) {
+                double price = 5.0 + (i * 7 + s * 3) % 50;
+                market.addOfferToExistingProduct(name, ProductOffer.builder()
+                        .seller(SELLERS[s]).price(price).quantity(1_000_000_000)
+                        .priceHistory(new ArrayList<>(List.of(price))).build());
+            }
+        }
+        return market;
+    }
+
+    private static String[] names() {
+        String[] names = new String[PRODUCTS];
+        for (int i = 0; i < PRODUCTS; i++) names[i] = "Product " + i;
+        return names;
+    }
+
+    // op(i) for WARMUP + OPS calls, allocation and latency taken over the last OPS only
+    private static Result measure(IntPredicate op) {
+        for (int i = 0; i < WARMUP; i++) op.test(i);
+        long[] took = new long[OPS];
+        int ok = 0;
+        long thread = Thread.currentThread().threadId();
+        long before = THREADS.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < OPS; i++) {
+            long t0 = System.nanoTime();
+            boolean done = op.test(WARMUP + i);
+            took[i] = System.nanoTime() - t0;
+            if (done) ok++;
+        }
+        long allocated = THREADS.getThreadAllocatedBytes(thread) - before;
+        Arrays.sort(took);
+        return new Result((double) allocated / OPS, took[(int) (OPS * 0.99)], ok);
+    }
+
+    @Test
+    void buyFromOffer_shouldStayWithinBudget() {
+        AtomicLong repriced = new AtomicLong();
+        Market market = seeded((old, bought, available, recent) -> {
+            repriced.incrementAndGet();
+            return PriceCalculator.SCARCITY.newPrice(old, bought, available, recent);
+        });
+        String[] names = names();
+        repriced.set(0);
+
+        Result r = measure(i -> market.buyFromOffer(names[i % PRODUCTS], SELLERS[(i / PRODUCTS) % SELLERS.length], 1));
+
+        assertEquals(OPS, r.succeeded());
+        assertEquals(WARMUP + OPS, repriced.get(), "one price calculation per buy");
+        check("buyFromOffer", r);
+    }
+
+    @Test
+    void findModelByName_shouldStayWithinBudget() {
+        Market market = seeded(PriceCalculator.SCARCITY);
+        String[] names = names();
+        for (int i = 0; i < PRODUCTS; i++) names[i] = names[i].toLowerCase(Locale.ROOT); // case-insensitive path
+
+        Result r = measure(i -> market.findModelByName(names[i % PRODUCTS]) != null);
+
+        assertEquals(OPS, r.succeeded());
+        check("findModelByName", r);
+    }
+
+    @Test
+    void getMarketPrice_shouldStayWithinBudget() {
+        Market market = seeded(PriceCalculator.SCARCITY);
+        String[] names = names();
+        ProductModel[] models = new ProductModel[PRODUCTS];
+        for (int i = 0; i < PRODUCTS; i++) models[i] = market.findModelByName(names[i]);
+
+        Result r = measure(i -> models[i % PRODUCTS].getMarketPrice() > 0);
+
+        assertEquals(OPS, r.succeeded());
+        check("getMarketPrice", r);
+    }
+
+    @Test
+    void priceSeriesAppend_shouldStayWithinBudget() {
+        PriceSeries series = new PriceSeries(WARMUP + OPS);
+        double[] prices = new double[1024];
+        for (int i = 0; i < prices.length; i++) prices[i] = Math.round((20.0 + Math.sin(i) * 3) * 100) / 100.0;
+
+        Result r = measure(i -> {
+            series.append(1_700_000_000_000L + i * 250L, prices[i & 1023]);
+            return true;
+        });
+
+        assertEquals(WARMUP + OPS, series.size());
+        check("priceSeriesAppend", r);
+    }
+
+    @Test
+    void addPriceToHistory_shouldStayWithinBudget() {
+        ProductModel model = ProductModel.builder().name("Banana").build();
+
+        Result r = measure(i -> {
+            model.addPriceToHistory(1.0 + (i & 1023) / 100.0);
+            return model.getPriceHistory().size() <= 3;
+        });
+
+        assertEquals(OPS, r.succeeded(), "history keeps the last 3 prices");
+        check("addPriceToHistory", r);
+    }
+
+    private static void check(String op, Result r) {
+        String record = System.getProperty("perf.record");
+        if (record != null) {
+            record(Path.of(record), op, r);
+            return;
+        }
+        Properties budgets = baseline();
+        String bytes = budgets.getProperty(op + ".bytesPerOp");
+        String p99 = budgets.getProperty(op + ".p99Micros");
+        assertNotNull(bytes, "no " + op + ".bytesPerOp in " + BASELINE);
+        assertNotNull(p99, "no " + op + ".p99Micros in " + BASELINE);
+        double p99Budget = Math.max(LATENCY_FLOOR_MICROS, Double.parseDouble(p99));
+        List<String> overruns = new ArrayList<>();
+        if (r.bytesPerOp() > Double.parseDouble(bytes)) overruns.add(String.format(Locale.US,
+                "%s allocates %.1f bytes/op, budget %s (%s)", op, r.bytesPerOp(), bytes, BASELINE));
+        if (r.p99Nanos() / 1e3 > p99Budget) overruns.add(String.format(Locale.US,
+                "%s p99 %.2f us, budget %.0f us (%s)", op, r.p99Nanos() / 1e3, p99Budget, BASELINE));
+        if (Boolean.parseBoolean(budgets.getProperty(PROVISIONAL))) {
+            overruns.forEach(o -> System.out.println("Over provisional budget: " + o));
+            return;
+        }
+        assertTrue(overruns.isEmpty(), String.join("; ", overruns));
+    }
+
+    private static Properties baseline() {
+        Properties p = new Properties();
+        try (InputStream in = PerfRegressionTest.class.getResourceAsStream(BASELINE)) {
+            assertNotNull(in, BASELINE + " is missing");
+            p.load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return p;
+    }
+
+    // rewrites the op's two lines of the baseline file, keeping the others
+    private static synchronized void record(Path file, String op, Result r) {
+        Map<String, String> lines = new TreeMap<>();
+        try {
+            if (Files.exists(file)) {
+                for (String l : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    int eq = l.indexOf('=');
+                    if (!l.startsWith("#") && eq > 0) lines.put(l.substring(0, eq).trim(), l.substring(eq + 1).trim());
+                }
+            }
+            lines.remove(PROVISIONAL); // recorded by the task from now on
+            lines.put(op + ".bytesPerOp", String.valueOf((long) Math.ceil(r.bytesPerOp() * BYTES_HEADROOM + 16)));
+            lines.put(op + ".p99Micros", String.valueOf(Math.max(LATENCY_FLOOR_MICROS, (long) Math.ceil(r.p99Nanos() / 1e3 * LATENCY_HEADROOM))));
+            StringBuilder out = new StringBuilder("""
+                    # Per-operation budgets for PerfRegressionTest (./gradlew perfTest): bytes allocated per call and
+                    # p99 latency in microseconds. Rewritten by ./gradlew perfTest -PrecordPerfBaseline from a run with
+                    # headroom (allocation x1.25 + 16, latency x5 but at least 50 us); check in only deliberate increases.
+                    """);
+            lines.forEach((k, v) -> out.append(k).append('=').append(v).append('\n'));
+            Files.writeString(file, out, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.printf(Locale.US, "%s: %.1f bytes/op, p99 %.2f us%n", op, r.bytesPerOp(), r.p99Nanos() / 1e3);
+    }
+}
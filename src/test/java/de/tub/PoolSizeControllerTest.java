@@ -0,0 +1,48 @@
+package de.tub;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PoolSizeControllerTest {
+
+    private static PoolMetrics.Snapshot window(int idle, int pending, double waitMs, double useMs, long timeouts) {
+        return new PoolMetrics.Snapshot(0, idle, 0, pending, 0,
+                100, (long) (waitMs * 1e6 * 100), 100, (long) (useMs * 100),
+                timeouts, new long[PoolMetrics.BUCKETS]);
+    }
+
+    @Test
+    void nextSize_shouldGrowWhenWaitDominates() {
+        int next = PoolSizeController.nextSize(8, 2, 20, 0.5, window(0, 4, 20.0, 5.0, 0));
+        assertEquals(10, next);
+    }
+
+    @Test
+    void nextSize_shouldGrowOnTimeouts() {
+        assertTrue(PoolSizeController.nextSize(5, 2, 20, 0.5, window(0, 0, 0.0, 5.0, 1)) > 5);
+    }
+
+    @Test
+    void nextSize_shouldNotExceedCeiling() {
+        assertEquals(20, PoolSizeController.nextSize(19, 2, 20, 0.5, window(0, 10, 50.0, 5.0, 3)));
+    }
+
+    @Test
+    void nextSize_shouldShrinkWhenIdle() {
+        assertEquals(7, PoolSizeController.nextSize(8, 2, 20, 0.5, window(6, 0, 0.0, 5.0, 0)));
+        assertEquals(2, PoolSizeController.nextSize(2, 2, 20, 0.5, window(2, 0, 0.0, 5.0, 0)));
+    }
+
+    @Test
+    void snapshot_shouldBucketWaitTimes() {
+        PoolMetrics metrics = new PoolMetrics();
+        for (int i = 0; i < 99; i++) metrics.recordWait(50_000);   // 50 µs
+        metrics.recordWait(40_000_000);                           // 40 ms
+
+        PoolMetrics.Snapshot s = metrics.snapshot();
+        assertEquals(100, s.acquired());
+        assertTrue(s.waitPercentileMillis(0.5) < 0.1);
+        assertTrue(s.waitPercentileMillis(1.0) >= 40.0);
+    }
+}
@@ -42,5 +42,14 @@ class PriceCalculatorTest {
 
         assertTrue(p1 < p2 && p2 < p3, "Price should increase with more bought units");
     }
-}
 
+    @Test
+    void vwapBand_shouldKeepPriceNearRecentTrades() {
+        RollingStats.Snapshot recent = new RollingStats.Snapshot(10, 100, 100.0, 0.001);
+
+        assertEquals(102.0, PriceCalculator.VWAP_BAND.newPrice(150.0, 10, 0, recent), 1e-9);
+        assertEquals(98.0, PriceCalculator.VWAP_BAND.newPrice(50.0, 1, 100, recent), 1e-9);
+        assertEquals(PriceCalculator.calculateNewPrice(150.0, 10, 0),
+                PriceCalculator.VWAP_BAND.newPrice(150.0, 10, 0, RollingStats.Snapshot.EMPTY), 1e-9);
+    }
+}
@@ -0,0 +1,67 @@
+package de.tub;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PriceSeriesTest {
+
+    @Test
+    void range_shouldReturnExactlyWhatWasAppended() {
+        SplittableRandom rnd = new SplittableRandom(7);
+        PriceSeries s = new PriceSeries(1_000_000);
+        List<PriceSeries.Point> expected = new ArrayList<>();
+        long t = 0;
+        double price = 10.0;
+        for (int i = 0; i < 50_000; i++) {
+            expected.add(new PriceSeries.Point(t, price));
+            s.append(t, price);
+            // same, small, medium and huge gaps; repeated, nearby and unrelated prices
+            t += switch (rnd.nextInt(4)) { case 0 -> 0; case 1 -> rnd.nextInt(100); case 2 -> rnd.nextInt(100_000); default -> rnd.nextLong(1L << 40); };
+            price = switch (rnd.nextInt(3)) { case 0 -> price; case 1 -> price * 1.001; default -> rnd.nextDouble() * 1e6; };
+        }
+
+        assertEquals(expected, s.range(Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(expected.size(), s.size());
+    }
+
+    @Test
+    void lastValues_shouldBeNewestFirstAcrossBlocks() {
+        PriceSeries s = new PriceSeries(1_000_000);
+        for (int i = 0; i < 10_000; i++) s.append(i * 1_000L, i * 0.5);
+
+        assertEquals(List.of(4999.5, 4999.0, 4998.5), s.lastValues(3));
+        assertEquals(10_000, s.lastValues(20_000).size());
+        assertEquals(List.of(), new PriceSeries(10).lastValues(3));
+    }
+
+    @Test
+    void range_shouldBeHalfOpen() {
+        PriceSeries s = new PriceSeries(100);
+        for (int i = 0; i < 10; i++) s.append(i * 10L, i);
+
+        assertEquals(List.of(new PriceSeries.Point(20, 2), new PriceSeries.Point(30, 3)), s.range(20, 40));
+    }
+
+    @Test
+    void append_shouldDropOldestBlocksBeyondMaxPoints() {
+        PriceSeries s = new PriceSeries(1_000);
+        for (int i = 0; i < 100_000; i++) s.append(i, i);
+
+        assertTrue(s.size() >= 1_000 && s.size() < 100_000);
+        assertEquals(99_999.0, s.lastValues(1).get(0));
+        assertEquals(1_000, s.range(99_000, 100_000).size());
+    }
+
+    @Test
+    void regularUnchangedPrices_shouldCostAboutTwoBits() {
+        PriceSeries s = new PriceSeries(1_000_000);
+        for (int i = 0; i < 100_000; i++) s.append(i * 1_000L, 12.34);
+
+        assertTrue(s.bytesPerPoint() < 0.3, "bytes per point " + s.bytesPerPoint());
+    }
+}
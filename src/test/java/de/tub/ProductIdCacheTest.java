@@ -0,0 +1,35 @@
+package de.tub;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductIdCacheTest {
+
+    @Test
+    void get_shouldIgnoreCase() {
+        ProductIdCache cache = new ProductIdCache(10);
+        cache.put("Bread", 9);
+
+        assertEquals(9L, cache.get("bread"));
+        assertEquals(9L, cache.get("BREAD"));
+    }
+
+    @Test
+    void put_shouldDropOldNameOnRename() {
+        ProductIdCache cache = new ProductIdCache(10);
+        cache.put("Bread", 9);
+        cache.put("Rye Bread", 9);
+
+        assertEquals(ProductIdCache.MISSING, cache.get("Bread"));
+        assertEquals(9L, cache.get("rye bread"));
+    }
+
+    @Test
+    void put_shouldStayWithinMaxSize() {
+        ProductIdCache cache = new ProductIdCache(3);
+        for (int i = 0; i < 10; i++) cache.put("p" + i, i);
+
+        assertEquals(3, cache.size());
+    }
+}
@@ -0,0 +1,70 @@
+package de.tub;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicaRouterTest {
+
+    private static DataSource fakeDataSource() {
+        return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(),
+                new Class<?>[]{DataSource.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("getConnection")) throw new SQLException("fake");
+                    return null;
+                });
+    }
+
+    @Test
+    void forRead_shouldUsePrimaryWithoutReplica() {
+        DataSource primary = fakeDataSource();
+        ReplicaRouter router = new ReplicaRouter(primary);
+
+        assertSame(primary, router.forRead());
+    }
+
+    @Test
+    void forRead_shouldUseReplicaByDefault() {
+        DataSource replica = fakeDataSource();
+        ReplicaRouter router = new ReplicaRouter(fakeDataSource(), replica, 5_000);
+
+        assertSame(replica, router.forRead());
+    }
+
+    @Test
+    void forRead_shouldReadOwnWritesFromPrimary() {
+        DataSource primary = fakeDataSource();
+        ReplicaRouter router = new ReplicaRouter(primary, fakeDataSource(), 60_000);
+
+        router.markWrite();
+
+        assertSame(primary, router.forRead());
+    }
+
+    @Test
+    void forRead_shouldFailOverToPrimaryWhileReplicaIsDown() {
+        DataSource primary = fakeDataSource();
+        DataSource replica = fakeDataSource();
+        ReplicaRouter router = new ReplicaRouter(primary, replica, 5_000);
+
+        router.replicaFailed(new SQLException("down"));
+        assertSame(primary, router.forRead());
+
+        router.checkReplica(); // fake replica still refuses connections
+        assertFalse(router.isReplicaHealthy());
+        assertSame(primary, router.forRead());
+    }
+
+    @Test
+    void isConnectionFailure_shouldOnlyMatchConnectionErrors() {
+        assertTrue(ReplicaRouter.isConnectionFailure(new SQLException("refused", "08001")));
+        assertTrue(ReplicaRouter.isConnectionFailure(new java.sql.SQLTransientConnectionException("pool timeout")));
+        assertTrue(ReplicaRouter.isConnectionFailure(new SQLException("wrapped", new SQLException("reset", "08006"))));
+
+        assertFalse(ReplicaRouter.isConnectionFailure(new SQLException("column does not exist", "42703")));
+        assertFalse(ReplicaRouter.isConnectionFailure(new SQLException("no state")));
+    }
+}
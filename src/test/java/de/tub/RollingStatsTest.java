@@ -0,0 +1,47 @@
+package de.tub;
+
+import org.junit.jupiter.api.Test;
+
+import static de.tub.RollingStats.Window.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RollingStatsTest {
+
+    @Test
+    void stats_shouldWeightPriceByVolume() {
+        RollingStats r = new RollingStats();
+        r.trade(1_000, 10.0, 1);
+        r.trade(2_000, 20.0, 3);
+
+        RollingStats.Snapshot s = r.stats(FIVE_MINUTES, 3_000);
+        assertEquals(2, s.trades());
+        assertEquals(4, s.volume());
+        assertEquals(17.5, s.vwap(), 1e-9);
+    }
+
+    @Test
+    void stats_shouldDropTradesOlderThanTheWindow() {
+        RollingStats r = new RollingStats();
+        r.trade(0, 10.0, 1);
+        r.trade(10 * 60_000, 12.0, 1);
+
+        assertEquals(1, r.stats(FIVE_MINUTES, 10 * 60_000).trades());
+        assertEquals(2, r.stats(ONE_HOUR, 10 * 60_000).trades());
+        assertEquals(0, r.stats(ONE_HOUR, 2 * 3_600_000).trades());
+        assertSame(RollingStats.Snapshot.EMPTY, r.stats(ONE_DAY, 3 * 86_400_000L));
+    }
+
+    @Test
+    void stats_shouldComputeVolatilityOfLogReturns() {
+        RollingStats r = new RollingStats();
+        double[] prices = {100, 110, 99, 108.9};
+        for (int i = 0; i < prices.length; i++) r.trade(i * 1_000L, prices[i], 1);
+
+        double[] ret = {Math.log(1.1), Math.log(0.9), Math.log(1.1)};
+        double mean = (ret[0] + ret[1] + ret[2]) / 3;
+        double var = 0;
+        for (double x : ret) var += (x - mean) * (x - mean);
+        assertEquals(Math.sqrt(var / 2), r.stats(ONE_HOUR, 4_000).volatility(), 1e-12);
+        assertTrue(Double.isNaN(new RollingStats().stats(ONE_HOUR, 0).volatility()));
+    }
+}
@@ -0,0 +1,72 @@
+package de.tub;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimerWheelTest {
+
+    private static List<String> advance(TimerWheel<String> wheel, long nowMillis) {
+        List<String> fired = new ArrayList<>();
+        wheel.advance(nowMillis, fired::add);
+        return fired;
+    }
+
+    @Test
+    void advance_shouldFireOnlyDueTimers() {
+        TimerWheel<String> wheel = new TimerWheel<>(10, 0);
+        wheel.schedule("a", 25);
+        wheel.schedule("b", 100);
+
+        assertEquals(List.of(), advance(wheel, 20));
+        assertEquals(List.of("a"), advance(wheel, 30));
+        assertEquals(List.of("b"), advance(wheel, 1_000));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void cancel_shouldKeepTimerFromFiring() {
+        TimerWheel<String> wheel = new TimerWheel<>(10, 0);
+        TimerWheel<String>.Timer a = wheel.schedule("a", 50);
+        wheel.schedule("b", 50);
+
+        assertTrue(a.cancel());
+        assertFalse(a.cancel());
+        assertEquals(List.of("b"), advance(wheel, 50));
+    }
+
+    @Test
+    void advance_shouldCascadeTimersFromUpperLevels() {
+        TimerWheel<String> wheel = new TimerWheel<>(1, 0);
+        wheel.schedule("level1", 300);       // past the 256 slots of the first level
+        wheel.schedule("level2", 20_000);    // past 256 * 64
+
+        assertEquals(List.of(), advance(wheel, 299));
+        assertEquals(List.of("level1"), advance(wheel, 300));
+        assertEquals(List.of(), advance(wheel, 19_999));
+        assertEquals(List.of("level2"), advance(wheel, 20_000));
+    }
+
+    @Test
+    void schedule_beyondTopLevel_shouldStillFireOnTime() {
+        TimerWheel<String> wheel = new TimerWheel<>(1, 0);
+        long far = (1L << 26) + 12_345;
+        wheel.schedule("far", far);
+        wheel.schedule("near", 5);
+
+        assertEquals(List.of("near"), advance(wheel, far - 1));
+        assertEquals(List.of("far"), advance(wheel, far));
+    }
+
+    @Test
+    void schedule_inThePast_shouldFireOnNextTick() {
+        TimerWheel<String> wheel = new TimerWheel<>(10, 0);
+        advance(wheel, 100);
+        wheel.schedule("late", 40);
+
+        assertEquals(List.of("late"), advance(wheel, 110));
+    }
+}
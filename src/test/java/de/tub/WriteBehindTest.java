@@ -0,0 +1,161 @@
+package de.tub;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteBehindTest {
+
+    // records every batch; synchronized because the writer thread appends
+    private static class RecordingSink implements WriteBehind.Sink {
+        final List<List<WriteBehind.OfferState>> offerBatches = new ArrayList<>();
+        final List<List<WriteBehind.Trade>> tradeBatches = new ArrayList<>();
+
+        @Override
+        public synchronized int write(List<WriteBehind.OfferState> offers, List<WriteBehind.Trade> trades) {
+            offerBatches.add(List.copyOf(offers));
+            tradeBatches.add(List.copyOf(trades));
+            return 0;
+        }
+
+        synchronized int batches() { return offerBatches.size(); }
+    }
+
+    private static WriteBehind.OfferState offer(String product, String seller, double price, int qty) {
+        return new WriteBehind.OfferState(product, seller, price, qty);
+    }
+
+    @Test
+    void close_shouldDrainCoalescedOffersAndAllTrades() {
+        RecordingSink sink = new RecordingSink();
+        WriteBehind wb = new WriteBehind(sink, 100, 1000, 60_000).start();
+
+        wb.offerChanged(offer("Milk", "anna", 2.0, 10));
+        wb.offerChanged(offer("milk", "ANNA", 2.2, 7));
+        wb.offerChanged(offer("Bread", "anna", 1.0, 5));
+        wb.trade(new WriteBehind.Trade("Milk", 2.0, Instant.now()));
+        wb.trade(new WriteBehind.Trade("Milk", 2.1, Instant.now()));
+        wb.close();
+
+        assertEquals(1, sink.batches());
+        assertEquals(List.of(offer("milk", "ANNA", 2.2, 7), offer("Bread", "anna", 1.0, 5)), sink.offerBatches.get(0));
+        assertEquals(2, sink.tradeBatches.get(0).size());
+        assertEquals(1, wb.stats().coalesced());
+        assertEquals(0, wb.stats().pending());
+    }
+
+    @Test
+    void offerChanged_shouldFlushWhenBatchIsFull() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        try (WriteBehind wb = new WriteBehind(sink, 3, 10, 60_000).start()) {
+            for (int i = 0; i < 3; i++) wb.offerChanged(offer("p" + i, "s", 1.0, 1));
+            waitFor(() -> sink.batches() == 1);
+            assertEquals(3, sink.offerBatches.get(0).size());
+        }
+    }
+
+    @Test
+    void offerChanged_shouldFlushAfterMaxLag() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        try (WriteBehind wb = new WriteBehind(sink, 100, 1000, 50).start()) {
+            wb.offerChanged(offer("Milk", "anna", 2.0, 10));
+            waitFor(() -> sink.batches() == 1);
+        }
+    }
+
+    @Test
+    void trade_shouldBlockWhileQueueIsFull() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger written = new AtomicInteger();
+        WriteBehind.Sink slow = (offers, trades) -> {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            written.addAndGet(offers.size() + trades.size());
+            return 0;
+        };
+        try (WriteBehind wb = new WriteBehind(slow, 2, 2, 60_000).start()) {
+            wb.trade(new WriteBehind.Trade("Milk", 1.0, Instant.now()));
+            wb.trade(new WriteBehind.Trade("Milk", 1.0, Instant.now())); // full batch, taken by the blocked writer
+            assertTrue(writing.await(5, TimeUnit.SECONDS));
+            wb.trade(new WriteBehind.Trade("Milk", 1.0, Instant.now()));
+            wb.trade(new WriteBehind.Trade("Milk", 1.0, Instant.now())); // queue full again
+
+            Thread producer = new Thread(() -> wb.trade(new WriteBehind.Trade("Milk", 1.0, Instant.now())));
+            producer.start();
+            producer.join(200);
+            assertTrue(producer.isAlive(), "fifth trade should wait for the writer");
+
+            release.countDown();
+            producer.join(5_000);
+            assertFalse(producer.isAlive());
+            assertEquals(1, wb.stats().stalls());
+        }
+        assertEquals(5, written.get());
+    }
+
+    @Test
+    void failedFlush_shouldBeRetriedWithoutLosingNewerStates() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        List<WriteBehind.OfferState> stored = new ArrayList<>();
+        WriteBehind.Sink flaky = (offers, trades) -> {
+            if (calls.incrementAndGet() == 1) throw new RuntimeException("connection refused");
+            synchronized (stored) { stored.addAll(offers); }
+            return 0;
+        };
+        WriteBehind wb = new WriteBehind(flaky, 1, 10, 50).start();
+        wb.offerChanged(offer("Milk", "anna", 2.0, 10));
+        waitFor(() -> calls.get() >= 1);
+        wb.offerChanged(offer("Milk", "anna", 3.0, 4));
+        wb.close();
+
+        assertTrue(calls.get() >= 2);
+        synchronized (stored) {
+            assertEquals(offer("Milk", "anna", 3.0, 4), stored.get(stored.size() - 1));
+        }
+    }
+
+    @Test
+    void flush_shouldCountChangesTheSinkSkipped() {
+        WriteBehind wb = new WriteBehind((offers, trades) -> offers.size(), 100, 1000, 60_000);
+        wb.offerChanged(offer("Milk", "nobody", 2.0, 10));
+        wb.trade(new WriteBehind.Trade("Milk", 2.0, Instant.now()));
+        wb.close();
+
+        assertEquals(1, wb.stats().skipped());
+        assertEquals(1, wb.stats().flushedOffers());
+        assertEquals(0, wb.stats().pending());
+    }
+
+    @Test
+    void changes_afterClose_shouldBeCountedAsDropped() {
+        RecordingSink sink = new RecordingSink();
+        WriteBehind wb = new WriteBehind(sink, 1, 1, 10);
+        wb.close();
+        wb.offerChanged(offer("Milk", "anna", 1.0, 1));
+        wb.trade(new WriteBehind.Trade("Milk", 1.0, Instant.now()));
+
+        assertEquals(2, wb.stats().dropped());
+        assertEquals(0, wb.stats().pending());
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) fail("timed out");
+            Thread.sleep(5);
+        }
+    }
+}